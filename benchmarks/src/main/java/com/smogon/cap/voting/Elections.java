@@ -0,0 +1,151 @@
+package com.smogon.cap.voting;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+
+/**
+ * A seeded generator of synthetic elections, for benchmarking {@link Poll Polls} and scrapers.
+ * <p>
+ * Voters are named {@code Voter0}, {@code Voter1}, ..., and candidates {@code Candidate0}, {@code Candidate1}, ....
+ * Each voter ranks a fixed number of distinct candidates, drawn according to a {@link Preference}.
+ * The same settings and seed always generate the same ballots.
+ */
+public final class Elections
+{
+	private Elections(){}
+
+	/**
+	 * How voters' preferences are spread over the candidates.
+	 */
+	public enum Preference
+	{
+		/** Every candidate is as likely as any other at every rank. */
+		UNIFORM
+		{
+			@Override
+			double[] weights(Random random, int candidates)
+			{
+				double[] weights = new double[candidates];
+				Arrays.fill(weights, 1);
+				return weights;
+			}
+		},
+		/**
+		 * Candidate {@code i} is {@code 1 / (i + 1)} times as popular as {@code Candidate0}, as in Zipf's law.
+		 * Most real polls have a few favorites and a long tail like this.
+		 */
+		ZIPF
+		{
+			@Override
+			double[] weights(Random random, int candidates)
+			{
+				double[] weights = new double[candidates];
+				for (int i = 0; i < candidates; i++) weights[i] = 1.0 / (i + 1);
+				return weights;
+			}
+		},
+		/**
+		 * Voters split into two even blocs, which are Zipf-distributed in opposite orders.
+		 * Neither bloc has a majority, so instant runoffs go on for many rounds.
+		 */
+		POLARIZED
+		{
+			@Override
+			double[] weights(Random random, int candidates)
+			{
+				double[] weights = ZIPF.weights(random, candidates);
+				if (random.nextBoolean())
+				{
+					for (int i = 0, j = candidates - 1; i < j; i++, j--)
+					{
+						double swap = weights[i];
+						weights[i] = weights[j];
+						weights[j] = swap;
+					}
+				}
+				return weights;
+			}
+		};
+
+		// The relative likelihood of each candidate being ranked, for one voter.
+		abstract double[] weights(Random random, int candidates);
+	}
+
+	/**
+	 * Generates an election.
+	 * @param seed The seed of the election. The same seed gives the same ballots.
+	 * @param voters The number of ballots.
+	 * @param candidates The number of candidates to choose from.
+	 * @param length The number of candidates each voter ranks. At most {@code candidates}.
+	 * @param preference How voters choose candidates.
+	 * @return The ballots, one per voter.
+	 */
+	public static List<Ballot> generate(long seed, int voters, int candidates, int length, Preference preference)
+	{
+		if (length > candidates) throw new IllegalArgumentException("Can't rank " + length + " of " + candidates + " candidates.");
+
+		Random random = new Random(seed);
+		User[] names = new User[candidates];
+		for (int i = 0; i < candidates; i++) names[i] = User.of("Candidate" + i);
+
+		List<Ballot> ballots = new ArrayList<>(voters);
+		for (int voter = 0; voter < voters; voter++)
+		{
+			// Draw candidates without replacement, in proportion to their remaining weight.
+			double[] weights = preference.weights(random, candidates);
+			double total = 0;
+			for (double weight: weights) total += weight;
+
+			List<User> votes = new ArrayList<>(length);
+			for (int rank = 0; rank < length; rank++)
+			{
+				double target = random.nextDouble() * total;
+				int choice = -1;
+				for (int i = 0; i < candidates; i++)
+				{
+					if (weights[i] == 0) continue;
+					choice = i;
+					target -= weights[i];
+					if (target < 0) break;
+				}
+				votes.add(names[choice]);
+				total -= weights[choice];
+				weights[choice] = 0;
+			}
+			ballots.add(new Ballot(User.of("Voter" + voter), votes));
+		}
+		return ballots;
+	}
+
+	/**
+	 * Renders ballots as posts on a XenForo 2 thread page, the way {@link XenForoScraper} expects them.
+	 * Each post lists its votes one per line, some in bold, followed by a comment.
+	 * @param ballots The ballots to render.
+	 * @return The HTML of the page.
+	 */
+	public static String page(List<Ballot> ballots)
+	{
+		StringBuilder html = new StringBuilder("<!DOCTYPE html><html><head><title>Synthetic poll</title></head><body>");
+		html.append("<div class=\"block-body js-replyNewMessageContainer\">");
+		for (int post = 0; post < ballots.size(); post++)
+		{
+			Ballot ballot = ballots.get(post);
+			html.append("<article class=\"message message--post\" data-author=\"").append(ballot.getVoter())
+				.append("\" data-content=\"post-").append(post).append("\">")
+				.append("<div class=\"message-inner\"><div class=\"message-cell message-cell--main\">")
+				.append("<article class=\"message-body js-selectToQuote\"><div class=\"bbWrapper\">");
+			List<User> votes = ballot.getVotes();
+			for (int i = 0; i < votes.size(); i++)
+			{
+				if (i % 3 == 1) html.append("<b>").append(votes.get(i)).append("</b>");
+				else html.append(votes.get(i));
+				html.append("<br />\n");
+			}
+			html.append("<br />\nMy reasoning, with <i>emphasis</i> and <a href=\"#\">a link</a>.")
+				.append("</div></article></div></div></article>");
+		}
+		return html.append("</div></body></html>").toString();
+	}
+}
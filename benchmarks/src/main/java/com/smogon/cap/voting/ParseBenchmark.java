@@ -0,0 +1,84 @@
+package com.smogon.cap.voting;
+
+import org.jsoup.Jsoup;
+import org.jsoup.nodes.Document;
+import org.jsoup.nodes.Element;
+import org.jsoup.select.Elements;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.io.IOException;
+import java.net.MalformedURLException;
+import java.net.URL;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Times {@link XenForoScraper} on a canned page of synthetic posts.
+ * Scores are per post.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class ParseBenchmark
+{
+	// XenForo shows 25 posts per page.
+	private static final int POSTS = 25;
+
+	private final XenForoScraper scraper = new XenForoScraper();
+	private final StreamingXenForoScraper streaming = new StreamingXenForoScraper();
+	private String html;
+	private byte[] body;
+	private URL link;
+	private Elements posts;
+
+	@Setup
+	public void setUp()
+	{
+		this.html = Elections.page(Elections.generate(1, ParseBenchmark.POSTS, 20, 5, Elections.Preference.ZIPF));
+		this.body = this.html.getBytes(StandardCharsets.UTF_8);
+		try {this.link = new URL("http://localhost/threads/poll.1/");}
+		catch (MalformedURLException e){throw new AssertionError(e);}
+		this.posts = this.scraper.getPosts(Jsoup.parse(this.html));
+		if (this.posts.size() != ParseBenchmark.POSTS) throw new IllegalStateException("Found " + this.posts.size() + " posts on the page.");
+	}
+
+	/** Parses posts into ballots, i.e., {@link XenForoScraper#parse(Element)} alone. */
+	@Benchmark
+	@OperationsPerInvocation(ParseBenchmark.POSTS)
+	public void parse(Blackhole blackhole)
+	{
+		for (Element post: this.posts) blackhole.consume(this.scraper.parse(post));
+	}
+
+	/** Parses the whole page, as scraping it would after downloading it. */
+	@Benchmark
+	@OperationsPerInvocation(ParseBenchmark.POSTS)
+	public void parsePage(Blackhole blackhole)
+	{
+		Document page = Jsoup.parse(this.html);
+		for (Element post: this.scraper.getPosts(page)) blackhole.consume(this.scraper.parse(post));
+	}
+
+	/** Parses the page with {@link StreamingXenForoScraper}, which only builds the posts. */
+	@Benchmark
+	@OperationsPerInvocation(ParseBenchmark.POSTS)
+	public void streamPage(Blackhole blackhole) throws IOException
+	{
+		Document page = this.streaming.parsePage(this.body, "UTF-8", this.link);
+		for (Element post: this.streaming.getPosts(page)) blackhole.consume(this.streaming.parse(post));
+	}
+}
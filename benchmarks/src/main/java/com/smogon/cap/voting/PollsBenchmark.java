@@ -0,0 +1,64 @@
+package com.smogon.cap.voting;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.List;
+import java.util.SortedSet;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Times every {@link Polls} constant on synthetic elections.
+ * <p>
+ * Scaling the candidates and ballot length exposes how {@link Polls#IRV} and {@link Polls#PBV}
+ * grow with the number of runoff rounds, e.g.:
+ * {@code java -jar target/benchmarks.jar PollsBenchmark -p poll=IRV,PBV -p candidates=8,32,128}
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class PollsBenchmark
+{
+	@Param({"FPTPV", "AV", "IRV", "PBV", "SCHULZE", "RP"})
+	public Polls poll;
+	@Param({"1000", "10000"})
+	public int voters;
+	@Param({"8", "64"})
+	public int candidates;
+	@Param({"5"})
+	public int length;
+	@Param({"UNIFORM", "ZIPF", "POLARIZED"})
+	public Elections.Preference preference;
+	@Param({"1"})
+	public long seed;
+
+	private List<Ballot> ballots;
+	private BallotMatrix matrix;
+
+	@Setup
+	public void setUp()
+	{
+		this.ballots = Elections.generate(this.seed, this.voters, this.candidates, Math.min(this.length, this.candidates), this.preference);
+		this.matrix = BallotMatrix.of(this.ballots);
+	}
+
+	/** Tallies ballots as the script does, encoding them first. */
+	@Benchmark
+	public SortedSet<Poll.Entry> tally(){return this.poll.tally(this.ballots);}
+
+	/** Tallies already-encoded ballots, i.e., only the counting. */
+	@Benchmark
+	public SortedSet<Poll.Entry> tallyEncoded(){return this.poll.tally(this.matrix);}
+}
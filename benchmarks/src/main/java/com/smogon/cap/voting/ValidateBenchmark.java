@@ -0,0 +1,49 @@
+package com.smogon.cap.voting;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Times {@link Ballot#validate(java.util.Collection)} on synthetic elections.
+ * The generated ballots are all valid, so nothing is printed.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class ValidateBenchmark
+{
+	@Param({"1000", "10000"})
+	public int voters;
+	@Param({"64"})
+	public int candidates;
+	@Param({"1", "5", "20"})
+	public int length;
+	@Param({"1"})
+	public long seed;
+
+	private List<Ballot> ballots;
+
+	@Setup
+	public void setUp()
+	{
+		this.ballots = Elections.generate(this.seed, this.voters, this.candidates, this.length, Elections.Preference.ZIPF);
+	}
+
+	@Benchmark
+	public void validate(){Ballot.validate(this.ballots);}
+}
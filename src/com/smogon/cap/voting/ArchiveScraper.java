@@ -0,0 +1,208 @@
+package com.smogon.cap.voting;
+
+import org.jsoup.Jsoup;
+import org.jsoup.nodes.Document;
+import org.jsoup.nodes.Element;
+import org.jsoup.select.Elements;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.URISyntaxException;
+import java.net.URL;
+import java.nio.file.FileSystem;
+import java.nio.file.FileSystems;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+import java.util.stream.Stream;
+
+/**
+ * A {@link ThreadScraper} that reads a thread from saved copies of its pages, rather than from the forum,
+ * so that old polls can be tallied again without a network connection.
+ * <p>
+ * The link to scrape is a {@code file:} URL, either to a directory of saved pages
+ * or to a {@code .zip} archive of them.
+ * Every {@code .html} or {@code .htm} file in it is a page of the thread,
+ * and pages are put in order by the page number each one gives for itself
+ * (see {@link #findPageNumber(Document)}), whatever the files are named.
+ * A page that doesn't give its number, or two pages that give the same one,
+ * fail the scrape rather than risk counting posts out of order.
+ * The opening post is only skipped if the first page of the thread is among them.
+ * <p>
+ * The pages themselves are read by another {@code ThreadScraper}, typically a {@link XenForoScraper},
+ * through its {@link #getPosts(Document)} and {@link #parse(Element)} hooks.
+ * With nothing to wait on but the disk, pages are parsed in parallel, one thread per core by default.
+ */
+public class ArchiveScraper extends ThreadScraper
+{
+	// Threads for parsing pages. Daemons, like ThreadScraper's fetchers.
+	private static final ThreadFactory PARSERS = runnable ->
+	{
+		Thread thread = new Thread(runnable, "page-parser");
+		thread.setDaemon(true);
+		return thread;
+	};
+
+	private final ThreadScraper format;
+
+	/**
+	 * @param format The scraper for the forum the pages were saved from.
+	 */
+	public ArchiveScraper(ThreadScraper format){this.format = format;}
+
+	// Hooks, as the forum's scraper would have it.
+
+	@Override protected Elements getPosts(Document page){return this.format.getPosts(page);}
+	@Override protected Ballot parse(Element post){return this.format.parse(post);}
+	@Override protected boolean skipsOpeningPost(){return this.format.skipsOpeningPost();}
+	@Override protected long getPostId(Element post){return this.format.getPostId(post);}
+	@Override protected int findPageNumber(Document page){return this.format.findPageNumber(page);}
+	// Every page is already at hand, so there are no links to follow.
+	@Override protected URL findNextLink(Document page){return null;}
+
+	/**
+	 * Scrapes every saved page, using one thread per core.
+	 * @param link A {@code file:} URL to a directory or {@code .zip} archive of pages.
+	 * @return A list of all {@code Ballots} in the saved thread, in post order.
+	 * @throws IllegalArgumentException If the pages can't be put in order.
+	 */
+	@Override
+	public List<Ballot> makeBallots(URL link)
+	{
+		return this.makeBallots(link, Runtime.getRuntime().availableProcessors());
+	}
+
+	/**
+	 * Like {@link #makeBallots(URL)}, but with a given number of threads parsing pages.
+	 * Ballots are still returned in post order.
+	 * @param link A {@code file:} URL to a directory or {@code .zip} archive of pages.
+	 * @param fetchThreads The most pages to read and parse at once.
+	 * @return A list of all {@code Ballots} in the saved thread, in post order.
+	 * @throws IllegalArgumentException If the pages can't be put in order.
+	 */
+	@Override
+	public List<Ballot> makeBallots(URL link, int fetchThreads)
+	{
+		Path path;
+		try {path = Paths.get(link.toURI());}
+		catch (URISyntaxException | IllegalArgumentException e){throw new IllegalArgumentException("Not a saved thread: " + link, e);}
+
+		if (Files.isDirectory(path)) return this.scrapePages(Collections.singletonList(path), fetchThreads);
+		try (FileSystem archive = FileSystems.newFileSystem(path, (ClassLoader) null))
+		{
+			return this.scrapePages(archive.getRootDirectories(), fetchThreads);
+		}
+		catch (IOException e){throw new AssertionError(e);}
+	}
+
+	/**
+	 * Saved pages are all read at once, so this is just {@link #makeBallots(URL)}.
+	 */
+	@Override
+	public Iterator<Ballot> iterateBallots(URL link){return this.makeBallots(link).iterator();}
+
+	/**
+	 * Saved pages never change, so there is nothing to watch.
+	 * @throws UnsupportedOperationException Always.
+	 */
+	@Override
+	public Watch watch(URL link)
+	{
+		throw new UnsupportedOperationException("Saved pages don't change, so they can't be watched.");
+	}
+
+	// A saved page, parsed.
+	private static final class Page
+	{
+		private final Path file;
+		private final int number; // -1 if unknown
+		private final List<Ballot> ballots;
+
+		private Page(Path file, int number, List<Ballot> ballots)
+		{
+			this.file = file;
+			this.number = number;
+			this.ballots = ballots;
+		}
+	}
+
+	// Helper function: Scrape every page under some directories, in page order.
+	private List<Ballot> scrapePages(Iterable<Path> directories, int threads)
+	{
+		List<Path> files = new ArrayList<>();
+		for (Path directory: directories)
+		{
+			try (Stream<Path> walk = Files.walk(directory))
+			{
+				walk.filter(Files::isRegularFile).filter(ArchiveScraper::isPage).forEach(files::add);
+			}
+			catch (IOException e){throw new AssertionError(e);}
+		}
+		List<Ballot> ballots = new ArrayList<>();
+		if (files.isEmpty()) return ballots;
+
+		List<Page> pages = new ArrayList<>(files.size());
+		ExecutorService pool = Executors.newFixedThreadPool(Math.max(1, Math.min(threads, files.size())), ArchiveScraper.PARSERS);
+		try
+		{
+			// Submit every page first, then collect them.
+			List<Future<Page>> parsed = new ArrayList<>(files.size());
+			for (Path file: files) parsed.add(pool.submit(() -> this.scrapePage(file)));
+			for (Future<Page> page: parsed) pages.add(ThreadScraper.await(page));
+		}
+		finally
+		{
+			pool.shutdownNow();
+		}
+
+		// A lone page that doesn't say is the whole thread.
+		if (pages.size() == 1 && pages.get(0).number < 0) return this.skipOpeningPost(pages.get(0).ballots);
+		pages.sort(Comparator.comparingInt((Page page) -> page.number));
+		for (int i = 0; i < pages.size(); i++)
+		{
+			Page page = pages.get(i);
+			if (page.number < 0)
+				throw new IllegalArgumentException("Can't tell which page of the thread " + page.file + " is.");
+			if (i > 0 && pages.get(i - 1).number == page.number)
+				throw new IllegalArgumentException(pages.get(i - 1).file + " and " + page.file + " are both page " + page.number + ".");
+			ballots.addAll(page.ballots);
+		}
+		return pages.get(0).number == 1 ? this.skipOpeningPost(ballots) : ballots;
+	}
+
+	// Helper function: Create ballots from the posts on a saved page.
+	private Page scrapePage(Path file)
+	{
+		long start = Metrics.ENABLED ? System.nanoTime() : 0;
+		byte[] body;
+		try {body = Files.readAllBytes(file);}
+		catch (IOException e){throw new AssertionError(e);}
+
+		long read = Metrics.ENABLED ? System.nanoTime() : 0;
+		Document page;
+		try (InputStream in = new ByteArrayInputStream(body))
+		{
+			page = Jsoup.parse(in, null, file.toUri().toString()); // the charset comes from the page's <meta> tag
+		}
+		catch (IOException e){throw new AssertionError(e);}
+		if (Metrics.ENABLED) Metrics.global().page(read - start, body.length, System.nanoTime() - read);
+
+		return new Page(file, this.findPageNumber(page), this.scrapePage(page));
+	}
+
+	private static boolean isPage(Path file)
+	{
+		String name = file.getFileName().toString().toLowerCase();
+		return name.endsWith(".html") || name.endsWith(".htm");
+	}
+}
@@ -2,9 +2,8 @@ package com.smogon.cap.voting;
 
 import java.util.Collection;
 import java.util.Collections;
-import java.util.HashSet;
 import java.util.List;
-import java.util.Set;
+import java.util.function.Consumer;
 
 /**
  * An immutable representation of a voting ballot, 
@@ -51,25 +50,20 @@ public class Ballot
 	 */
 	public static void validate(Collection<Ballot> ballots)
 	{
-		Set<User> seenVoters = new HashSet<>();
-		for (Ballot ballot : ballots)
-		{
-			// Ensure each voter voted once.
-			User voter = ballot.getVoter();
-			if (seenVoters.contains(voter)) System.out.println("Invalid vote detected: "  + voter + " repeated post.");
-			seenVoters.add(voter);
-
-			// Ensure voter made at least one vote.
-			if (ballot.getVotes().isEmpty()) System.out.println("Invalid vote detected: " + voter + " made no votes.");
-			
-			Set<User> seenVotes = new HashSet<>();
-			for (User vote : ballot.getVotes())
-			{
-				// Ensure each voter voted for at most one instance of each option.
-				if (seenVotes.contains(vote)) System.out.println("Invalid vote detected: "  + voter + " repeated vote " + vote);
-				seenVotes.add(vote);
-			}
-		}
+		ballots.forEach(Ballot.validator());
 		// Otherwise, ballots are fine. :)
 	}
+
+	/**
+	 * Creates a validator that checks ballots one at a time, as in {@link #validate(Collection)},
+	 * so that ballots can be validated while they are still being scraped.
+	 * The validator remembers every voter it has seen.
+	 * <p>
+	 * Problems are printed as they are found; use a {@link Validator} to handle them otherwise.
+	 * @return A new validator.
+	 */
+	public static Consumer<Ballot> validator()
+	{
+		return new Validator(System.out::println);
+	}
 }
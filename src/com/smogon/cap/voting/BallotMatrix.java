@@ -0,0 +1,273 @@
+package com.smogon.cap.voting;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.List;
+
+/**
+ * A compact, immutable encoding of a {@link Collection} of {@link Ballot Ballots},
+ * used by the {@link Polls} to tally on primitive arrays.
+ * <p>
+ * Every distinct candidate is assigned a dense {@code int} ID once,
+ * and every ballot becomes a row of candidate IDs in a single flat array.
+ * Row {@code r} spans the indices {@code offsets[r]} (inclusive) to {@code offsets[r + 1]} (exclusive)
+ * of the choices array, in the order the voter ranked them.
+ * <p>
+ * This way, counting a vote is an array increment
+ * rather than a {@link User} hash lookup and a boxed {@link Integer} merge.
+ * <p>
+ * Each row also has a weight: the number of ballots it stands for.
+ * Rows are built one per ballot, with a weight of 1,
+ * but many voters cast the same ballot, so {@link #aggregate()} merges identical rows into one.
+ * An aggregated matrix no longer knows who voted for what,
+ * so ballots should be validated before they are aggregated.
+ */
+public final class BallotMatrix
+{
+	// Package-private so the tally loops can index the arrays directly.
+	final User[] candidates; // candidate ID -> candidate
+	final User[] voters; // row -> voter; null once aggregated
+	final int[] choices; // every row, back to back
+	final int[] offsets; // row -> start index in choices; has one extra trailing element
+	final int[] weights; // row -> number of ballots in the row
+	private final int ballotCount; // sum of the weights
+
+	// Package-private for Snapshot, which fills the arrays itself.
+	BallotMatrix(User[] candidates, User[] voters, int[] choices, int[] offsets)
+	{
+		this(candidates, voters, choices, offsets, BallotMatrix.ones(offsets.length - 1));
+	}
+
+	private BallotMatrix(User[] candidates, User[] voters, int[] choices, int[] offsets, int[] weights)
+	{
+		this.candidates = candidates;
+		this.voters = voters;
+		this.choices = choices;
+		this.offsets = offsets;
+		this.weights = weights;
+		int ballotCount = 0;
+		for (int weight: weights) ballotCount += weight;
+		this.ballotCount = ballotCount;
+	}
+
+	// Getters
+	/** @return The number of rows in the matrix, which is the number of ballots unless it is aggregated. */
+	public int size(){return this.offsets.length - 1;}
+	/** @return The number of ballots in the matrix, i.e., the sum of the rows' weights. */
+	public int ballotCount(){return this.ballotCount;}
+	/**
+	 * @param row A row, between 0 (inclusive) and {@link #size()} (exclusive).
+	 * @return The number of ballots the row stands for.
+	 */
+	public int getWeight(int row){return this.weights[row];}
+	/** @return Whether identical rows have been merged by {@link #aggregate()}. */
+	public boolean isAggregated(){return this.voters == null;}
+	/** @return The number of distinct candidates in the matrix. */
+	public int candidateCount(){return this.candidates.length;}
+	/**
+	 * @param id A candidate ID, between 0 (inclusive) and {@link #candidateCount()} (exclusive).
+	 * @return The candidate with the given ID.
+	 */
+	public User getCandidate(int id){return this.candidates[id];}
+	/**
+	 * @param row A row, between 0 (inclusive) and {@link #size()} (exclusive).
+	 * @return The voter who cast the ballot in that row.
+	 * @throws UnsupportedOperationException If the matrix is aggregated, as rows no longer have a single voter.
+	 */
+	public User getVoter(int row)
+	{
+		if (this.isAggregated()) throw new UnsupportedOperationException("An aggregated matrix has no voters");
+		return this.voters[row];
+	}
+
+	/**
+	 * Decodes the matrix back into ballots, e.g. for a {@link Poll} that can't tally a matrix directly.
+	 * @return The ballots, in row order.
+	 * @throws UnsupportedOperationException If the matrix is aggregated, as rows no longer have a single voter.
+	 */
+	public List<Ballot> ballots()
+	{
+		if (this.isAggregated()) throw new UnsupportedOperationException("An aggregated matrix has no voters");
+		List<Ballot> ballots = new ArrayList<>(this.size());
+		for (int row = 0; row < this.size(); row++)
+		{
+			List<User> votes = new ArrayList<>(this.offsets[row + 1] - this.offsets[row]);
+			for (int i = this.offsets[row]; i < this.offsets[row + 1]; i++) votes.add(this.candidates[this.choices[i]]);
+			ballots.add(new Ballot(this.voters[row], votes));
+		}
+		return ballots;
+	}
+
+	/**
+	 * Merges rows that rank the same candidates in the same order into one row, weighted by how many there were.
+	 * <p>
+	 * Rows are normalized first: only the first time a candidate appears on a row counts,
+	 * as none of the preferential polls look past it.
+	 * Rows keep the order they first appear in, and candidates keep their IDs.
+	 * @return The aggregated matrix, or this matrix if it already is.
+	 */
+	public BallotMatrix aggregate()
+	{
+		if (this.isAggregated()) return this;
+
+		int[] choices = new int[this.choices.length];
+		int[] offsets = new int[this.offsets.length];
+		int[] weights = new int[this.size()];
+		int size = 0; // number of distinct rows so far
+		int[] table = new int[Integer.highestOneBit(Math.max(1, 2 * this.size())) << 1]; // open addressing; 1 + row, or 0 if empty
+		int[] stamps = new int[this.candidates.length]; // candidate -> 1 + the last row it was seen in
+		for (int row = 0; row < this.size(); row++)
+		{
+			// Copy the row in normalized, as if it were new.
+			int start = offsets[size], end = start;
+			int hash = 1;
+			for (int i = this.offsets[row]; i < this.offsets[row + 1]; i++)
+			{
+				int choice = this.choices[i];
+				if (stamps[choice] == row + 1) continue; // repeated vote
+				stamps[choice] = row + 1;
+				choices[end++] = choice;
+				hash = 31 * hash + choice;
+			}
+
+			int slot = (hash ^ hash >>> 16) & (table.length - 1);
+			while (table[slot] != 0 && !BallotMatrix.sameRow(choices, offsets, table[slot] - 1, start, end))
+				slot = (slot + 1) & (table.length - 1);
+			if (table[slot] != 0) weights[table[slot] - 1] += this.weights[row]; // seen before, so drop the copy
+			else
+			{
+				table[slot] = size + 1;
+				weights[size] = this.weights[row];
+				offsets[++size] = end;
+			}
+		}
+		return new BallotMatrix(this.candidates, null,
+			Arrays.copyOf(choices, offsets[size]), Arrays.copyOf(offsets, size + 1), Arrays.copyOf(weights, size));
+	}
+
+	/**
+	 * Shares this matrix's rows, but with different weights, e.g. for a resample of the ballots.
+	 * Like an aggregated matrix, the result has no voters.
+	 * @param weights The weight of each row. The array is used as is, not copied.
+	 * @return A matrix of the same rows with the given weights.
+	 */
+	BallotMatrix reweigh(int[] weights)
+	{
+		return new BallotMatrix(this.candidates, null, this.choices, this.offsets, weights);
+	}
+
+	@Override
+	public String toString()
+	{
+		return "BallotMatrix of " + this.ballotCount() + " ballots" + (this.isAggregated() ? " in " + this.size() + " rows" : "");
+	}
+
+	// Helper functions
+
+	private static int[] ones(int length)
+	{
+		int[] ones = new int[length];
+		Arrays.fill(ones, 1);
+		return ones;
+	}
+
+	// Whether a row equals choices[start, end).
+	private static boolean sameRow(int[] choices, int[] offsets, int row, int start, int end)
+	{
+		int from = offsets[row];
+		if (offsets[row + 1] - from != end - start) return false;
+		for (int i = 0; i < end - start; i++)
+			if (choices[from + i] != choices[start + i]) return false;
+		return true;
+	}
+
+	// Class methods
+
+	/**
+	 * Encodes ballots into a matrix, preserving their order.
+	 * @param ballots The ballots to encode.
+	 * @return The encoded ballots.
+	 */
+	public static BallotMatrix of(Collection<Ballot> ballots)
+	{
+		Builder builder = new Builder();
+		for (Ballot ballot: ballots) builder.add(ballot);
+		return builder.build();
+	}
+
+	/**
+	 * A mutable accumulator of ballots, which assigns candidate IDs as it goes.
+	 * <p>
+	 * Each candidate is represented by the first {@link User} seen for it.
+	 */
+	public static final class Builder
+	{
+		private int[] ids = new int[64]; // by User.getId(): 1 + the candidate's ID, or 0 if not seen
+		private final List<User> candidates = new ArrayList<>(); // keeps their User IDs in use
+		private final List<User> voters = new ArrayList<>();
+		private int[] choices = new int[64];
+		private int[] offsets = new int[16]; // offsets[0] == 0
+		private int size = 0; // number of rows
+
+		/**
+		 * Finds the ID of a candidate, assigning a new ID if the candidate is new.
+		 * @param candidate The candidate to look up.
+		 * @return The candidate's ID.
+		 */
+		public int idOf(User candidate)
+		{
+			int userId = candidate.getId();
+			if (userId >= this.ids.length) this.ids = Arrays.copyOf(this.ids, Math.max(userId + 1, 2 * this.ids.length));
+			int id = this.ids[userId] - 1;
+			if (id < 0)
+			{
+				id = this.candidates.size();
+				this.ids[userId] = id + 1;
+				this.candidates.add(candidate);
+			}
+			return id;
+		}
+
+		/** @return The number of distinct candidates seen so far. */
+		public int candidateCount(){return this.candidates.size();}
+		/**
+		 * @param id A candidate ID returned by {@link #idOf(User)}.
+		 * @return The candidate with the given ID.
+		 */
+		public User getCandidate(int id){return this.candidates.get(id);}
+
+		/**
+		 * Appends a ballot as the next row of the matrix.
+		 * @param ballot The ballot to add.
+		 * @return This builder.
+		 */
+		public Builder add(Ballot ballot)
+		{
+			List<User> votes = ballot.getVotes();
+			int start = this.offsets[this.size];
+			int end = start + votes.size();
+			if (end > this.choices.length) this.choices = Arrays.copyOf(this.choices, Math.max(end, 2 * this.choices.length));
+			for (User vote: votes) this.choices[start++] = this.idOf(vote);
+
+			if (this.size + 2 > this.offsets.length) this.offsets = Arrays.copyOf(this.offsets, 2 * this.offsets.length);
+			this.offsets[++this.size] = end;
+			this.voters.add(ballot.getVoter());
+			return this;
+		}
+
+		/**
+		 * Builds a matrix of every ballot added so far.
+		 * The builder may keep being used afterwards.
+		 * @return The encoded ballots.
+		 */
+		public BallotMatrix build()
+		{
+			return new BallotMatrix(
+				this.candidates.toArray(new User[0]),
+				this.voters.toArray(new User[0]),
+				Arrays.copyOf(this.choices, this.offsets[this.size]),
+				Arrays.copyOf(this.offsets, this.size + 1));
+		}
+	}
+}
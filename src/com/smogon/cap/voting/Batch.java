@@ -0,0 +1,193 @@
+package com.smogon.cap.voting;
+
+import java.io.IOException;
+import java.io.PrintStream;
+import java.net.URL;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.SortedSet;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+
+/**
+ * Tallies several threads with several polls each, in one run.
+ * <p>
+ * Each thread is scraped once, and its ballots encoded once into a {@link BallotMatrix},
+ * which every poll of that thread then tallies on a bounded pool of workers.
+ * Threads are scraped one after another, while the polls of earlier threads are still being tallied,
+ * and the results are written out as one report, in the order of the manifest.
+ * <p>
+ * A manifest is a text file with one thread per line: the thread's link, then the polls to run on it, e.g.
+ * <pre>
+ * # CAP 22 art poll 2
+ * http://www.smogon.com/forums/threads/3579745/ IRV PBV PBV:3 SCHULZE
+ * </pre>
+ * A poll is the name of one of the {@link Polls}, or {@code PBV:<seats>} for a {@link RunoffPoll}.
+ * As with the script, a link can also be a snapshot, or a directory or {@code .zip} archive of saved pages.
+ * Blank lines and lines starting with {@code #} are skipped.
+ */
+public final class Batch
+{
+	// Tally threads. Daemons, like Bootstrap's workers, so they never keep the script alive.
+	private static final ThreadFactory TALLIERS = runnable ->
+	{
+		Thread thread = new Thread(runnable, "batch-tally");
+		thread.setDaemon(true);
+		return thread;
+	};
+
+	private final ThreadScraper scraper;
+	private final int fetchThreads;
+	private final int tallyThreads;
+
+	/**
+	 * @param scraper The scraper for threads, and for saved pages, through an {@link ArchiveScraper}.
+	 * @param fetchThreads The most pages of a thread to fetch at once.
+	 * @param tallyThreads The most polls to tally at once.
+	 */
+	public Batch(ThreadScraper scraper, int fetchThreads, int tallyThreads)
+	{
+		if (tallyThreads < 1) throw new IllegalArgumentException("Need at least one tally thread, not " + tallyThreads);
+		this.scraper = scraper;
+		this.fetchThreads = fetchThreads;
+		this.tallyThreads = tallyThreads;
+	}
+
+	/**
+	 * One line of a manifest: a thread, and the polls to run on it.
+	 */
+	public static final class Task
+	{
+		private final String source;
+		private final List<Poll> polls;
+
+		/**
+		 * @param source A link to the thread, or the path of a snapshot or saved pages.
+		 * @param polls The polls to run on the thread's ballots.
+		 */
+		public Task(String source, List<Poll> polls)
+		{
+			this.source = source;
+			this.polls = Collections.unmodifiableList(new ArrayList<>(polls));
+		}
+
+		// Getters
+		public String getSource(){return this.source;}
+		public List<Poll> getPolls(){return this.polls;}
+
+		@Override public String toString(){return this.source + " " + this.polls;}
+	}
+
+	/**
+	 * Reads a manifest, as described in {@link Batch}.
+	 * @param manifest The manifest file.
+	 * @return A task for each thread, in order.
+	 * @throws IOException If the manifest can't be read.
+	 * @throws IllegalArgumentException If a line has no polls, or a poll isn't known.
+	 */
+	public static List<Task> read(Path manifest) throws IOException
+	{
+		List<Task> tasks = new ArrayList<>();
+		List<String> lines = Files.readAllLines(manifest, StandardCharsets.UTF_8);
+		for (int i = 0; i < lines.size(); i++)
+		{
+			String line = lines.get(i).trim();
+			if (line.isEmpty() || line.startsWith("#")) continue;
+			String[] fields = line.split("\\s+");
+			if (fields.length < 2) throw new IllegalArgumentException("Line " + (i + 1) + " of " + manifest + " has no polls: " + line);
+
+			List<Poll> polls = new ArrayList<>();
+			for (int field = 1; field < fields.length; field++) polls.add(Batch.poll(fields[field]));
+			tasks.add(new Task(fields[0], polls));
+		}
+		return tasks;
+	}
+
+	// Parses a poll type, as in a manifest. Package-private, for TallyServer.
+	static Poll poll(String name)
+	{
+		if (name.startsWith(Polls.PBV + ":")) return new RunoffPoll(Integer.parseInt(name.substring(Polls.PBV.name().length() + 1)));
+		return Polls.valueOf(name);
+	}
+
+	/**
+	 * Scrapes and tallies every task, and writes out the results in order.
+	 * <p>
+	 * A thread that can't be scraped, or a poll that can't be tallied, is reported as such,
+	 * and the rest of the batch carries on.
+	 * @param tasks The threads to tally, and how.
+	 * @param out Where to write the report.
+	 */
+	public void run(List<Task> tasks, PrintStream out)
+	{
+		ExecutorService pool = Executors.newFixedThreadPool(this.tallyThreads, Batch.TALLIERS);
+		try
+		{
+			// Submit each thread's tallies as soon as it is scraped, then report every thread in order.
+			List<BallotMatrix> matrices = new ArrayList<>(tasks.size());
+			List<Throwable> failures = new ArrayList<>(tasks.size()); // why each thread couldn't be scraped, if it couldn't
+			List<List<Future<SortedSet<Poll.Entry>>>> results = new ArrayList<>(tasks.size());
+			for (Task task: tasks)
+			{
+				List<Future<SortedSet<Poll.Entry>>> tallies = new ArrayList<>(task.polls.size());
+				BallotMatrix matrix = null;
+				Throwable failure = null;
+				try
+				{
+					matrix = this.load(task.source);
+					BallotMatrix ballots = matrix;
+					for (Poll poll: task.polls) tallies.add(pool.submit(() -> poll.tally(ballots)));
+				}
+				catch (IOException | RuntimeException | AssertionError e){failure = e;}
+				matrices.add(matrix);
+				failures.add(failure);
+				results.add(tallies);
+			}
+
+			for (int i = 0; i < tasks.size(); i++)
+			{
+				Task task = tasks.get(i);
+				out.println("== " + task.source + " ==");
+				if (failures.get(i) != null)
+				{
+					out.println("Couldn't scrape the thread: " + failures.get(i));
+					out.println();
+					continue;
+				}
+				out.println("Total voters: " + matrices.get(i).ballotCount());
+				out.println();
+				for (int j = 0; j < task.polls.size(); j++)
+				{
+					out.println(task.polls.get(j) + " results:");
+					try {ThreadScraper.await(results.get(i).get(j)).forEach(out::println);}
+					catch (RuntimeException | AssertionError e){out.println("Couldn't tally the poll: " + e);}
+					out.println();
+				}
+			}
+		}
+		finally
+		{
+			pool.shutdownNow();
+		}
+	}
+
+	// Scrapes a thread, or reads it from disk, into a matrix that every poll can share.
+	private BallotMatrix load(String source) throws IOException
+	{
+		Path saved = Paths.get(source);
+		if (!source.contains("://") && Files.isRegularFile(saved) && Snapshot.isSnapshot(saved))
+			return Snapshot.read(saved);
+		if (!source.contains("://") && Files.exists(saved))
+			return BallotMatrix.of(new ArchiveScraper(this.scraper).makeBallots(saved.toUri().toURL()));
+		return BallotMatrix.of(this.scraper.makeBallots(new URL(source), this.fetchThreads));
+	}
+
+	@Override public String toString(){return "Batch of " + this.tallyThreads + " tally threads";}
+}
@@ -0,0 +1,255 @@
+package com.smogon.cap.voting;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.List;
+import java.util.SplittableRandom;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * A bootstrap analysis of how stable a {@link Poll}'s result is.
+ * <p>
+ * Each sample redraws as many ballots as were cast, with replacement, and tallies them.
+ * How often each candidate wins, and where each candidate places, over thousands of samples
+ * shows whether a close result would likely survive a few voters more or less.
+ * <p>
+ * Samples are never copied as ballots. The ballots are {@link BallotMatrix#aggregate() aggregated} once,
+ * and a sample is only a new weight for each row.
+ * {@link Polls#AV} counts repeated votes, which aggregating drops, so its ballots are resampled as they were cast.
+ * Each worker thread keeps its own weights, and for the runoff polls its own {@link Runoff} engine,
+ * which it reloads for every sample rather than allocating anew.
+ * <p>
+ * Sample {@code i} is drawn from its own generator, seeded from the seed and {@code i},
+ * so the results only depend on the seed, and not on the number of threads.
+ */
+public final class Bootstrap
+{
+	// Worker threads. Daemons, like ThreadScraper's fetchers, so they never keep the script alive.
+	private static final ThreadFactory WORKERS = runnable ->
+	{
+		Thread thread = new Thread(runnable, "bootstrap-worker");
+		thread.setDaemon(true);
+		return thread;
+	};
+	// Samples a worker claims at once, so that workers rarely contend for the next sample.
+	private static final int BATCH = 64;
+
+	private final Poll poll;
+	private final BallotMatrix matrix; // aggregated, unless the poll counts repeated votes
+	private final int[] rows; // ballot -> its row in the matrix
+
+	/**
+	 * @param poll The poll to run on each sample. Must be one of the {@link Polls}, or a {@link RunoffPoll}.
+	 * @param ballots The ballots to resample.
+	 */
+	public Bootstrap(Poll poll, Collection<Ballot> ballots)
+	{
+		this(poll, BallotMatrix.of(ballots));
+	}
+
+	/**
+	 * @param poll The poll to run on each sample. Must be one of the {@link Polls}, or a {@link RunoffPoll}.
+	 * A {@code RunoffPoll}'s bulk exclusion picks the same winners, so samples are counted without it,
+	 * and samples aren't traced.
+	 * @param matrix The ballots to resample.
+	 * @throws IllegalArgumentException If the poll can't be resampled,
+	 * or is {@link Polls#AV} and the matrix is aggregated, so repeated votes are already lost.
+	 */
+	public Bootstrap(Poll poll, BallotMatrix matrix)
+	{
+		if (!(poll instanceof Polls) && !(poll instanceof RunoffPoll))
+			throw new IllegalArgumentException("Can't resample " + poll);
+		if (poll == Polls.AV && matrix.isAggregated())
+			throw new IllegalArgumentException(Polls.AV + " counts repeated votes, so it can't resample aggregated ballots.");
+		this.poll = poll;
+		this.matrix = poll == Polls.AV ? matrix : matrix.aggregate();
+		this.rows = new int[this.matrix.ballotCount()];
+		for (int row = 0, ballot = 0; row < this.matrix.size(); row++)
+			for (int i = 0; i < this.matrix.weights[row]; i++) this.rows[ballot++] = row;
+	}
+
+	/**
+	 * Tallies resamples of the ballots on every core.
+	 * @param samples The number of samples to tally.
+	 * @param seed The seed to draw samples from. The same seed always gives the same result.
+	 * @return How the candidates fared over the samples.
+	 */
+	public Result run(int samples, long seed)
+	{
+		return this.run(samples, seed, Runtime.getRuntime().availableProcessors());
+	}
+
+	/**
+	 * Tallies resamples of the ballots.
+	 * @param samples The number of samples to tally.
+	 * @param seed The seed to draw samples from. The same seed always gives the same result.
+	 * @param threads The number of worker threads.
+	 * @return How the candidates fared over the samples.
+	 */
+	public Result run(int samples, long seed, int threads)
+	{
+		if (samples < 1) throw new IllegalArgumentException("A bootstrap needs at least one sample, not " + samples);
+
+		AtomicInteger next = new AtomicInteger();
+		int workerCount = Math.max(1, Math.min(threads, (samples + Bootstrap.BATCH - 1) / Bootstrap.BATCH));
+		Result result = new Result(this.matrix, samples);
+		ExecutorService pool = Executors.newFixedThreadPool(workerCount, Bootstrap.WORKERS);
+		try
+		{
+			List<Future<Result>> workers = new ArrayList<>();
+			for (int i = 0; i < workerCount; i++) workers.add(pool.submit(() -> this.work(samples, seed, next)));
+			for (Future<Result> worker: workers) result.add(ThreadScraper.await(worker));
+		}
+		finally {pool.shutdownNow();}
+		return result;
+	}
+
+	// One worker: claims batches of samples until there are none left, and tallies them into its own Result.
+	private Result work(int samples, long seed, AtomicInteger next)
+	{
+		Result result = new Result(this.matrix, samples);
+		int[] weights = new int[this.matrix.size()];
+		Engine engine = this.engine();
+		for (int start; (start = next.getAndAdd(Bootstrap.BATCH)) < samples;)
+		{
+			for (int sample = start; sample < Math.min(samples, start + Bootstrap.BATCH); sample++)
+			{
+				Arrays.fill(weights, 0);
+				SplittableRandom random = new SplittableRandom(seed + sample * 0x9E3779B97F4A7C15L);
+				for (int i = 0; i < this.rows.length; i++) weights[this.rows[random.nextInt(this.rows.length)]]++;
+				result.record(engine.tally(weights));
+			}
+		}
+		return result;
+	}
+
+	// A worker's reusable tally state.
+	private interface Engine
+	{
+		Ranking tally(int[] weights);
+	}
+
+	private Engine engine()
+	{
+		int population = this.matrix.ballotCount();
+		Poll method = this.poll instanceof RunoffPoll ? ((RunoffPoll) this.poll).getPoll() : this.poll;
+		if (method == Polls.IRV)
+		{
+			Runoff runoff = new Runoff(this.matrix);
+			return weights ->
+			{
+				runoff.reload(weights);
+				return Polls.instantRunoff(runoff, population);
+			};
+		}
+		if (method == Polls.PBV)
+		{
+			int seats = this.poll instanceof RunoffPoll ? ((RunoffPoll) this.poll).getSeats() : Integer.MAX_VALUE;
+			Runoff runoff = new Runoff(this.matrix);
+			return weights ->
+			{
+				runoff.reload(weights);
+				return Polls.blockVote(runoff, population, seats);
+			};
+		}
+		// The other polls already count in a single pass, so a reweighed matrix is all they need.
+		Polls poll = (Polls) this.poll;
+		return weights -> poll.count(this.matrix.reweigh(weights));
+	}
+
+	/**
+	 * How often each candidate won, and placed where, over the samples of a {@link Bootstrap}.
+	 * <p>
+	 * Candidates tied for a place all share it, and the next place down is skipped for each:
+	 * two candidates tied for first both place 1st, and the next places 3rd.
+	 * Candidates a poll leaves out of its ranking (e.g., {@link Polls#IRV}'s losers) are unplaced.
+	 */
+	public static final class Result
+	{
+		private final BallotMatrix matrix;
+		private final int samples;
+		private final long[] wins; // candidate ID -> samples won, including ties
+		private final long[] ties; // candidate ID -> samples tied for the win
+		private final long[][] places; // candidate ID -> place - 1 -> samples; the last place counts unplaced samples
+		private final boolean[] placed; // candidate ID -> whether placed in the sample being recorded
+
+		private Result(BallotMatrix matrix, int samples)
+		{
+			this.matrix = matrix;
+			this.samples = samples;
+			this.wins = new long[matrix.candidateCount()];
+			this.ties = new long[matrix.candidateCount()];
+			this.places = new long[matrix.candidateCount()][matrix.candidateCount() + 1];
+			this.placed = new boolean[matrix.candidateCount()];
+		}
+
+		private void record(Ranking ranking)
+		{
+			int unplaced = this.matrix.candidateCount();
+			boolean[] placed = this.placed;
+			Arrays.fill(placed, false);
+			for (int group = 0; group < ranking.groupCount(); group++)
+			{
+				int start = ranking.groupStart(group), end = ranking.groupEnd(group);
+				for (int position = start; position < end; position++)
+				{
+					int id = ranking.getId(position);
+					placed[id] = true;
+					this.places[id][start]++;
+					if (group > 0) continue;
+					this.wins[id]++;
+					if (end - start > 1) this.ties[id]++;
+				}
+			}
+			for (int id = 0; id < placed.length; id++)
+				if (!placed[id]) this.places[id][unplaced]++;
+		}
+
+		private void add(Result other)
+		{
+			for (int id = 0; id < this.wins.length; id++)
+			{
+				this.wins[id] += other.wins[id];
+				this.ties[id] += other.ties[id];
+				for (int place = 0; place < this.places[id].length; place++) this.places[id][place] += other.places[id][place];
+			}
+		}
+
+		// Getters
+		/** @return The number of samples tallied. */
+		public int getSamples(){return this.samples;}
+		/** @return The number of candidates, whose IDs run from 0 (inclusive) to this (exclusive). */
+		public int candidateCount(){return this.wins.length;}
+		/**
+		 * @param id A candidate ID.
+		 * @return The candidate with the given ID.
+		 */
+		public User getCandidate(int id){return this.matrix.candidates[id];}
+		/**
+		 * @param id A candidate ID.
+		 * @return The share of samples the candidate won, including ties for the win.
+		 */
+		public double getWinProbability(int id){return (double) this.wins[id] / this.samples;}
+		/**
+		 * @param id A candidate ID.
+		 * @return The share of samples the candidate tied for the win.
+		 */
+		public double getTieProbability(int id){return (double) this.ties[id] / this.samples;}
+		/**
+		 * @param id A candidate ID.
+		 * @param place A place, counting from 1 for the winners.
+		 * @return The share of samples the candidate placed there.
+		 */
+		public double getPlaceProbability(int id, int place){return (double) this.places[id][place - 1] / this.samples;}
+		/**
+		 * @param id A candidate ID.
+		 * @return The share of samples the poll didn't place the candidate at all.
+		 */
+		public double getUnplacedProbability(int id){return (double) this.places[id][this.wins.length] / this.samples;}
+	}
+}
@@ -0,0 +1,151 @@
+package com.smogon.cap.voting;
+
+import org.jsoup.nodes.Element;
+import org.jsoup.select.Collector;
+import org.jsoup.select.Elements;
+import org.jsoup.select.Evaluator;
+import org.jsoup.select.QueryParser;
+import org.jsoup.select.Selector;
+
+import java.io.IOException;
+import java.io.Reader;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Map;
+import java.util.Properties;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Where a forum skin keeps the parts of a thread that a {@link XenForoScraper} reads,
+ * as CSS selectors compiled once into jsoup {@link Evaluator Evaluators}.
+ * <p>
+ * A profile is read from a {@code .properties} file with these keys,
+ * any of which can be left out to keep the {@link #XENFORO XenForo 2} value shown:
+ * <pre>
+ * # Each post, on a page.
+ * posts = .block-body .message
+ * # The post's author: the attribute of the first element matching the selector within the post,
+ * # or of the post itself if the selector is empty. An empty attribute means the element's text.
+ * author =
+ * author.attribute = data-author
+ * # The text of the post to read the ballot from, split into lines by each divider in it.
+ * body = .bbWrapper
+ * divider = br
+ * # The link to the next page, the current page number, and the links to other pages,
+ * # whose URLs must end in the prefix and the page number.
+ * next = .pageNav-jump--next
+ * current = .pageNav-main .pageNav-page--current
+ * pages = .pageNav-main .pageNav-page &gt; a
+ * pages.prefix = page-
+ * # The attribute holding the post's ID, as the prefix then a number. Empty if posts have no IDs.
+ * id.attribute = data-content
+ * id.prefix = post-
+ * # Whether the first post of a thread introduces the poll, rather than being a ballot.
+ * skip.opening.post = true
+ * </pre>
+ * Profiles are immutable, and each file is only read and compiled once, however many scrapers use it.
+ */
+public final class ForumProfile
+{
+	/** The markup of XenForo 2 forums, such as Smogon's. */
+	public static final ForumProfile XENFORO = new ForumProfile(ForumProfile.defaults());
+
+	private static final Map<Path, ForumProfile> PROFILES = new ConcurrentHashMap<>(); // by absolute path
+
+	// Package-private, so XenForoScraper can read them directly.
+	final Evaluator posts;
+	final Evaluator author; // null for the post itself
+	final String authorAttribute; // "" for the text
+	final Evaluator body;
+	final Evaluator divider;
+	final Evaluator next;
+	final Evaluator current;
+	final Evaluator pages;
+	final String pagesPrefix;
+	final String idAttribute; // "" if posts have no IDs
+	final String idPrefix;
+	final boolean skipsOpeningPost;
+	private final Properties properties; // the selectors as written, for StreamingXenForoScraper
+
+	private ForumProfile(Properties properties)
+	{
+		this.properties = properties;
+		this.posts = ForumProfile.compile(properties, "posts");
+		String author = properties.getProperty("author").trim();
+		this.author = author.isEmpty() ? null : ForumProfile.compile(properties, "author");
+		this.authorAttribute = properties.getProperty("author.attribute").trim();
+		this.body = ForumProfile.compile(properties, "body");
+		this.divider = ForumProfile.compile(properties, "divider");
+		this.next = ForumProfile.compile(properties, "next");
+		this.current = ForumProfile.compile(properties, "current");
+		this.pages = ForumProfile.compile(properties, "pages");
+		this.pagesPrefix = properties.getProperty("pages.prefix").trim();
+		this.idAttribute = properties.getProperty("id.attribute").trim();
+		this.idPrefix = properties.getProperty("id.prefix").trim();
+		this.skipsOpeningPost = Boolean.parseBoolean(properties.getProperty("skip.opening.post").trim());
+	}
+
+	/**
+	 * Reads a profile, or returns the one already read from the same file.
+	 * @param file The {@code .properties} file, in UTF-8.
+	 * @return The profile.
+	 * @throws IOException If the file can't be read.
+	 * @throws IllegalArgumentException If a selector isn't valid.
+	 */
+	public static ForumProfile load(Path file) throws IOException
+	{
+		Path key = file.toAbsolutePath().normalize();
+		ForumProfile profile = ForumProfile.PROFILES.get(key);
+		if (profile != null) return profile;
+
+		Properties properties = new Properties(ForumProfile.defaults());
+		try (Reader in = Files.newBufferedReader(file, StandardCharsets.UTF_8)) {properties.load(in);}
+		profile = new ForumProfile(properties);
+		ForumProfile existing = ForumProfile.PROFILES.putIfAbsent(key, profile);
+		return existing == null ? profile : existing;
+	}
+
+	// XenForo 2's markup, as documented above.
+	private static Properties defaults()
+	{
+		Properties defaults = new Properties();
+		defaults.setProperty("posts", ".block-body .message");
+		defaults.setProperty("author", "");
+		defaults.setProperty("author.attribute", "data-author");
+		defaults.setProperty("body", ".bbWrapper");
+		defaults.setProperty("divider", "br");
+		defaults.setProperty("next", ".pageNav-jump--next");
+		defaults.setProperty("current", ".pageNav-main .pageNav-page--current");
+		defaults.setProperty("pages", ".pageNav-main .pageNav-page > a");
+		defaults.setProperty("pages.prefix", "page-");
+		defaults.setProperty("id.attribute", "data-content");
+		defaults.setProperty("id.prefix", "post-");
+		defaults.setProperty("skip.opening.post", "true");
+		return defaults;
+	}
+
+	private static Evaluator compile(Properties properties, String key)
+	{
+		String query = properties.getProperty(key).trim();
+		try {return QueryParser.parse(query);}
+		catch (Selector.SelectorParseException | IllegalArgumentException e)
+		{
+			throw new IllegalArgumentException("Bad selector for " + key + ": " + query, e);
+		}
+	}
+
+	/**
+	 * @param key One of the profile's keys, such as {@code posts}.
+	 * @return Its value as written, trimmed.
+	 */
+	String query(String key){return this.properties.getProperty(key).trim();}
+
+	/**
+	 * Selects the elements within an element that match a compiled selector, as {@link Element#select(String)} would.
+	 * @param evaluator One of the profile's selectors.
+	 * @param root The element to search, which may match itself.
+	 * @return The matching elements, in document order.
+	 */
+	static Elements select(Evaluator evaluator, Element root){return Collector.collect(evaluator, root);}
+}
@@ -0,0 +1,244 @@
+package com.smogon.cap.voting;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.net.URLConnection;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.InflaterInputStream;
+
+/**
+ * A {@link PageFetcher} that is gentle with the forum and forgiving of it.
+ * <ul>
+ *     <li>Pages are asked for compressed, and decompressed before they are handed on.</li>
+ *     <li>Every response is read to the end, so the JVM keeps the connection alive
+ *     and reuses it for the next page from the same host.</li>
+ *     <li>Requests to the same host are spaced out to a maximum rate,
+ *     however many threads are fetching.</li>
+ *     <li>Connection errors, timeouts, {@code 429 Too Many Requests} and {@code 5xx} errors are retried
+ *     after a random delay that doubles with each attempt, or after the server's {@code Retry-After}, if longer.
+ *     Other errors, such as {@code 404 Not Found}, fail at once.</li>
+ *     <li>Redirects are followed, up to 5 in a row, including from {@code http} to {@code https}
+ *     (which {@code HttpURLConnection} won't do by itself), but only ever to {@code http} or {@code https}.</li>
+ * </ul>
+ * Connections are {@link HttpURLConnection HttpURLConnections} rather than {@code java.net.http},
+ * so that the script still runs on Java 8.
+ */
+public final class HttpFetcher implements PageFetcher
+{
+	// Timeout for connecting, and for each read.
+	private static final int TIMEOUT = 10_000; // in milliseconds
+	private static final long MAX_DELAY = TimeUnit.SECONDS.toNanos(30); // cap on a single backoff
+	private static final int MAX_REDIRECTS = 5;
+
+	private static final HttpFetcher SHARED = new HttpFetcher(4, 500, 10);
+
+	private final int attempts;
+	private final long baseDelay; // in nanoseconds
+	private final long interval; // between requests to a host, in nanoseconds; 0 for no limit
+	private final Map<String, long[]> nextSlots = new ConcurrentHashMap<>(); // by host, in System.nanoTime()
+
+	/**
+	 * @param attempts The most times to try a page before giving up. At least 1.
+	 * @param baseDelayMillis The longest delay before the first retry, in milliseconds.
+	 * Each later retry may wait twice as long as the last, up to 30 seconds.
+	 * @param requestsPerSecond The most requests to start per second to any one host, or 0 for no limit.
+	 */
+	public HttpFetcher(int attempts, long baseDelayMillis, double requestsPerSecond)
+	{
+		if (attempts < 1) throw new IllegalArgumentException("Must try at least once, not " + attempts + " times.");
+		this.attempts = attempts;
+		this.baseDelay = TimeUnit.MILLISECONDS.toNanos(baseDelayMillis);
+		this.interval = requestsPerSecond > 0 ? (long) (TimeUnit.SECONDS.toNanos(1) / requestsPerSecond) : 0;
+	}
+
+	/**
+	 * @return The fetcher that scrapers and caches use unless told otherwise:
+	 * 4 attempts, from half a second apart, and at most 10 requests a second per host.
+	 * Being shared, its rate limit holds across every scraper in the JVM.
+	 */
+	public static HttpFetcher shared(){return HttpFetcher.SHARED;}
+
+	@Override
+	public Response fetch(URL link, Map<String, String> headers) throws IOException
+	{
+		URL current = link;
+		for (int redirects = 0; ; redirects++)
+		{
+			Response response = this.attempt(current, headers);
+			if (!HttpFetcher.isRedirect(response.getStatus())) return response;
+			if (redirects == HttpFetcher.MAX_REDIRECTS) throw new IOException("Too many redirects fetching " + link);
+
+			String location = response.getHeader("Location");
+			if (location == null) throw new IOException("HTTP " + response.getStatus() + " without a Location fetching " + current);
+			URL next = new URL(current, location);
+			if (!next.getProtocol().equals("http") && !next.getProtocol().equals("https"))
+				throw new IOException("Won't follow a redirect from " + current + " to " + next);
+			current = next;
+		}
+	}
+
+	// Fetches a single URL, retrying as needed. Redirects are returned rather than followed.
+	private Response attempt(URL link, Map<String, String> headers) throws IOException
+	{
+		IOException failure = null;
+		long retryAfter = 0; // as asked by the server, in nanoseconds
+		for (int attempt = 0; attempt < this.attempts; attempt++)
+		{
+			if (attempt > 0) HttpFetcher.sleep(Math.max(retryAfter, this.backoff(attempt)));
+			this.throttle(link.getHost());
+
+			URLConnection connection = link.openConnection();
+			connection.setConnectTimeout(HttpFetcher.TIMEOUT);
+			connection.setReadTimeout(HttpFetcher.TIMEOUT);
+			connection.setRequestProperty("Accept-Encoding", "gzip, deflate");
+			if (connection instanceof HttpURLConnection) ((HttpURLConnection) connection).setInstanceFollowRedirects(false);
+			for (Map.Entry<String, String> header: headers.entrySet())
+				connection.setRequestProperty(header.getKey(), header.getValue());
+
+			if (!(connection instanceof HttpURLConnection)) // e.g. a file: link
+			{
+				try (InputStream in = connection.getInputStream())
+				{
+					return new Response(link, HttpURLConnection.HTTP_OK, HttpFetcher.headersOf(connection), HttpFetcher.readAll(in));
+				}
+			}
+
+			HttpURLConnection http = (HttpURLConnection) connection;
+			int status;
+			try
+			{
+				status = http.getResponseCode();
+				if (status == HttpURLConnection.HTTP_OK)
+					return new Response(link, status, HttpFetcher.headersOf(http), HttpFetcher.readBody(http));
+				HttpFetcher.drain(http);
+			}
+			catch (InterruptedIOException e)
+			{
+				if (Thread.currentThread().isInterrupted()) throw e;
+				failure = e; // a timeout
+				retryAfter = 0;
+				continue;
+			}
+			catch (IOException e)
+			{
+				failure = e;
+				retryAfter = 0;
+				continue;
+			}
+
+			if (status == HttpURLConnection.HTTP_NOT_MODIFIED || HttpFetcher.isRedirect(status))
+				return new Response(link, status, HttpFetcher.headersOf(http), new byte[0]);
+			failure = new IOException("HTTP " + status + " fetching " + link);
+			if (status != 429 && status < 500) throw failure;
+			retryAfter = HttpFetcher.retryAfter(http.getHeaderField("Retry-After"));
+		}
+		throw failure;
+	}
+
+	// Helper functions
+
+	private static boolean isRedirect(int status)
+	{
+		return status == HttpURLConnection.HTTP_MOVED_PERM || status == HttpURLConnection.HTTP_MOVED_TEMP
+			|| status == HttpURLConnection.HTTP_SEE_OTHER || status == 307 || status == 308;
+	}
+
+	// Picks a delay before a retry: anywhere up to the base delay, doubled for each earlier retry.
+	// The randomness keeps threads that failed together from all retrying together.
+	private long backoff(int attempt)
+	{
+		long ceiling = Math.min(HttpFetcher.MAX_DELAY, this.baseDelay << Math.min(attempt - 1, 20));
+		return ceiling <= 0 ? 0 : ThreadLocalRandom.current().nextLong(ceiling);
+	}
+
+	// Waits for the host's next free slot, and takes it.
+	// Slots are handed out under a lock, but waited for outside it, so threads wait their turn in parallel.
+	private void throttle(String host) throws InterruptedIOException
+	{
+		if (this.interval == 0) return;
+		long[] nextSlot = this.nextSlots.computeIfAbsent(host, key -> new long[]{System.nanoTime()});
+		long slot;
+		synchronized (nextSlot)
+		{
+			slot = Math.max(nextSlot[0], System.nanoTime());
+			nextSlot[0] = slot + this.interval;
+		}
+		HttpFetcher.sleep(slot - System.nanoTime());
+	}
+
+	private static void sleep(long nanos) throws InterruptedIOException
+	{
+		if (nanos <= 0) return;
+		try {TimeUnit.NANOSECONDS.sleep(nanos);}
+		catch (InterruptedException e)
+		{
+			Thread.currentThread().interrupt();
+			throw new InterruptedIOException("Interrupted while waiting to fetch a page");
+		}
+	}
+
+	// Reads a Retry-After header given in seconds. (The HTTP date form is rare enough to ignore.)
+	private static long retryAfter(String header)
+	{
+		if (header == null) return 0;
+		try {return Math.min(HttpFetcher.MAX_DELAY, TimeUnit.SECONDS.toNanos(Long.parseLong(header.trim())));}
+		catch (NumberFormatException e){return 0;}
+	}
+
+	private static Map<String, String> headersOf(URLConnection connection)
+	{
+		Map<String, String> headers = new HashMap<>();
+		for (Map.Entry<String, List<String>> header: connection.getHeaderFields().entrySet())
+		{
+			// The status line comes back as a header without a name.
+			if (header.getKey() == null || header.getValue().isEmpty()) continue;
+			headers.put(header.getKey(), header.getValue().get(header.getValue().size() - 1));
+		}
+		return headers;
+	}
+
+	// Reads a successful response, undoing its Content-Encoding.
+	private static byte[] readBody(HttpURLConnection connection) throws IOException
+	{
+		String encoding = connection.getContentEncoding();
+		try (InputStream raw = connection.getInputStream())
+		{
+			InputStream in = raw;
+			if ("gzip".equalsIgnoreCase(encoding) || "x-gzip".equalsIgnoreCase(encoding)) in = new GZIPInputStream(raw);
+			else if ("deflate".equalsIgnoreCase(encoding)) in = new InflaterInputStream(raw);
+			return HttpFetcher.readAll(in);
+		}
+	}
+
+	// Reads out an error response, so that its connection can be reused.
+	private static void drain(HttpURLConnection connection) throws IOException
+	{
+		InputStream error = connection.getErrorStream();
+		if (error == null) return;
+		try (InputStream in = error)
+		{
+			byte[] buffer = new byte[8192];
+			while (in.read(buffer) != -1);
+		}
+	}
+
+	private static byte[] readAll(InputStream in) throws IOException
+	{
+		ByteArrayOutputStream out = new ByteArrayOutputStream();
+		byte[] buffer = new byte[8192];
+		for (int read; (read = in.read(buffer)) != -1;) out.write(buffer, 0, read);
+		return out.toByteArray();
+	}
+
+	@Override public String toString(){return "HttpFetcher (" + this.attempts + " attempts)";}
+}
@@ -0,0 +1,239 @@
+package com.smogon.cap.voting;
+
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.util.LinkedHashMap;
+import java.util.Locale;
+import java.util.Map;
+import java.util.function.Consumer;
+
+/**
+ * Timings and counters for a run of the script, to tell where the time goes:
+ * fetching pages, parsing them with Jsoup, extracting ballots, validating them, or tallying them.
+ * <p>
+ * Instrumentation is off unless the {@value #PROPERTY} system property is {@code true}
+ * when this class is first used (which {@code Script -metrics} arranges).
+ * Every instrumented call site checks {@link #ENABLED} first,
+ * and since it is a {@code static final} constant, the JIT compiler removes the instrumentation entirely when it is off.
+ * <p>
+ * Allocation figures come from HotSpot's per-thread allocation counter, where available,
+ * and only count the thread that ran the phase, not any threads it waited on.
+ */
+public final class Metrics
+{
+	/** The system property that turns instrumentation on. */
+	public static final String PROPERTY = "vote4cap.metrics";
+	/** Whether instrumentation is on. */
+	public static final boolean ENABLED = Boolean.getBoolean(Metrics.PROPERTY);
+
+	private static final Metrics GLOBAL = new Metrics();
+	private static final ThreadMXBean THREADS = ManagementFactory.getThreadMXBean();
+	private static final int BUCKETS = 16; // fetch latency buckets: < 1 ms, < 2 ms, < 4 ms, ..., and the rest
+
+	// Pages
+	private int pages = 0;
+	private long bytes = 0;
+	private long fetchNanos = 0;
+	private final int[] fetchLatencies = new int[Metrics.BUCKETS];
+	private long parseNanos = 0;
+	// Posts
+	private long posts = 0;
+	private long extractNanos = 0;
+	// Named phases, in the order they were first recorded
+	private final Map<String, long[]> phases = new LinkedHashMap<>(); // name -> {count, nanos, allocated bytes}
+	// Polls
+	private final Map<String, long[]> tallies = new LinkedHashMap<>(); // poll -> {count, ballots, nanos, rounds}
+
+	// Package-private, so tests can record without the system property.
+	Metrics(){}
+
+	/** @return The metrics of this run. */
+	public static Metrics global(){return Metrics.GLOBAL;}
+
+	/**
+	 * The start of a phase of a run, on the current thread.
+	 */
+	public static final class Span
+	{
+		private final long start = System.nanoTime();
+		private final long allocated = Metrics.allocated();
+	}
+
+	/** @return A span starting now, to pass to {@link #phase(String, Span)}. */
+	public static Span start(){return new Span();}
+
+	/**
+	 * Wraps a consumer so that each call to it is recorded as a phase.
+	 * @param name The phase.
+	 * @param consumer The consumer to time.
+	 * @param <T> The type consumed.
+	 * @return The timed consumer.
+	 */
+	public static <T> Consumer<T> timed(String name, Consumer<T> consumer)
+	{
+		return t ->
+		{
+			Span span = Metrics.start();
+			consumer.accept(t);
+			Metrics.GLOBAL.phase(name, span);
+		};
+	}
+
+	// Recording
+
+	/**
+	 * Records a page fetched and parsed into a document.
+	 * @param fetchNanos How long the page took to arrive (or be revalidated).
+	 * @param bytes The size of the page.
+	 * @param parseNanos How long Jsoup took to parse it.
+	 */
+	public synchronized void page(long fetchNanos, long bytes, long parseNanos)
+	{
+		this.pages++;
+		this.bytes += bytes;
+		this.fetchNanos += fetchNanos;
+		this.fetchLatencies[Math.min(Metrics.BUCKETS - 1, 64 - Long.numberOfLeadingZeros(fetchNanos / 1_000_000))]++;
+		this.parseNanos += parseNanos;
+	}
+
+	/**
+	 * Records posts extracted into ballots.
+	 * @param posts The number of posts.
+	 * @param nanos How long extracting them took.
+	 */
+	public synchronized void posts(int posts, long nanos)
+	{
+		this.posts += posts;
+		this.extractNanos += nanos;
+	}
+
+	/**
+	 * Records the end of a phase that began at a span.
+	 * @param name The phase, e.g. {@code "scrape"}. Phases with the same name add up.
+	 * @param span The span returned by {@link #start()} at the start of the phase, on the same thread.
+	 */
+	public void phase(String name, Span span)
+	{
+		long nanos = System.nanoTime() - span.start;
+		long allocated = span.allocated < 0 ? -1 : Metrics.allocated() - span.allocated;
+		synchronized (this)
+		{
+			long[] phase = this.phases.computeIfAbsent(name, key -> new long[3]);
+			phase[0]++;
+			phase[1] += nanos;
+			phase[2] = allocated < 0 || phase[2] < 0 ? -1 : phase[2] + allocated;
+		}
+	}
+
+	/**
+	 * Records a tally of a poll.
+	 * @param poll The poll.
+	 * @param ballots The number of ballots tallied.
+	 * @param nanos How long the tally took.
+	 */
+	public synchronized void tally(Poll poll, int ballots, long nanos)
+	{
+		long[] tally = this.tallies.computeIfAbsent(poll.toString(), key -> new long[4]);
+		tally[0]++;
+		tally[1] += ballots;
+		tally[2] += nanos;
+	}
+
+	/**
+	 * Records instant runoff rounds run for a poll, as part of its tally.
+	 * @param poll The poll.
+	 * @param rounds The number of elimination rounds.
+	 */
+	public synchronized void rounds(Poll poll, int rounds)
+	{
+		this.tallies.computeIfAbsent(poll.toString(), key -> new long[4])[3] += rounds;
+	}
+
+	// Reporting
+
+	/**
+	 * Summarizes everything recorded so far as a JSON object.
+	 * Durations are in seconds; latency bucket {@code "<N"} counts pages that took less than {@code N} milliseconds.
+	 * @return The summary.
+	 */
+	public synchronized String toJson()
+	{
+		StringBuilder json = new StringBuilder("{\n");
+		json.append("  \"pages\": {\"count\": ").append(this.pages)
+			.append(", \"bytes\": ").append(this.bytes)
+			.append(", \"fetchSeconds\": ").append(Metrics.seconds(this.fetchNanos))
+			.append(", \"parseSeconds\": ").append(Metrics.seconds(this.parseNanos))
+			.append(", \"fetchLatencyMillis\": {");
+		for (int bucket = 0; bucket < Metrics.BUCKETS; bucket++)
+		{
+			if (bucket > 0) json.append(", ");
+			json.append(bucket < Metrics.BUCKETS - 1 ? "\"<" + (1L << bucket) + "\"" : "\">=" + (1L << (bucket - 1)) + "\"")
+				.append(": ").append(this.fetchLatencies[bucket]);
+		}
+		json.append("}},\n");
+
+		json.append("  \"posts\": {\"count\": ").append(this.posts)
+			.append(", \"extractSeconds\": ").append(Metrics.seconds(this.extractNanos))
+			.append(", \"perSecond\": ").append(Metrics.rate(this.posts, this.extractNanos))
+			.append("},\n");
+
+		json.append("  \"phases\": {");
+		String separator = "\n";
+		for (Map.Entry<String, long[]> phase: this.phases.entrySet())
+		{
+			long[] value = phase.getValue();
+			json.append(separator).append("    ").append(Metrics.quote(phase.getKey()))
+				.append(": {\"count\": ").append(value[0])
+				.append(", \"seconds\": ").append(Metrics.seconds(value[1]))
+				.append(", \"allocatedBytes\": ").append(value[2] < 0 ? "null" : Long.toString(value[2]))
+				.append("}");
+			separator = ",\n";
+		}
+		json.append(this.phases.isEmpty() ? "},\n" : "\n  },\n");
+
+		json.append("  \"tallies\": {");
+		separator = "\n";
+		for (Map.Entry<String, long[]> tally: this.tallies.entrySet())
+		{
+			long[] value = tally.getValue();
+			json.append(separator).append("    ").append(Metrics.quote(tally.getKey()))
+				.append(": {\"count\": ").append(value[0])
+				.append(", \"ballots\": ").append(value[1])
+				.append(", \"seconds\": ").append(Metrics.seconds(value[2]))
+				.append(", \"ballotsPerSecond\": ").append(Metrics.rate(value[1], value[2]))
+				.append(", \"runoffRounds\": ").append(value[3])
+				.append("}");
+			separator = ",\n";
+		}
+		json.append(this.tallies.isEmpty() ? "}\n" : "\n  }\n");
+		return json.append("}").toString();
+	}
+
+	@Override public String toString(){return this.toJson();}
+
+	// Helper functions
+
+	// Bytes allocated by the current thread so far, or -1 if the JVM can't tell.
+	private static long allocated()
+	{
+		if (!(Metrics.THREADS instanceof com.sun.management.ThreadMXBean)) return -1;
+		return ((com.sun.management.ThreadMXBean) Metrics.THREADS).getThreadAllocatedBytes(Thread.currentThread().getId());
+	}
+
+	private static String seconds(long nanos){return String.format(Locale.ROOT, "%.6f", nanos / 1e9);}
+
+	private static String rate(long count, long nanos){return nanos == 0 ? "null" : String.format(Locale.ROOT, "%.1f", count * 1e9 / nanos);}
+
+	// Quotes a JSON string. Package-private, for TallyServer.
+	static String quote(String text)
+	{
+		StringBuilder quoted = new StringBuilder("\"");
+		for (char c: text.toCharArray())
+		{
+			if (c == '"' || c == '\\') quoted.append('\\').append(c);
+			else if (c < ' ') quoted.append(String.format("\\u%04x", (int) c));
+			else quoted.append(c);
+		}
+		return quoted.append('"').toString();
+	}
+}
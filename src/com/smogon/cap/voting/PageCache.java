@@ -0,0 +1,233 @@
+package com.smogon.cap.voting;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.attribute.FileTime;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * A persistent, compressed cache of web pages, keyed by {@link URL}.
+ * <p>
+ * Earlier pages of a thread almost never change,
+ * so instead of downloading a cached page again, the cache revalidates it
+ * with the {@code ETag} and {@code Last-Modified} headers the forum sent with it.
+ * The forum then only sends pages that have changed.
+ * <p>
+ * Each page is one gzipped file in the cache directory.
+ * A file that can't be read back is treated as a miss, and replaced.
+ * The cache is bounded in size; once it grows past its limit,
+ * the least recently used pages are evicted first.
+ */
+public final class PageCache
+{
+	private static final String SUFFIX = ".page.gz";
+
+	private final Path directory;
+	private final long maxBytes;
+
+	/**
+	 * @param directory The directory to keep pages in. Created if it doesn't exist.
+	 * @param maxBytes The most (compressed) bytes to keep in the directory.
+	 * @throws IOException If the directory can't be created.
+	 */
+	public PageCache(Path directory, long maxBytes) throws IOException
+	{
+		this.directory = Files.createDirectories(directory);
+		this.maxBytes = maxBytes;
+	}
+
+	/**
+	 * A cached page: its body, and what is needed to parse and revalidate it.
+	 */
+	public static final class Page
+	{
+		private final URL link; // after any redirects
+		private final String charset; // null if the server didn't say
+		private final String etag; // empty if the server didn't send one
+		private final String lastModified; // ditto
+		private final byte[] body;
+
+		private Page(URL link, String charset, String etag, String lastModified, byte[] body)
+		{
+			this.link = link;
+			this.charset = charset;
+			this.etag = etag;
+			this.lastModified = lastModified;
+			this.body = body;
+		}
+
+		// Getters
+		/** @return The page's URL, after any redirects, for resolving its relative links. */
+		public URL getLink(){return this.link;}
+		/** @return The charset from the page's {@code Content-Type}, or null if it had none. */
+		public String getCharset(){return this.charset;}
+		/** @return The raw bytes of the page. */
+		public byte[] getBody(){return this.body;}
+	}
+
+	/**
+	 * Gets a page, from the cache if it is still current, or else from the network,
+	 * using {@link HttpFetcher#shared()}.
+	 * @param link The page to get.
+	 * @return The page.
+	 * @throws IOException If the page can't be fetched.
+	 */
+	public Page get(URL link) throws IOException
+	{
+		return this.get(link, HttpFetcher.shared());
+	}
+
+	/**
+	 * Gets a page, from the cache if it is still current, or else from the network.
+	 * @param link The page to get.
+	 * @param fetcher What to revalidate or download the page with.
+	 * @return The page.
+	 * @throws IOException If the page can't be fetched.
+	 */
+	public Page get(URL link, PageFetcher fetcher) throws IOException
+	{
+		Path file = this.directory.resolve(PageCache.key(link) + PageCache.SUFFIX);
+		Page cached = PageCache.read(file);
+
+		Map<String, String> headers = new HashMap<>();
+		if (cached != null && !cached.etag.isEmpty()) headers.put("If-None-Match", cached.etag);
+		if (cached != null && !cached.lastModified.isEmpty()) headers.put("If-Modified-Since", cached.lastModified);
+
+		PageFetcher.Response response = fetcher.fetch(link, headers);
+		if (response.getStatus() == HttpURLConnection.HTTP_NOT_MODIFIED && cached != null)
+		{
+			this.touch(file);
+			return cached;
+		}
+		if (response.getStatus() != HttpURLConnection.HTTP_OK) throw new IOException("HTTP " + response.getStatus() + " fetching " + link);
+
+		Page page = new Page(
+			response.getLink(),
+			response.getCharset(),
+			PageCache.orEmpty(response.getHeader("ETag")),
+			PageCache.orEmpty(response.getHeader("Last-Modified")),
+			response.getBody());
+		if (!page.etag.isEmpty() || !page.lastModified.isEmpty()) this.write(file, page); // else, it can't be revalidated
+		return page;
+	}
+
+	// Helper functions
+
+	// Names a page's file after a hash of its URL, which is always a safe file name.
+	private static String key(URL link)
+	{
+		try
+		{
+			byte[] hash = MessageDigest.getInstance("SHA-256").digest(link.toString().getBytes(StandardCharsets.UTF_8));
+			StringBuilder hex = new StringBuilder();
+			for (byte b: hash) hex.append(String.format("%02x", b));
+			return hex.toString();
+		}
+		catch (NoSuchAlgorithmException e){throw new AssertionError(e);} // every JVM has SHA-256
+	}
+
+	private static String orEmpty(String header){return header == null ? "" : header;}
+
+	private static byte[] readAll(InputStream in) throws IOException
+	{
+		ByteArrayOutputStream out = new ByteArrayOutputStream();
+		byte[] buffer = new byte[8192];
+		for (int read; (read = in.read(buffer)) != -1;) out.write(buffer, 0, read);
+		return out.toByteArray();
+	}
+
+	// Reads a cached page, or returns null if it isn't cached.
+	// A page that can't be read back (e.g. cut short by a crash, or corrupted on disk) is deleted,
+	// so that it is fetched again rather than failing every scrape from then on.
+	// (This includes pages cached before their URL was kept, which start with their charset instead.)
+	private static Page read(Path file) throws IOException
+	{
+		try (DataInputStream in = new DataInputStream(new GZIPInputStream(Files.newInputStream(file))))
+		{
+			URL link = new URL(in.readUTF());
+			String charset = in.readUTF();
+			return new Page(link, charset.isEmpty() ? null : charset, in.readUTF(), in.readUTF(), PageCache.readAll(in));
+		}
+		catch (NoSuchFileException e){return null;}
+		catch (IOException e) // e.g. a ZipException, an EOFException or a MalformedURLException
+		{
+			Files.deleteIfExists(file);
+			return null;
+		}
+	}
+
+	// Writes a page to a temporary file first, so that readers never see half a page.
+	private void write(Path file, Page page) throws IOException
+	{
+		Path temporary = Files.createTempFile(this.directory, "page", ".tmp");
+		try (DataOutputStream out = new DataOutputStream(new GZIPOutputStream(Files.newOutputStream(temporary))))
+		{
+			out.writeUTF(page.link.toString());
+			out.writeUTF(page.charset == null ? "" : page.charset);
+			out.writeUTF(page.etag);
+			out.writeUTF(page.lastModified);
+			out.write(page.body);
+		}
+		Files.move(temporary, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+		this.evict();
+	}
+
+	// Marks a page as recently used. The file's modification time doubles as its access time.
+	private void touch(Path file) throws IOException
+	{
+		try {Files.setLastModifiedTime(file, FileTime.fromMillis(System.currentTimeMillis()));}
+		catch (NoSuchFileException e){} // evicted in the meantime; it'll be fetched again next time
+	}
+
+	// Deletes the least recently used pages until the cache fits in its limit.
+	// Synchronized, so that concurrent fetches don't evict more than they need to.
+	private synchronized void evict() throws IOException
+	{
+		List<Path> files = new ArrayList<>();
+		long total = 0;
+		try (DirectoryStream<Path> stream = Files.newDirectoryStream(this.directory, "*" + PageCache.SUFFIX))
+		{
+			for (Path file: stream)
+			{
+				files.add(file);
+				total += Files.size(file);
+			}
+		}
+		if (total <= this.maxBytes) return;
+
+		files.sort(Comparator.comparing(PageCache::lastUsed));
+		for (Path file: files)
+		{
+			if (total <= this.maxBytes) break;
+			total -= Files.size(file);
+			Files.deleteIfExists(file);
+		}
+	}
+
+	private static FileTime lastUsed(Path file)
+	{
+		try {return Files.getLastModifiedTime(file);}
+		catch (IOException e){return FileTime.fromMillis(0);} // already gone, so evict it first
+	}
+
+	@Override public String toString(){return "PageCache in " + this.directory;}
+}
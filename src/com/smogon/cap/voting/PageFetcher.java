@@ -0,0 +1,82 @@
+package com.smogon.cap.voting;
+
+import java.io.IOException;
+import java.net.URL;
+import java.util.Collections;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * Downloads web pages for a {@link ThreadScraper} or a {@link PageCache}.
+ * <p>
+ * Implementations may be called from several threads at once.
+ * The default is {@link HttpFetcher#shared()}.
+ */
+public interface PageFetcher
+{
+	/**
+	 * Fetches a page.
+	 * @param link The page to fetch.
+	 * @param headers Extra request headers, e.g. for a conditional request.
+	 * @return The response, which is either {@code 200 OK},
+	 * or {@code 304 Not Modified} if the headers asked for it.
+	 * Redirects have already been followed.
+	 * @throws IOException If the page can't be fetched.
+	 */
+	Response fetch(URL link, Map<String, String> headers) throws IOException;
+
+	/**
+	 * A fetched page: where it came from, its status, headers and (decompressed) body.
+	 */
+	final class Response
+	{
+		private final URL link;
+		private final int status;
+		private final Map<String, String> headers; // by name, ignoring case
+		private final byte[] body;
+
+		/**
+		 * @param link The page's URL, after any redirects.
+		 * @param status The HTTP status code.
+		 * @param headers The response headers. Only the last value of each is kept.
+		 * @param body The raw bytes of the page, after undoing any {@code Content-Encoding}.
+		 */
+		public Response(URL link, int status, Map<String, String> headers, byte[] body)
+		{
+			Map<String, String> copy = new TreeMap<>(String.CASE_INSENSITIVE_ORDER);
+			copy.putAll(headers);
+			this.link = link;
+			this.status = status;
+			this.headers = Collections.unmodifiableMap(copy);
+			this.body = body;
+		}
+
+		// Getters
+		/** @return The page's URL, after any redirects, for resolving its relative links. */
+		public URL getLink(){return this.link;}
+		/** @return The HTTP status code. */
+		public int getStatus(){return this.status;}
+		/** @return The raw bytes of the page, empty if it is {@code 304 Not Modified}. */
+		public byte[] getBody(){return this.body;}
+
+		/**
+		 * @param name A header name, in any case.
+		 * @return The header's value, or null if the response didn't have it.
+		 */
+		public String getHeader(String name){return this.headers.get(name);}
+
+		/** @return The charset from the page's {@code Content-Type}, or null if it had none. */
+		public String getCharset()
+		{
+			String contentType = this.getHeader("Content-Type");
+			if (contentType == null) return null;
+			for (String parameter: contentType.split(";"))
+			{
+				String[] pair = parameter.trim().split("=", 2);
+				if (pair.length == 2 && pair[0].trim().equalsIgnoreCase("charset"))
+					return pair[1].trim().replace("\"", "");
+			}
+			return null;
+		}
+	}
+}
@@ -0,0 +1,251 @@
+package com.smogon.cap.voting;
+
+import java.util.Arrays;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveTask;
+import java.util.stream.IntStream;
+
+/**
+ * The pairwise preferences of a {@link BallotMatrix}, which the Condorcet {@link Polls} are decided on.
+ * <p>
+ * {@code beats[a][b]} is the number of ballots that prefer candidate {@code a} to candidate {@code b},
+ * counting each row as many times as its weight.
+ * A ballot prefers every candidate it ranks to every candidate ranked lower or not at all,
+ * and only the first time a candidate appears on a ballot counts.
+ * <p>
+ * Counting every pair on every ballot would take {@code O(candidates^2)} per ballot,
+ * which doesn't scale to hundreds of write-ins. Instead, only the pairs a ballot actually ranks are counted:
+ * if {@code ranked[a]} ballots rank {@code a} and {@code above[a][b]} of those rank {@code b} above {@code a},
+ * the rest prefer {@code a} to {@code b}, so {@code beats[a][b] = ranked[a] - above[a][b]}.
+ * Large matrices are counted in chunks with fork/join,
+ * each chunk into its own {@code int[][]}, which are summed on the way back up.
+ */
+final class Pairwise
+{
+	// Below this many choices, forking costs more than it saves.
+	private static final int MIN_CHUNK = 4_096;
+	// Side of the square blocks Schulze's strongest paths are computed in, sized to stay in cache.
+	private static final int BLOCK = 64;
+
+	private Pairwise(){}
+
+	/**
+	 * Counts the pairwise preferences of every ballot.
+	 * @param matrix The ballots to count.
+	 * @return {@code beats}, indexed by the matrix's candidate IDs.
+	 */
+	static int[][] count(BallotMatrix matrix)
+	{
+		int parallelism = ForkJoinPool.getCommonPoolParallelism();
+		// Aim for a few chunks per thread, so that uneven chunks even out.
+		int chunk = Math.max(Pairwise.MIN_CHUNK, matrix.choices.length / (4 * parallelism));
+		int[][] above = matrix.choices.length <= chunk || parallelism < 2
+			? new Chunk(matrix, 0, matrix.size(), chunk).compute()
+			: ForkJoinPool.commonPool().invoke(new Chunk(matrix, 0, matrix.size(), chunk));
+
+		// Turn the counts into beats in place: beats[a][b] = ranked[a] - above[a][b].
+		for (int a = 0; a < above.length; a++)
+		{
+			int[] row = above[a];
+			int ranked = row[a];
+			for (int b = 0; b < row.length; b++) row[b] = ranked - row[b];
+		}
+		return above;
+	}
+
+	// Counts above[a][b], the ballots ranking b above a, for a range of rows.
+	// The diagonal holds ranked[a], since no ballot ranks a candidate above itself.
+	private static final class Chunk extends RecursiveTask<int[][]>
+	{
+		private static final long serialVersionUID = 1L;
+
+		private final transient BallotMatrix matrix;
+		private final int from, to; // rows
+		private final int chunk; // most choices counted without forking
+
+		private Chunk(BallotMatrix matrix, int from, int to, int chunk)
+		{
+			this.matrix = matrix;
+			this.from = from;
+			this.to = to;
+			this.chunk = chunk;
+		}
+
+		@Override
+		protected int[][] compute()
+		{
+			int[] offsets = this.matrix.offsets;
+			if (offsets[this.to] - offsets[this.from] > this.chunk && this.to - this.from > 1)
+			{
+				int middle = (this.from + this.to) >>> 1;
+				Chunk right = new Chunk(this.matrix, middle, this.to, this.chunk);
+				right.fork();
+				int[][] sums = new Chunk(this.matrix, this.from, middle, this.chunk).compute();
+				int[][] other = right.join();
+				for (int a = 0; a < sums.length; a++)
+				{
+					int[] row = sums[a], otherRow = other[a];
+					for (int b = 0; b < row.length; b++) row[b] += otherRow[b];
+				}
+				return sums;
+			}
+
+			int n = this.matrix.candidateCount();
+			int[] choices = this.matrix.choices;
+			int[][] above = new int[n][n];
+			int[] stamps = new int[n]; // candidate -> 1 + the last row it was seen in
+			int[] seen = new int[n]; // the distinct candidates of the current row so far
+			for (int row = this.from; row < this.to; row++)
+			{
+				int seenCount = 0, weight = this.matrix.weights[row];
+				for (int i = offsets[row]; i < offsets[row + 1]; i++)
+				{
+					int a = choices[i];
+					if (stamps[a] == row + 1) continue; // repeated vote
+					stamps[a] = row + 1;
+					int[] counts = above[a];
+					counts[a] += weight;
+					for (int j = 0; j < seenCount; j++) counts[seen[j]] += weight;
+					seen[seenCount++] = a;
+				}
+			}
+			return above;
+		}
+	}
+
+	/**
+	 * Finds the strength of the strongest path between every pair of candidates, as in the Schulze method.
+	 * <p>
+	 * A path's strength is that of its weakest link, and a link {@code a -> b} is as strong as
+	 * {@code beats[a][b]} if {@code a} beats {@code b} head to head, or else absent.
+	 * This is Floyd-Warshall over (max, min), done in {@value #BLOCK}-square blocks:
+	 * each round of {@code k} first closes the diagonal block, then the blocks in its row and column,
+	 * and then every other block, which only read those and can be done in parallel.
+	 * @param beats The pairwise preferences, from {@link #count(BallotMatrix)}.
+	 * @return {@code paths[a][b]}, the strength of the strongest path from {@code a} to {@code b}.
+	 */
+	static int[][] strongestPaths(int[][] beats)
+	{
+		int n = beats.length;
+		int[][] paths = new int[n][n];
+		for (int a = 0; a < n; a++)
+			for (int b = 0; b < n; b++)
+				if (beats[a][b] > beats[b][a]) paths[a][b] = beats[a][b];
+		// The diagonal is left in. A path through a cycle is never stronger than one around it,
+		// so whatever paths[a][a] becomes can't strengthen any other path.
+
+		int blocks = (n + Pairwise.BLOCK - 1) / Pairwise.BLOCK;
+		for (int k = 0; k < blocks; k++)
+		{
+			Pairwise.relax(paths, k, k, k);
+			for (int other = 0; other < blocks; other++)
+			{
+				if (other == k) continue;
+				Pairwise.relax(paths, k, other, k);
+				Pairwise.relax(paths, other, k, k);
+			}
+
+			// Every other block only reads blocks in row and column k, so block rows can go in parallel.
+			int round = k;
+			IntStream rows = IntStream.range(0, blocks).filter(i -> i != round);
+			(blocks > 2 ? rows.parallel() : rows).forEach(i ->
+			{
+				for (int j = 0; j < blocks; j++)
+					if (j != round) Pairwise.relax(paths, i, j, round);
+			});
+		}
+		return paths;
+	}
+
+	// Relaxes block (bi, bj) through every intermediate candidate in block bk.
+	private static void relax(int[][] paths, int bi, int bj, int bk)
+	{
+		int n = paths.length;
+		int iEnd = Math.min(n, (bi + 1) * Pairwise.BLOCK);
+		int jStart = bj * Pairwise.BLOCK, jEnd = Math.min(n, jStart + Pairwise.BLOCK);
+		int kEnd = Math.min(n, (bk + 1) * Pairwise.BLOCK);
+		for (int k = bk * Pairwise.BLOCK; k < kEnd; k++)
+		{
+			int[] through = paths[k];
+			for (int i = bi * Pairwise.BLOCK; i < iEnd; i++)
+			{
+				int[] from = paths[i];
+				int toK = from[k];
+				if (toK == 0) continue;
+				for (int j = jStart; j < jEnd; j++)
+				{
+					int strength = Math.min(toK, through[j]);
+					if (strength > from[j]) from[j] = strength;
+				}
+			}
+		}
+	}
+
+	/**
+	 * Locks in pairwise victories from strongest to weakest, skipping any that would form a cycle, as in Ranked Pairs.
+	 * <p>
+	 * Victories are ordered by margin, then by the number of winning votes.
+	 * Victories that are still tied are ordered by the names of their winner and then their loser,
+	 * so that the result doesn't depend on the order candidates were first seen in.
+	 * <p>
+	 * Which candidates each candidate can reach through locked victories is kept as a bit set,
+	 * so a victory forms a cycle exactly when its loser can already reach its winner.
+	 * @param beats The pairwise preferences, from {@link #count(BallotMatrix)}.
+	 * @param candidates The candidates, indexed like {@code beats}.
+	 * @return {@code defeats[a]}, the number of candidates {@code a} ranks above in the locked graph.
+	 */
+	static int[] lockPairs(int[][] beats, User[] candidates)
+	{
+		int n = beats.length;
+		int pairCount = 0;
+		int[] pairs = new int[n * (n - 1) / 2]; // winner * n + loser
+		for (int a = 0; a < n; a++)
+			for (int b = 0; b < n; b++)
+				if (beats[a][b] > beats[b][a]) pairs[pairCount++] = a * n + b;
+
+		// Rank the candidates' names once, rather than comparing strings in the sort.
+		int[] byName = new int[n];
+		for (int c = 0; c < n; c++) byName[c] = c;
+		Ranking.sort(byName, (a, b) -> String.CASE_INSENSITIVE_ORDER.compare(candidates[a].getName(), candidates[b].getName()));
+		int[] nameRanks = new int[n];
+		for (int rank = 0; rank < n; rank++) nameRanks[byName[rank]] = rank;
+
+		int[] order = Arrays.copyOf(pairs, pairCount);
+		Ranking.sort(order, (p, q) ->
+		{
+			int pa = p / n, pb = p % n, qa = q / n, qb = q % n;
+			int byMargin = Integer.compare(beats[qa][qb] - beats[qb][qa], beats[pa][pb] - beats[pb][pa]);
+			if (byMargin != 0) return byMargin;
+			int byVotes = Integer.compare(beats[qa][qb], beats[pa][pb]);
+			if (byVotes != 0) return byVotes;
+			int byWinner = Integer.compare(nameRanks[pa], nameRanks[qa]);
+			return byWinner != 0 ? byWinner : Integer.compare(nameRanks[pb], nameRanks[qb]);
+		});
+
+		int words = (n + 63) >>> 6;
+		long[][] reach = new long[n][words]; // candidate -> candidates reachable through locked victories
+		for (int pair: order)
+		{
+			int winner = pair / n, loser = pair % n;
+			if (Pairwise.has(reach[winner], loser)) continue; // already implied, so locking it changes nothing
+			if (Pairwise.has(reach[loser], winner)) continue; // would form a cycle
+
+			// Everything that reaches the winner (and the winner itself) now reaches the loser and beyond.
+			long[] gained = reach[loser].clone();
+			gained[loser >>> 6] |= 1L << loser;
+			for (int c = 0; c < n; c++)
+			{
+				if (c != winner && !Pairwise.has(reach[c], winner)) continue;
+				long[] row = reach[c];
+				for (int w = 0; w < words; w++) row[w] |= gained[w];
+			}
+		}
+
+		int[] defeats = new int[n];
+		for (int c = 0; c < n; c++)
+			for (long word: reach[c]) defeats[c] += Long.bitCount(word);
+		return defeats;
+	}
+
+	private static boolean has(long[] bits, int index){return (bits[index >>> 6] & 1L << index) != 0;}
+}
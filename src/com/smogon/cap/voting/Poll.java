@@ -1,9 +1,11 @@
 package com.smogon.cap.voting;
 
+import java.util.ArrayList;
 import java.util.Collection;
 import java.util.Comparator;
 import java.util.List;
 import java.util.SortedSet;
+import java.util.function.Consumer;
 
 /**
  * A {@code Poll} can be thought of as an algorithm for converting 
@@ -65,7 +67,22 @@ public interface Poll
 		public static final Comparator<Entry> DECREASING = doubleComparator.reversed().thenComparing(stringComparator);
 	}
 	
-	// Interface method
+	/**
+	 * A nested interface for counting ballots one at a time,
+	 * so that a {@code Poll} can tally ballots while later ones are still being scraped.
+	 * <p>
+	 * {@link #result()} may be called at any point, and more ballots may be accepted afterwards.
+	 */
+	interface Accumulator extends Consumer<Ballot>
+	{
+		/**
+		 * Tallies every ballot accepted so far, as in {@link Poll#tally(Collection)}.
+		 * @return A sorted set of entries.
+		 */
+		SortedSet<Entry> result();
+	}
+
+	// Interface methods
 
 	/**
 	 * Tallies ballots into a ranking.
@@ -81,5 +98,34 @@ public interface Poll
 	 * @return A sorted set of entries.
 	 */
 	SortedSet<Entry> tally(Collection<Ballot> ballots);
-}
 
+	/**
+	 * Tallies already-encoded ballots into a ranking, as in {@link #tally(Collection)}.
+	 * <p>
+	 * By default, the matrix is decoded back into ballots,
+	 * but polls that count on the matrix itself should override this method.
+	 * @param matrix The ballots to process.
+	 * @return A sorted set of entries.
+	 */
+	default SortedSet<Entry> tally(BallotMatrix matrix)
+	{
+		return this.tally(matrix.ballots());
+	}
+
+	/**
+	 * Creates an {@link Accumulator} that tallies ballots the same way as this {@code Poll}.
+	 * <p>
+	 * By default, the accumulator keeps every ballot and tallies them all at once,
+	 * but polls that can count incrementally should override this method.
+	 * @return A new, empty accumulator.
+	 */
+	default Accumulator accumulator()
+	{
+		List<Ballot> ballots = new ArrayList<>();
+		return new Accumulator()
+		{
+			@Override public void accept(Ballot ballot){ballots.add(ballot);}
+			@Override public SortedSet<Entry> result(){return Poll.this.tally(ballots);}
+		};
+	}
+}
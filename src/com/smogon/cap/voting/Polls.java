@@ -1,16 +1,10 @@
 package com.smogon.cap.voting;
 
-import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collection;
-import java.util.HashMap;
-import java.util.List;
-import java.util.Map;
-import java.util.Set;
 import java.util.SortedSet;
-import java.util.TreeSet;
-import java.util.function.Supplier;
-import java.util.stream.Collector;
-import java.util.stream.Collectors;
+import java.util.function.Function;
+import java.util.function.IntFunction;
 
 /**
  * An enumeration of various polling methods subscribing to the {@link Poll} interface.
@@ -32,19 +26,19 @@ public enum Polls implements Poll
 	FPTPV
 	{
 		@Override
-		public SortedSet<Entry> tally(Collection<Ballot> ballots)
+		Ranking count(BallotMatrix matrix)
 		{
-			Map<User, Integer> frequencies = new HashMap<>();
+			int[] frequencies = new int[matrix.candidateCount()];
 			// For each ballot, add the top vote.
-			for (Ballot ballot : ballots)
-				if (!ballot.getVotes().isEmpty())
-					frequencies.merge(ballot.getVotes().get(0), 1, Integer::sum);
-
-			return frequencies.entrySet().stream()
-				.map(mse -> new Entry(mse.getKey(), mse.getValue()))
-				.sorted(Entry.DECREASING)
-				.collect(Polls.DECREASING_COLLECTOR);
+			for (int row = 0; row < matrix.size(); row++)
+				if (matrix.offsets[row] < matrix.offsets[row + 1])
+					frequencies[matrix.choices[matrix.offsets[row]]] += matrix.weights[row];
+
+			return Polls.ranking(matrix::getCandidate, frequencies);
 		}
+
+		@Override
+		public Accumulator accumulator(){return new Counter(true);}
 	}
 	/**
 	 * Approval voting = multiple bold voting
@@ -52,139 +46,240 @@ public enum Polls implements Poll
 	, AV
 	{
 		@Override
-		public SortedSet<Entry> tally(Collection<Ballot> ballots)
+		Ranking count(BallotMatrix matrix)
 		{
-			Map<User, Integer> frequencies = new HashMap<>();
+			int[] frequencies = new int[matrix.candidateCount()];
 			// For each ballot, add all votes on the ballot.
-			for (Ballot ballot: ballots)
-				for (User vote: ballot.getVotes())
-					frequencies.merge(vote, 1, Integer::sum);
-
-			return frequencies.entrySet().stream()
-				.map(mse -> new Entry(mse.getKey(), mse.getValue()))
-				.sorted(Entry.DECREASING)
-				.collect(Polls.DECREASING_COLLECTOR);
+			for (int row = 0; row < matrix.size(); row++)
+				for (int i = matrix.offsets[row]; i < matrix.offsets[row + 1]; i++)
+					frequencies[matrix.choices[i]] += matrix.weights[row];
+
+			return Polls.ranking(matrix::getCandidate, frequencies);
 		}
+
+		@Override
+		public Accumulator accumulator(){return new Counter(false);}
 	}
 	/**
 	 * Instant runoff voting
 	 */
 	, IRV 
 	{
-		private boolean canIterate(SortedSet<Entry> rankings, int majority)
+		@Override
+		Ranking count(BallotMatrix matrix)
 		{
-			// Can't iterate on an empty set.
-			if (rankings.isEmpty()) return false;
-			
-			// Can't iterate if everyone is tied, or there is a single winner.
-			long distinctValues = rankings.stream().map(Entry::getValue).distinct().count();
-			if (distinctValues == 1) return false;
-			
-			// Can't iterate if we've reached the majority needed.
-			if (rankings.first().getValue() >= majority) return false;
-			
-			return true;
+			Runoff runoff = new Runoff(matrix.aggregate());
+			Ranking winners = Polls.instantRunoff(runoff, matrix.ballotCount());
+			if (Metrics.ENABLED) Metrics.global().rounds(this, runoff.rounds());
+			return winners;
 		}
-		
+	}
+	/**
+	 * Preferential block voting
+	 */
+	, PBV
+	{
 		@Override
-		public SortedSet<Entry> tally(Collection<Ballot> ballots)
+		Ranking count(BallotMatrix matrix)
 		{
-			final int population = ballots.size();
-			final int majority = (int) Math.floor(0.5 * population) + 1;
-
-			List<Ballot> roundBallots = new ArrayList<>(ballots); // make copy
-			SortedSet<Entry> roundRankings = Polls.FPTPV.tally(roundBallots);
-			while (this.canIterate(roundRankings, majority))
-			{
-				final double lastValue = roundRankings.last().getValue();
+			return Polls.blockVote(this, matrix, Integer.MAX_VALUE);
+		}
+	}
+	/**
+	 * Schulze method = beatpath
+	 * <p>
+	 * Each candidate scores the number of others they beat through their strongest paths,
+	 * so the winner is the candidate nobody beats.
+	 */
+	, SCHULZE
+	{
+		@Override
+		Ranking count(BallotMatrix matrix)
+		{
+			int[][] paths = Pairwise.strongestPaths(Pairwise.count(matrix.aggregate()));
+			int[] wins = new int[paths.length];
+			for (int a = 0; a < paths.length; a++)
+				for (int b = 0; b < paths.length; b++)
+					if (paths[a][b] > paths[b][a]) wins[a]++;
+			return Polls.pairwiseRanking(matrix, wins);
+		}
+	}
+	/**
+	 * Ranked pairs
+	 * <p>
+	 * Each candidate scores the number of others ranked below them once every pair that can be is locked in.
+	 */
+	, RP
+	{
+		@Override
+		Ranking count(BallotMatrix matrix)
+		{
+			return Polls.pairwiseRanking(matrix, Pairwise.lockPairs(Pairwise.count(matrix.aggregate()), matrix.candidates));
+		}
+	}
+	;
 
-				Set<User> lastPlaces = roundRankings.stream()
-					.filter(e -> e.getValue() == lastValue)
-					.map(Entry::getUser)
-					.collect(Collectors.toSet());
+	/**
+	 * Tallies ballots by encoding them as a {@link BallotMatrix} first.
+	 */
+	@Override
+	public SortedSet<Entry> tally(Collection<Ballot> ballots)
+	{
+		return this.tally(BallotMatrix.of(ballots));
+	}
 
-				roundBallots = Polls.filterOut(roundBallots, lastPlaces); // round ballots, not original ballots
-				roundRankings = Polls.FPTPV.tally(roundBallots);
-			}
-			
-			// TODO: Find a better place for the empty check?
-			if (roundRankings.isEmpty()) return roundRankings;
+	/**
+	 * Tallies already-encoded ballots into a ranking.
+	 * Every {@code Polls} constant counts on the matrix directly.
+	 * @param matrix The ballots to process.
+	 * @return A sorted set of entries, as in {@link Poll#tally(Collection)}.
+	 */
+	@Override
+	public SortedSet<Entry> tally(BallotMatrix matrix)
+	{
+		return this.rank(matrix).toSortedSet();
+	}
 
-			final double firstValue = roundRankings.first().getValue();
+	/**
+	 * Tallies already-encoded ballots into a {@link Ranking},
+	 * which is what {@link #tally(BallotMatrix)} presents as a {@code SortedSet}.
+	 * @param matrix The ballots to process.
+	 * @return The ranking, whose candidate IDs are those of the matrix.
+	 */
+	public Ranking rank(BallotMatrix matrix)
+	{
+		if (!Metrics.ENABLED) return this.count(matrix);
 
-			return roundRankings.stream()
-				.filter(e -> e.getValue() == firstValue)
-				.collect(Polls.DECREASING_COLLECTOR);
-		}
+		long start = System.nanoTime();
+		Ranking ranking = this.count(matrix);
+		Metrics.global().tally(this, matrix.ballotCount(), System.nanoTime() - start);
+		return ranking;
 	}
+
+	// The poll itself, which rank() wraps with instrumentation.
+	abstract Ranking count(BallotMatrix matrix);
+
 	/**
-	 * Preferential block voting
+	 * {@inheritDoc}
+	 * <p>
+	 * Unless the poll can count incrementally, ballots are encoded into a {@link BallotMatrix} as they arrive,
+	 * which takes far less memory than keeping every {@link Ballot}.
 	 */
-	, PBV
+	@Override
+	public Accumulator accumulator()
 	{
-		@Override
-		public SortedSet<Entry> tally(Collection<Ballot> ballots)
+		return Polls.matrixAccumulator(this::tally);
+	}
+
+	// Helper functions.
+
+	// Instant runoff voting on a freshly loaded Runoff: the candidates tied for the seat win.
+	static Ranking instantRunoff(Runoff runoff, int population)
+	{
+		int firstValue = runoff.run(population);
+		Ranking.Builder winners = new Ranking.Builder(false);
+		for (int id = 0; id < runoff.candidateCount(); id++)
+			if (firstValue > 0 && runoff.frequency(id) == firstValue)
+				winners.add(id, runoff.getCandidate(id), firstValue);
+		return winners.build();
+	}
+
+	// Preferential block voting that stops once at least 'seats' seats are filled.
+	// The poll is only used to label Metrics.
+	static Ranking blockVote(Poll poll, BallotMatrix matrix, int seats)
+	{
+		Runoff runoff = new Runoff(matrix.aggregate());
+		Ranking rankings = Polls.blockVote(runoff, matrix.ballotCount(), seats);
+		if (Metrics.ENABLED) Metrics.global().rounds(poll, runoff.rounds());
+		return rankings;
+	}
+
+	// Preferential block voting on a freshly loaded Runoff.
+	// Every candidate tied for a seat is seated at once, so the last seat may overfill.
+	// Later seats carry over the Runoff's ballot buckets, rather than rerunning IRV from scratch.
+	static Ranking blockVote(Runoff runoff, int population, int seats)
+	{
+		Ranking.Builder rankings = new Ranking.Builder(true);
+		int round = 1; // Make the round number 1-based for user-friendliness.
+		// The first round is out of every ballot, even blank ones, and later rounds only the ballots left.
+		while (population > 0 && round <= seats)
 		{
-			SortedSet<Entry> rankings = Polls.INCREASING_SUPPLIER.get();
-			
-			int round = 1; // Make the round number 1-based for user-friendliness.
-			List<Ballot> roundBallots = new ArrayList<>(ballots); // make copy
-			while (!roundBallots.isEmpty())
+			int firstValue = runoff.run(population);
+			if (firstValue == 0) break; // only blank ballots
+
+			int roundSeats = 0;
+			for (int id = 0; id < runoff.candidateCount(); id++)
 			{
-				SortedSet<Entry> roundResults = Polls.IRV.tally(roundBallots);
-				
-				Set<User> roundSeenUsers = roundResults.stream()
-					.map(Entry::getUser)
-					.collect(Collectors.toSet());
-				
-				final int currentRound = round; // final modifier needed for stream
-				Set<Entry> roundRankings = roundSeenUsers.stream()
-					.map(u -> new Entry(u, currentRound))
-					.collect(Collectors.toSet());
-				
-				rankings.addAll(roundRankings);
-				roundBallots = Polls.filterOut(roundBallots, roundSeenUsers); // not ballots
-				round += roundSeenUsers.size();
+				if (runoff.frequency(id) != firstValue) continue;
+				rankings.add(id, runoff.getCandidate(id), round);
+				runoff.seat(id);
+				roundSeats++;
 			}
-			return rankings;
+			round += roundSeats;
+
+			// Ballots with nobody left to seat drop out of later rounds.
+			population = runoff.remaining();
 		}
+		return rankings.build();
 	}
-	;
 
-	// Suppliers/Collectors (for custom ranking):
-	// Below are convenience constants to generate instances for and collectors for SortedSets,
-	// Using TreeSets with customizable comparators.
-
-	// Suppliers: Generate an instance of a particular class (in this case, a TreeSet).
-	// Collectors: Collect a Stream of entries into a final Collection (in this case, a TreeSet).
-	private static Supplier<TreeSet<Poll.Entry>> INCREASING_SUPPLIER = () -> new TreeSet<>(Entry.INCREASING);
-	private static Supplier<TreeSet<Entry>> DECREASING_SUPPLIER = () -> new TreeSet<>(Entry.DECREASING);
-
-	private static Collector<Entry, ?, TreeSet<Entry>> DECREASING_COLLECTOR
-		= Collectors.toCollection(Polls.DECREASING_SUPPLIER);
-	private static Collector<Entry, ?, TreeSet<Entry>> INCREASING_COLLECTOR
-		= Collectors.toCollection(Polls.INCREASING_SUPPLIER);
-	
-	
-	// Helper function.
-	// Returns a new ballot sans the options provided.
-	// http://stackoverflow.com/a/31873836
-	private static Ballot filterOut(Ballot ballot, Collection<User> options)
-	{
-		List<User> newVotes = new ArrayList<>();
-		for (User vote: ballot.getVotes())
-			if (!options.contains(vote)) newVotes.add(vote);
-		return new Ballot(ballot.getVoter(), newVotes);
-	}
-	private static List<Ballot> filterOut(List<Ballot> ballots, Collection<User> options)
-	{
-		List<Ballot> newBallots = new ArrayList<>();
-		for (Ballot ballot: ballots)
+	// Converts frequencies, indexed by candidate ID, into a decreasing ranking.
+	// Zero frequencies are left out, as the candidate received no votes.
+	private static Ranking ranking(IntFunction<User> candidates, int[] frequencies)
+	{
+		Ranking.Builder ranking = new Ranking.Builder(false);
+		for (int id = 0; id < frequencies.length; id++)
+			if (frequencies[id] > 0)
+				ranking.add(id, candidates.apply(id), frequencies[id]);
+		return ranking.build();
+	}
+
+	// Converts pairwise scores, indexed by candidate ID, into a decreasing ranking.
+	// Unlike ranking(), zero scores are kept: every candidate in the matrix was voted for by someone.
+	private static Ranking pairwiseRanking(BallotMatrix matrix, int[] scores)
+	{
+		Ranking.Builder ranking = new Ranking.Builder(false);
+		for (int id = 0; id < scores.length; id++)
+			ranking.add(id, matrix.candidates[id], scores[id]);
+		return ranking.build();
+	}
+
+	// Encodes ballots into a matrix as they arrive, and tallies the matrix on demand.
+	static Accumulator matrixAccumulator(Function<BallotMatrix, SortedSet<Entry>> tally)
+	{
+		BallotMatrix.Builder builder = new BallotMatrix.Builder();
+		return new Accumulator()
+		{
+			@Override public void accept(Ballot ballot){builder.add(ballot);}
+			@Override public SortedSet<Entry> result(){return tally.apply(builder.build());}
+		};
+	}
+
+	// Counts votes as ballots arrive: only the top vote for FPTPV, or every vote for AV.
+	private static final class Counter implements Accumulator
+	{
+		private final boolean topOnly;
+		private final BallotMatrix.Builder candidates = new BallotMatrix.Builder(); // only used to assign IDs
+		private int[] frequencies = new int[16];
+
+		private Counter(boolean topOnly){this.topOnly = topOnly;}
+
+		@Override
+		public void accept(Ballot ballot)
+		{
+			for (User vote: ballot.getVotes())
+			{
+				int id = this.candidates.idOf(vote);
+				if (id >= this.frequencies.length) this.frequencies = Arrays.copyOf(this.frequencies, 2 * id);
+				this.frequencies[id]++;
+				if (this.topOnly) break;
+			}
+		}
+
+		@Override
+		public SortedSet<Entry> result()
 		{
-			Ballot newBallot = Polls.filterOut(ballot, options);
-			if (!newBallot.getVotes().isEmpty())
-				newBallots.add(newBallot);
+			return Polls.ranking(this.candidates::getCandidate, this.frequencies).toSortedSet();
 		}
-		return newBallots;
 	}
 }
@@ -0,0 +1,278 @@
+package com.smogon.cap.voting;
+
+import java.util.AbstractSet;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+import java.util.SortedSet;
+import java.util.function.IntBinaryOperator;
+
+/**
+ * An immutable ranking of candidates, as produced by a {@link Poll}.
+ * <p>
+ * Unlike a {@code SortedSet<Poll.Entry>}, a {@code Ranking} is a handful of parallel arrays,
+ * sorted once when it is built:
+ * the candidates from best to worst, their candidate IDs, and their scores.
+ * Scores are exact: every score is a {@code long} numerator over a common denominator,
+ * which is 1 for polls that count votes.
+ * Candidates with the same score form a tie group; the groups are found once, when the ranking is built.
+ * <p>
+ * As with {@link Poll.Entry#INCREASING} and {@link Poll.Entry#DECREASING},
+ * a ranking either puts lower or higher scores first,
+ * and candidates with the same score are ordered by name.
+ * {@link #toSortedSet()} presents a ranking as the {@code SortedSet} a {@link Poll} returns.
+ */
+public final class Ranking
+{
+	private final User[] candidates; // position -> candidate, best first
+	private final int[] ids; // position -> candidate ID
+	private final long[] scores; // position -> numerator of the score
+	private final long denominator;
+	private final int[] groups; // tie group -> first position; has one extra trailing element
+	private final boolean increasing; // whether lower scores rank first
+
+	private Ranking(User[] candidates, int[] ids, long[] scores, long denominator, int[] groups, boolean increasing)
+	{
+		this.candidates = candidates;
+		this.ids = ids;
+		this.scores = scores;
+		this.denominator = denominator;
+		this.groups = groups;
+		this.increasing = increasing;
+	}
+
+	// Getters
+	/** @return The number of candidates ranked. */
+	public int size(){return this.ids.length;}
+	/**
+	 * @param position A place in the ranking, counting from 0 for the best.
+	 * @return The candidate in that place.
+	 */
+	public User getCandidate(int position){return this.candidates[position];}
+	/**
+	 * @param position A place in the ranking, counting from 0 for the best.
+	 * @return The ID of the candidate in that place, as given to the {@link Builder}
+	 * (for the {@link Polls}, its ID in the {@link BallotMatrix} tallied).
+	 */
+	public int getId(int position){return this.ids[position];}
+	/**
+	 * @param position A place in the ranking, counting from 0 for the best.
+	 * @return The numerator of the candidate's score.
+	 */
+	public long getNumerator(int position){return this.scores[position];}
+	/** @return The denominator shared by every score. */
+	public long getDenominator(){return this.denominator;}
+	/**
+	 * @param position A place in the ranking, counting from 0 for the best.
+	 * @return The candidate's score, rounded to a {@code double}.
+	 */
+	public double getScore(int position){return (double) this.scores[position] / this.denominator;}
+	/** @return Whether lower scores rank first. */
+	public boolean isIncreasing(){return this.increasing;}
+
+	/** @return The number of tie groups, i.e., distinct scores. */
+	public int groupCount(){return this.groups.length - 1;}
+	/**
+	 * @param group A tie group, counting from 0 for the best.
+	 * @return The first position in the group.
+	 */
+	public int groupStart(int group){return this.groups[group];}
+	/**
+	 * @param group A tie group, counting from 0 for the best.
+	 * @return The position after the last position in the group.
+	 */
+	public int groupEnd(int group){return this.groups[group + 1];}
+
+	/**
+	 * Presents the ranking as a {@code Poll} result.
+	 * The set is an unmodifiable view of the ranking; its entries are created as they are needed.
+	 * @return The ranking, as a sorted set of entries.
+	 */
+	public SortedSet<Poll.Entry> toSortedSet(){return new View(0, this.size());}
+
+	@Override public String toString(){return this.toSortedSet().toString();}
+
+	// The score of a position, as Poll.Entry numbers it.
+	private Number number(int position)
+	{
+		return this.denominator == 1 ? (Number) this.scores[position] : (Number) this.getScore(position);
+	}
+
+	private Poll.Entry entry(int position){return new Poll.Entry(this.candidates[position], this.number(position));}
+
+	// A range of the ranking, as a SortedSet.
+	private final class View extends AbstractSet<Poll.Entry> implements SortedSet<Poll.Entry>
+	{
+		private final int from; // inclusive
+		private final int to; // exclusive
+
+		private View(int from, int to)
+		{
+			this.from = from;
+			this.to = to;
+		}
+
+		@Override public int size(){return this.to - this.from;}
+
+		@Override
+		public Iterator<Poll.Entry> iterator()
+		{
+			return new Iterator<Poll.Entry>()
+			{
+				private int position = View.this.from;
+				@Override public boolean hasNext(){return this.position < View.this.to;}
+				@Override public Poll.Entry next()
+				{
+					if (!this.hasNext()) throw new NoSuchElementException();
+					return Ranking.this.entry(this.position++);
+				}
+			};
+		}
+
+		@Override
+		public boolean contains(Object o)
+		{
+			if (!(o instanceof Poll.Entry)) return false;
+			int position = this.lowerBound((Poll.Entry) o);
+			return position < this.to && Ranking.this.entry(position).equals(o);
+		}
+
+		@Override public Comparator<? super Poll.Entry> comparator(){return Ranking.this.increasing ? Poll.Entry.INCREASING : Poll.Entry.DECREASING;}
+
+		@Override
+		public SortedSet<Poll.Entry> subSet(Poll.Entry fromElement, Poll.Entry toElement)
+		{
+			if (this.comparator().compare(fromElement, toElement) > 0) throw new IllegalArgumentException("fromElement > toElement");
+			return new View(this.lowerBound(fromElement), Math.max(this.lowerBound(fromElement), this.lowerBound(toElement)));
+		}
+		@Override public SortedSet<Poll.Entry> headSet(Poll.Entry toElement){return new View(this.from, this.lowerBound(toElement));}
+		@Override public SortedSet<Poll.Entry> tailSet(Poll.Entry fromElement){return new View(this.lowerBound(fromElement), this.to);}
+
+		@Override
+		public Poll.Entry first()
+		{
+			if (this.from == this.to) throw new NoSuchElementException();
+			return Ranking.this.entry(this.from);
+		}
+		@Override
+		public Poll.Entry last()
+		{
+			if (this.from == this.to) throw new NoSuchElementException();
+			return Ranking.this.entry(this.to - 1);
+		}
+
+		// The first position in the view whose entry isn't ordered before an entry.
+		private int lowerBound(Poll.Entry entry)
+		{
+			Comparator<? super Poll.Entry> comparator = this.comparator();
+			int low = this.from;
+			int high = this.to;
+			while (low < high)
+			{
+				int middle = (low + high) >>> 1;
+				if (comparator.compare(Ranking.this.entry(middle), entry) < 0) low = middle + 1;
+				else high = middle;
+			}
+			return low;
+		}
+	}
+
+	/**
+	 * Collects candidates and their scores, in any order, and sorts them into a {@link Ranking}.
+	 */
+	public static final class Builder
+	{
+		private final boolean increasing;
+		private User[] candidates = new User[16];
+		private int[] ids = new int[16];
+		private long[] scores = new long[16];
+		private int size = 0;
+
+		/**
+		 * @param increasing Whether lower scores rank first, as in {@link Poll.Entry#INCREASING}.
+		 */
+		public Builder(boolean increasing){this.increasing = increasing;}
+
+		/**
+		 * Adds a candidate to the ranking. Each candidate should only be added once.
+		 * @param id The candidate's ID, for {@link Ranking#getId(int)}.
+		 * @param candidate The candidate.
+		 * @param score The numerator of the candidate's score.
+		 * @return This builder.
+		 */
+		public Builder add(int id, User candidate, long score)
+		{
+			if (this.size == this.ids.length)
+			{
+				this.candidates = Arrays.copyOf(this.candidates, 2 * this.size);
+				this.ids = Arrays.copyOf(this.ids, 2 * this.size);
+				this.scores = Arrays.copyOf(this.scores, 2 * this.size);
+			}
+			this.candidates[this.size] = candidate;
+			this.ids[this.size] = id;
+			this.scores[this.size] = score;
+			this.size++;
+			return this;
+		}
+
+		/** @return A ranking of every candidate added so far, with whole-number scores. */
+		public Ranking build(){return this.build(1);}
+
+		/**
+		 * @param denominator The denominator of every score. Must be positive.
+		 * @return A ranking of every candidate added so far.
+		 */
+		public Ranking build(long denominator)
+		{
+			if (denominator < 1) throw new IllegalArgumentException("A denominator must be positive, not " + denominator);
+
+			// Sort positions rather than entries, to keep to primitive arrays.
+			int[] order = new int[this.size];
+			for (int i = 0; i < order.length; i++) order[i] = i;
+			Ranking.sort(order, (a, b) ->
+			{
+				int byScore = Long.compare(this.scores[a], this.scores[b]);
+				if (byScore != 0) return this.increasing ? byScore : -byScore;
+				return String.CASE_INSENSITIVE_ORDER.compare(this.candidates[a].getName(), this.candidates[b].getName());
+			});
+
+			User[] candidates = new User[this.size];
+			int[] ids = new int[this.size];
+			long[] scores = new long[this.size];
+			int[] groups = new int[this.size + 1];
+			int groupCount = 0;
+			for (int position = 0; position < this.size; position++)
+			{
+				int i = order[position];
+				candidates[position] = this.candidates[i];
+				ids[position] = this.ids[i];
+				scores[position] = this.scores[i];
+				if (position == 0 || scores[position] != scores[position - 1]) groups[groupCount++] = position;
+			}
+			groups[groupCount] = this.size;
+			return new Ranking(candidates, ids, scores, denominator, Arrays.copyOf(groups, groupCount + 1), this.increasing);
+		}
+	}
+
+	// Helper function: A stable merge sort of ints by a comparator, which Arrays.sort() only offers for objects.
+	// Package-private so other primitive tallies can use it too.
+	static void sort(int[] values, IntBinaryOperator comparator)
+	{
+		int[] buffer = new int[values.length];
+		for (int width = 1; width < values.length; width *= 2)
+		{
+			for (int low = 0; low < values.length - width; low += 2 * width)
+			{
+				int middle = low + width;
+				int high = Math.min(low + 2 * width, values.length);
+				int left = low, right = middle, out = low;
+				while (left < middle && right < high)
+					buffer[out++] = comparator.applyAsInt(values[left], values[right]) <= 0 ? values[left++] : values[right++];
+				while (left < middle) buffer[out++] = values[left++];
+				while (right < high) buffer[out++] = values[right++];
+				System.arraycopy(buffer, low, values, low, high - low);
+			}
+		}
+	}
+}
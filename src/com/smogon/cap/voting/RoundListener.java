@@ -0,0 +1,45 @@
+package com.smogon.cap.voting;
+
+import java.util.List;
+
+/**
+ * Hears each round of an instant runoff as it is counted, to audit how a result came about.
+ * <p>
+ * Candidates are given by their IDs in the tallied {@link BallotMatrix}, as listed by {@link #begin(List)}.
+ * The arrays passed to a listener are the engine's own, and only hold their values during the call,
+ * so a listener must copy whatever it keeps.
+ * <p>
+ * Tallies are untraced unless a {@link RunoffPoll} is {@link RunoffPoll#trace(RoundListener) traced}.
+ * The engine only calls its listener when it isn't {@link #NONE}, so an untraced tally does none of the work of tracing.
+ */
+public interface RoundListener
+{
+	/** The listener of untraced tallies, which hears nothing. */
+	RoundListener NONE = new RoundListener(){};
+
+	/**
+	 * A tally starts.
+	 * @param candidates The candidates, by ID.
+	 */
+	default void begin(List<User> candidates){}
+
+	/**
+	 * A round is counted.
+	 * @param seat The seat being filled, starting from 1. Instant runoff only fills one.
+	 * @param round The round within the seat, starting from 1.
+	 * @param frequencies Each candidate's votes this round, by ID. Candidates out of the running have none.
+	 * @param exhausted The ballots of the seat with nobody left in the running.
+	 * The first seat counts every ballot, even blank ones, and later seats only the ballots left after the seats before.
+	 * @param eliminated The candidates eliminated at the end of the round, in the first {@code eliminatedCount} places.
+	 * @param eliminatedCount The number of candidates eliminated: 0 in the last round of a seat.
+	 */
+	default void round(int seat, int round, int[] frequencies, int exhausted, int[] eliminated, int eliminatedCount){}
+
+	/**
+	 * A seat is filled, after its last round.
+	 * @param seat The seat, starting from 1.
+	 * @param winners The candidates who won the seat, in the first {@code winnerCount} places.
+	 * @param winnerCount The number of winners, which is more than 1 if they tied.
+	 */
+	default void seated(int seat, int[] winners, int winnerCount){}
+}
@@ -0,0 +1,432 @@
+package com.smogon.cap.voting;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.function.Consumer;
+
+/**
+ * An instant runoff engine over a {@link BallotMatrix}, which can fill several seats in turn.
+ * <p>
+ * Each ballot keeps a cursor to its top remaining choice,
+ * and ballots are bucketed by that choice in singly linked lists threaded through arrays.
+ * Eliminating a candidate therefore only touches the ballots in the candidate's bucket,
+ * instead of recounting (and copying) every ballot each round.
+ * <p>
+ * The engine keeps two layers of buckets:
+ * <ul>
+ *     <li>The <em>base</em> layer only skips seated candidates.
+ *     It holds the first-choice counts a seat starts from.</li>
+ *     <li>The <em>round</em> layer holds the ballots moved by eliminations while filling a seat.
+ *     A ballot in the base bucket of an eliminated candidate can't have moved before,
+ *     so the round layer never needs a copy of the base layer.</li>
+ * </ul>
+ * Filling a seat then only moves the winners' base buckets,
+ * and starting the next seat only resets per-candidate arrays,
+ * rather than rebuilding every bucket from scratch.
+ * <p>
+ * Rows are weighted, as in {@link BallotMatrix#aggregate()}, and rows that become identical are merged again.
+ * Once a row is down to its last choice, it is identical to every other such row for that candidate,
+ * so it adds its weight to the first one filed and is dropped instead of filed.
+ * Merges in the base layer are for good, as seated candidates never come back,
+ * while merges in the round layer only last until the next seat.
+ * (Recognizing longer identical rests, or rows whose later choices are all out,
+ * would take a lookup or a scan per move, which costs more than the moves it saves.)
+ * <p>
+ * With {@link #excludeInBulk(Consumer)}, a round may also eliminate more than the last place,
+ * and a seat may be decided before the leader has a majority of the population,
+ * wherever doing so can't change who wins the seat.
+ * <p>
+ * With {@link #trace(RoundListener)}, every round and seat is reported as it is counted.
+ */
+final class Runoff
+{
+	private static final int NONE = -1; // end of a bucket
+
+	private final BallotMatrix matrix;
+
+	// Base layer
+	private final boolean[] seated; // candidate -> whether the candidate has won a seat
+	private final int[] baseCursors; // row -> index of the row's top choice that isn't seated
+	private final int[] baseNext; // row -> next row in the same base bucket
+	private final int[] baseHeads; // candidate -> first row in the candidate's base bucket
+	private final int[] baseFrequencies; // candidate -> weight of the rows in the candidate's base bucket
+	private final int[] baseFinals; // candidate -> the base row filed at its last choice, the candidate, or NONE
+	private int remaining = 0; // weight of the rows that still have a choice that isn't seated
+	private final int[] pending; // candidates seated since the base layer was last settled
+	private int pendingCount = 0;
+
+	// Round layer
+	private final boolean[] eliminated; // candidate -> whether the candidate is out of the running for this seat
+	private final int[] cursors; // row -> index of the row's top remaining choice, if the row has moved
+	private final int[] next; // row -> next row in the same round bucket
+	private final int[] heads; // candidate -> first row in the candidate's round bucket
+	private final int[] frequencies; // candidate -> weight of the rows in both of the candidate's buckets
+	private final int[] weights; // row -> weight of the row, plus any rows merged into it this seat; 0 once merged for good
+	private final int[] merged; // rows merged into by the round layer this seat, to be undone before the next
+	private final int[] mergedWeights; // the weight each of those rows gained
+	private int mergedCount = 0;
+	private final int[] finals; // candidate -> the round row filed at its last choice, the candidate, if filed this seat
+	private final int[] finalSeats; // candidate -> the seat finals[candidate] was filed in
+	private int seat = 0; // seats run so far, to tell stale finals apart
+	private final int[] losers; // candidates eliminated in the current round
+	private int rounds = 0; // elimination rounds run, for Metrics
+
+	// Bulk exclusion
+	private Consumer<String> audit = null; // where to log bulk exclusions and early stops; null unless enabled
+	private long[] order = null; // the candidates in the running, as frequency << 32 | ID
+	private int filled = 0; // seats run since the last reload, for the audit and the trace
+
+	// Tracing
+	private RoundListener listener = RoundListener.NONE;
+
+	/**
+	 * Buckets every ballot by its top choice.
+	 * @param matrix The ballots to run off.
+	 */
+	Runoff(BallotMatrix matrix)
+	{
+		this.matrix = matrix;
+		this.seated = new boolean[matrix.candidateCount()];
+		this.baseCursors = new int[matrix.size()];
+		this.baseNext = new int[matrix.size()];
+		this.baseHeads = new int[matrix.candidateCount()];
+		this.baseFrequencies = new int[matrix.candidateCount()];
+		this.baseFinals = new int[matrix.candidateCount()];
+		this.pending = new int[matrix.candidateCount()];
+		this.eliminated = new boolean[matrix.candidateCount()];
+		this.cursors = new int[matrix.size()];
+		this.next = new int[matrix.size()];
+		this.heads = new int[matrix.candidateCount()];
+		this.frequencies = new int[matrix.candidateCount()];
+		this.weights = new int[matrix.size()];
+		this.merged = new int[matrix.size()];
+		this.mergedWeights = new int[matrix.size()];
+		this.finals = new int[matrix.candidateCount()];
+		this.finalSeats = new int[matrix.candidateCount()];
+		this.losers = new int[matrix.candidateCount()];
+		this.reload(matrix.weights);
+	}
+
+	/**
+	 * Starts over with every seat empty and the rows reweighted, reusing this engine's arrays,
+	 * e.g. to tally many resamples of the same ballots.
+	 * @param weights The weight of each row of the matrix. Rows of weight 0 are left out.
+	 */
+	void reload(int[] weights)
+	{
+		System.arraycopy(weights, 0, this.weights, 0, this.weights.length);
+		Arrays.fill(this.seated, false);
+		Arrays.fill(this.baseHeads, Runoff.NONE);
+		Arrays.fill(this.baseFrequencies, 0);
+		Arrays.fill(this.baseFinals, Runoff.NONE);
+		this.remaining = 0;
+		this.pendingCount = 0;
+		this.mergedCount = 0;
+		this.filled = 0;
+		// The seat number keeps counting up, so finals from before are still stale.
+		for (int row = 0; row < this.matrix.size(); row++)
+			this.advanceBase(row, this.matrix.offsets[row]);
+	}
+
+	// Returns the index of the first choice at or after 'from' in a row that isn't excluded,
+	// or the end of the row if there is none.
+	private int top(int row, int from, boolean[] excluded)
+	{
+		int end = this.matrix.offsets[row + 1];
+		while (from < end && excluded[this.matrix.choices[from]]) from++;
+		return from;
+	}
+
+	// Files a row in the base bucket of its top choice at or after 'from' that isn't seated.
+	// Rows that run out of choices are exhausted, and simply aren't filed,
+	// and rows filed at their last choice are merged into the first such row filed for the candidate.
+	private void advanceBase(int row, int from)
+	{
+		int cursor = this.top(row, from, this.seated);
+		this.baseCursors[row] = cursor;
+		int end = this.matrix.offsets[row + 1];
+		if (cursor == end) return;
+
+		int weight = this.weights[row];
+		if (weight == 0) return; // merged, or not in a resample
+
+		int choice = this.matrix.choices[cursor];
+		this.baseFrequencies[choice] += weight;
+		this.remaining += weight;
+
+		// Nothing is filed under a candidate again once the candidate is seated, so finals never go stale.
+		if (cursor == end - 1)
+		{
+			int owner = this.baseFinals[choice];
+			if (owner != Runoff.NONE)
+			{
+				this.weights[owner] += weight;
+				this.weights[row] = 0;
+				return;
+			}
+			this.baseFinals[choice] = row;
+		}
+		this.baseNext[row] = this.baseHeads[choice];
+		this.baseHeads[choice] = row;
+	}
+
+	// Files a row in the round bucket of its top choice at or after 'from' that isn't eliminated,
+	// merging rows filed at their last choice as in advanceBase().
+	private void advance(int row, int from)
+	{
+		int cursor = this.top(row, from, this.eliminated);
+		this.cursors[row] = cursor;
+		int end = this.matrix.offsets[row + 1];
+		if (cursor == end) return;
+
+		int choice = this.matrix.choices[cursor];
+		this.frequencies[choice] += this.weights[row];
+
+		if (cursor == end - 1)
+		{
+			if (this.finalSeats[choice] == this.seat)
+			{
+				int owner = this.finals[choice];
+				this.weights[owner] += this.weights[row];
+				this.merged[this.mergedCount] = owner;
+				this.mergedWeights[this.mergedCount++] = this.weights[row];
+				return;
+			}
+			this.finalSeats[choice] = this.seat;
+			this.finals[choice] = row;
+		}
+		this.next[row] = this.heads[choice];
+		this.heads[choice] = row;
+	}
+
+	/**
+	 * Lets {@link #run(int)} take shortcuts that can't change who wins a seat:
+	 * <ul>
+	 *     <li><em>Bulk exclusion:</em> if the trailing candidates' votes put together are fewer than
+	 *     the next candidate's, none of them can ever catch up, so they are all eliminated in one round.</li>
+	 *     <li><em>Early termination:</em> once the leader has more votes than every other candidate still in the running
+	 *     put together, nobody can overtake the leader, so the seat is decided.</li>
+	 * </ul>
+	 * The winners are the same either way,
+	 * but the frequencies of the final round may be lower, as fewer ballots have moved by then.
+	 * @param audit Where to log each shortcut taken, as a line of text.
+	 */
+	void excludeInBulk(Consumer<String> audit)
+	{
+		this.audit = audit;
+		this.order = new long[this.matrix.candidateCount()];
+	}
+
+	/**
+	 * Reports each round and seat from now on to a listener, starting with the candidates.
+	 * @param listener The listener, or {@link RoundListener#NONE} to stop tracing.
+	 */
+	void trace(RoundListener listener)
+	{
+		this.listener = listener;
+		if (listener != RoundListener.NONE) listener.begin(Collections.unmodifiableList(Arrays.asList(this.matrix.candidates)));
+	}
+
+	/**
+	 * @return The number of ballots (i.e., the weight of the rows) that still have a candidate who isn't seated.
+	 */
+	int remaining()
+	{
+		this.settle();
+		return this.remaining;
+	}
+
+	/**
+	 * Runs elimination rounds for the next seat, until everyone left is tied,
+	 * or the leader has a majority of the population.
+	 * Each round eliminates every candidate tied for last place,
+	 * unless {@link #excludeInBulk(Consumer)} lets it take a shortcut.
+	 * <p>
+	 * Candidates without a first-choice vote are not in the running for a round,
+	 * so they are neither counted towards ties nor eliminated.
+	 * @param population The number of voters a majority is taken out of.
+	 * @return The highest first-choice frequency (in ballots) of the final round, or 0 if nobody has a vote.
+	 * The candidates with this frequency are the winners of the seat.
+	 */
+	int run(int population)
+	{
+		this.settle();
+
+		// Start the round layer from the base layer.
+		this.seat++;
+		System.arraycopy(this.seated, 0, this.eliminated, 0, this.seated.length);
+		System.arraycopy(this.baseFrequencies, 0, this.frequencies, 0, this.baseFrequencies.length);
+		Arrays.fill(this.heads, Runoff.NONE);
+
+		this.filled++;
+		final int majority = population / 2 + 1;
+		for (int round = 1; ; round++)
+		{
+			int firstValue = 0;
+			int lastValue = Integer.MAX_VALUE;
+			int running = 0; // candidates in the running
+			int votes = 0; // weight of the rows still filed
+			for (int frequency: this.frequencies)
+			{
+				if (frequency == 0) continue;
+				firstValue = Math.max(firstValue, frequency);
+				lastValue = Math.min(lastValue, frequency);
+				running++;
+				votes += frequency;
+			}
+			// Can't iterate on an empty round, if everyone is tied, or if we've reached the majority needed.
+			if (firstValue == 0 || firstValue == lastValue || firstValue >= majority) return this.decided(round, firstValue, population - votes);
+			if (this.audit != null && 2L * firstValue > votes)
+			{
+				this.audit.accept(this.stopped(round, firstValue, votes));
+				return this.decided(round, firstValue, population - votes);
+			}
+			this.rounds++;
+
+			// Eliminate everyone in last place (or further back) before moving any ballots,
+			// so that no ballot moves onto a candidate eliminated in the same round.
+			int loserCount = this.audit != null ? this.excludeTrailing(round, lastValue, running) : 0;
+			if (loserCount == 0)
+			{
+				for (int id = 0; id < this.frequencies.length; id++)
+				{
+					if (this.frequencies[id] != lastValue) continue;
+					this.eliminated[id] = true;
+					this.losers[loserCount++] = id;
+				}
+			}
+			if (this.listener != RoundListener.NONE)
+				this.listener.round(this.filled, round, this.frequencies, population - votes, this.losers, loserCount);
+
+			for (int i = 0; i < loserCount; i++)
+			{
+				int id = this.losers[i];
+				this.frequencies[id] = 0;
+
+				// Ballots that started the seat on this candidate.
+				for (int row = this.baseHeads[id]; row != Runoff.NONE; row = this.baseNext[row])
+					this.advance(row, this.baseCursors[row] + 1);
+
+				// Ballots that moved onto this candidate during the seat.
+				int row = this.heads[id];
+				this.heads[id] = Runoff.NONE;
+				while (row != Runoff.NONE)
+				{
+					int following = this.next[row]; // advance() overwrites next[row]
+					this.advance(row, this.cursors[row] + 1);
+					row = following;
+				}
+			}
+		}
+	}
+
+	// Reports the last round of a seat and its winners, if tracing, and returns the winners' frequency.
+	private int decided(int round, int firstValue, int exhausted)
+	{
+		if (this.listener == RoundListener.NONE || firstValue == 0) return firstValue;
+		this.listener.round(this.filled, round, this.frequencies, exhausted, this.losers, 0);
+		int winnerCount = 0;
+		for (int id = 0; id < this.frequencies.length; id++)
+			if (this.frequencies[id] == firstValue) this.losers[winnerCount++] = id; // losers is free between rounds
+		this.listener.seated(this.filled, this.losers, winnerCount);
+		return firstValue;
+	}
+
+	// Eliminates the largest group of trailing candidates whose votes put together are fewer than the next candidate's,
+	// if that is more than the candidates in last place, and returns how many; otherwise, returns 0.
+	// However ballots move among them, each of them stays behind the next candidate, whose votes can only grow,
+	// so eliminating them one place at a time would eliminate them all before anyone else.
+	private int excludeTrailing(int round, int lastValue, int running)
+	{
+		long[] order = this.order;
+		for (int id = 0, i = 0; id < this.frequencies.length; id++)
+			if (this.frequencies[id] != 0) order[i++] = (long) this.frequencies[id] << 32 | id;
+		Arrays.sort(order, 0, running);
+
+		int cut = 0, cutVotes = 0;
+		for (int i = 0, sum = 0; i < running - 1; i++)
+		{
+			sum += (int) (order[i] >>> 32);
+			if (sum >= (int) (order[i + 1] >>> 32)) continue;
+			cut = i + 1;
+			cutVotes = sum;
+		}
+		// A cut always falls between places, so only a cut past last place excludes more than usual.
+		if (cut == 0 || (int) (order[cut - 1] >>> 32) == lastValue) return 0;
+
+		StringBuilder names = new StringBuilder();
+		for (int i = 0; i < cut; i++)
+		{
+			int id = (int) order[i];
+			this.eliminated[id] = true;
+			this.losers[i] = id;
+			names.append(i == 0 ? "" : ", ").append(this.getCandidate(id).getName());
+		}
+		int next = (int) order[cut];
+		this.audit.accept("Seat " + this.filled + ", round " + round + ": excluded " + cut + " candidates at once, "
+			+ "as their " + cutVotes + " votes put together are fewer than " + this.getCandidate(next).getName()
+			+ "'s " + this.frequencies[next] + ": " + names);
+		return cut;
+	}
+
+	// Describes stopping a seat early, once the leader can't be overtaken.
+	private String stopped(int round, int firstValue, int votes)
+	{
+		int leader = 0;
+		while (this.frequencies[leader] != firstValue) leader++;
+		return "Seat " + this.filled + ", round " + round + ": stopped early, as " + this.getCandidate(leader).getName()
+			+ "'s " + firstValue + " votes are more than the other " + (votes - firstValue) + " still in the running put together";
+	}
+
+	/**
+	 * @param id A candidate ID.
+	 * @return The candidate's first-choice frequency at the end of the last {@link #run(int)}.
+	 */
+	int frequency(int id){return this.frequencies[id];}
+
+	/** @return The number of candidates in the matrix. */
+	int candidateCount(){return this.matrix.candidateCount();}
+	/**
+	 * @param id A candidate ID.
+	 * @return The candidate with the given ID.
+	 */
+	User getCandidate(int id){return this.matrix.candidates[id];}
+
+	/** @return The number of elimination rounds run so far, over every seat. */
+	int rounds(){return this.rounds;}
+
+	/**
+	 * Seats a candidate, so that the candidate's ballots move on to their next choices for the following seats.
+	 * @param id The candidate to seat.
+	 */
+	void seat(int id)
+	{
+		// Defer moving ballots until every winner of the seat is known,
+		// so that no ballot moves onto a candidate seated alongside this one.
+		this.seated[id] = true;
+		this.pending[this.pendingCount++] = id;
+	}
+
+	// Undoes the last seat's merges, and moves the base buckets of newly seated candidates.
+	private void settle()
+	{
+		for (int i = 0; i < this.mergedCount; i++) this.weights[this.merged[i]] -= this.mergedWeights[i];
+		this.mergedCount = 0;
+
+		for (int i = 0; i < this.pendingCount; i++)
+		{
+			int id = this.pending[i];
+			int row = this.baseHeads[id];
+			this.baseHeads[id] = Runoff.NONE;
+			this.remaining -= this.baseFrequencies[id];
+			this.baseFrequencies[id] = 0;
+			while (row != Runoff.NONE)
+			{
+				int following = this.baseNext[row]; // advanceBase() overwrites baseNext[row]
+				this.advanceBase(row, this.baseCursors[row] + 1);
+				row = following;
+			}
+		}
+		this.pendingCount = 0;
+	}
+}
@@ -0,0 +1,157 @@
+package com.smogon.cap.voting;
+
+import java.util.Collection;
+import java.util.SortedSet;
+import java.util.function.Consumer;
+
+/**
+ * An instant runoff {@link Poll} with options: {@link Polls#IRV} or {@link Polls#PBV},
+ * counted as they are but for the options set.
+ * <ul>
+ *     <li>Seats: {@link Polls#PBV} ranks every candidate, which takes one instant runoff per seat.
+ *     Most polls only need the first few places, so a {@code RunoffPoll} can stop
+ *     as soon as the requested number of seats are filled.
+ *     Candidates tied for the last seat are all seated, so a ranking may hold more entries than seats.</li>
+ *     <li>Bulk exclusion ({@link #excludeInBulk(Consumer)}): with many write-in candidates, most rounds
+ *     eliminate candidates with a vote or two each, one place at a time. Instead, a round may eliminate
+ *     every trailing candidate whose votes put together can't overtake the next candidate,
+ *     and a seat stops as soon as the leader has more votes than everyone else still in the running.
+ *     Neither shortcut can change who wins, and each one taken is logged, so that the result can be audited.
+ *     For instant runoff voting, the winners' votes are those of the final round,
+ *     which may come before every other candidate is eliminated, so they may be lower.</li>
+ *     <li>Tracing ({@link #trace(RoundListener)}): every round counted is reported to a {@link RoundListener},
+ *     such as a {@link TraceRecorder}, so that a disputed result can be checked round by round.</li>
+ * </ul>
+ * Options are set before the poll is first tallied with, and are handed to the {@link Runoff} of each tally.
+ * <p>
+ * Unlike the {@link Polls}, a {@code RunoffPoll} is parametrized, hence why it is a {@code class}.
+ */
+public final class RunoffPoll implements Poll
+{
+	private final Polls poll; // IRV or PBV
+	private final int seats; // Integer.MAX_VALUE for every seat
+	private Consumer<String> audit = null; // null unless excluding in bulk
+	private RoundListener listener = RoundListener.NONE;
+
+	private RunoffPoll(Polls poll, int seats)
+	{
+		this.poll = poll;
+		this.seats = seats;
+	}
+
+	/**
+	 * A preferential block voting poll that only fills the top few seats.
+	 * @param seats The number of seats to fill. Must be positive.
+	 */
+	public RunoffPoll(int seats)
+	{
+		this(Polls.PBV, seats);
+		if (seats < 1) throw new IllegalArgumentException("A poll needs at least one seat, not " + seats);
+	}
+
+	/**
+	 * @param poll {@link Polls#IRV}, {@link Polls#PBV}, or a {@code RunoffPoll}.
+	 * @return A new {@code RunoffPoll} that counts as the poll does, without options of its own,
+	 * to set options on.
+	 * @throws IllegalArgumentException If the poll isn't an instant runoff.
+	 */
+	public static RunoffPoll of(Poll poll)
+	{
+		if (poll == Polls.IRV || poll == Polls.PBV) return new RunoffPoll((Polls) poll, Integer.MAX_VALUE);
+		if (poll instanceof RunoffPoll) return new RunoffPoll(((RunoffPoll) poll).poll, ((RunoffPoll) poll).seats);
+		throw new IllegalArgumentException("Only instant runoff polls have runoff options, not " + poll);
+	}
+
+	/**
+	 * Eliminates trailing candidates in bulk, and stops each seat once its winner is certain.
+	 * @param audit Where to log each bulk exclusion and early stop, as a line of text.
+	 * @return This poll.
+	 */
+	public RunoffPoll excludeInBulk(Consumer<String> audit)
+	{
+		this.audit = audit;
+		return this;
+	}
+
+	/**
+	 * Reports every round of each tally to a listener.
+	 * @param listener Where to report each tally's rounds. Tallies are reported one after the other, never at once.
+	 * @return This poll.
+	 */
+	public RunoffPoll trace(RoundListener listener)
+	{
+		this.listener = listener;
+		return this;
+	}
+
+	// Getters
+	/** @return {@link Polls#IRV} or {@link Polls#PBV}, which this poll counts as. */
+	public Polls getPoll(){return this.poll;}
+	/** @return The number of seats to fill, or {@link Integer#MAX_VALUE} for every seat. */
+	public int getSeats(){return this.seats;}
+
+	/**
+	 * {@inheritDoc}
+	 * <p>
+	 * Each {@link Poll.Entry} holds what {@link #getPoll()}'s would:
+	 * the seat a candidate filled, starting from 1, or for instant runoff voting, the winners' votes.
+	 */
+	@Override
+	public SortedSet<Entry> tally(Collection<Ballot> ballots)
+	{
+		return this.tally(BallotMatrix.of(ballots));
+	}
+
+	/**
+	 * Tallies already-encoded ballots into a ranking.
+	 * @param matrix The ballots to process.
+	 * @return A sorted set of entries, as in {@link #tally(Collection)}.
+	 */
+	@Override
+	public SortedSet<Entry> tally(BallotMatrix matrix)
+	{
+		return this.rank(matrix).toSortedSet();
+	}
+
+	/**
+	 * Tallies already-encoded ballots into a {@link Ranking}, as in {@link Polls#rank(BallotMatrix)}.
+	 * @param matrix The ballots to process.
+	 * @return The ranking, whose candidate IDs are those of the matrix.
+	 */
+	public Ranking rank(BallotMatrix matrix)
+	{
+		if (this.listener == RoundListener.NONE) return this.count(matrix);
+		synchronized (this.listener) {return this.count(matrix);}
+	}
+
+	// The poll itself, which rank() keeps to one traced tally at a time.
+	private Ranking count(BallotMatrix matrix)
+	{
+		long start = Metrics.ENABLED ? System.nanoTime() : 0;
+		Runoff runoff = new Runoff(matrix.aggregate());
+		if (this.audit != null) runoff.excludeInBulk(this.audit);
+		runoff.trace(this.listener);
+		Ranking ranking = this.poll == Polls.IRV
+			? Polls.instantRunoff(runoff, matrix.ballotCount())
+			: Polls.blockVote(runoff, matrix.ballotCount(), this.seats);
+		if (Metrics.ENABLED)
+		{
+			Metrics.global().tally(this, matrix.ballotCount(), System.nanoTime() - start);
+			Metrics.global().rounds(this, runoff.rounds());
+		}
+		return ranking;
+	}
+
+	@Override
+	public Accumulator accumulator()
+	{
+		return Polls.matrixAccumulator(this::tally);
+	}
+
+	@Override
+	public String toString()
+	{
+		String name = this.seats == Integer.MAX_VALUE ? this.poll.toString() : this.poll + " (top " + this.seats + ")";
+		return this.audit == null ? name : name + " (bulk exclusion)";
+	}
+}
@@ -1,6 +1,7 @@
 package com.smogon.cap.voting;
 
 import java.net.URL;
+import java.util.Iterator;
 import java.util.List;
 
 
@@ -33,4 +34,18 @@ public abstract class Scraper
 	 * @return A list of all {@code Ballots} scraped from the URL.
 	 */
 	public abstract List<Ballot> makeBallots(URL link);
+
+	/**
+	 * Like {@link #makeBallots(URL)}, but yields {@link Ballot Ballots} as they are scraped,
+	 * so that a caller can start counting them before the whole {@code URL} is scraped.
+	 * <p>
+	 * By default, this method scrapes everything up front,
+	 * but subclasses that scrape piece by piece should override it.
+	 * @param link The link to scrape.
+	 * @return An iterator over all {@code Ballots} scraped from the URL.
+	 */
+	public Iterator<Ballot> iterateBallots(URL link)
+	{
+		return this.makeBallots(link).iterator();
+	}
 }
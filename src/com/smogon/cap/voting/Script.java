@@ -4,10 +4,22 @@ import org.jsoup.Jsoup;
 import org.jsoup.nodes.Element;
 import org.jsoup.safety.Whitelist;
 
+import java.io.IOException;
+import java.io.PrintStream;
+import java.net.InetAddress;
 import java.net.URL;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.time.LocalTime;
+import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.Comparator;
+import java.util.Iterator;
 import java.util.List;
 import java.util.SortedSet;
+import java.util.function.Consumer;
 import java.util.function.Function;
 import java.util.stream.Collectors;
 
@@ -20,28 +32,282 @@ public final class Script
 	
 	// Instance fields
 
-	private Scraper scraper = new XenForoScraper();
+	private ThreadScraper scraper = new XenForoScraper();
+	private boolean verify = false;
+	private int fetchThreads = 1; // pages to fetch at once
+	private int watchSeconds = 0; // 0 to tally once and exit
+	private Path save = null; // where to save a snapshot of the ballots, if anywhere
+	private int maxVotes = 0; // 0 for no limit
+	private List<User> slate = null; // the candidates, if known
+	private Path metrics = null; // where to write Metrics, if anywhere
+	private int samples = 0; // bootstrap samples to tally after the results; 0 for none
+	private long seed = 1; // for drawing bootstrap samples
+	private boolean bulk = false; // whether to exclude trailing runoff candidates in bulk
+	private Path traceFile = null; // where to write the trace of the runoff, if anywhere
+	private final TraceRecorder trace = new TraceRecorder();
+	private static final long CACHE_BYTES = 64L << 20; // 64 MiB of compressed pages
+	private static final int CACHED_RESULTS = 1024; // for -serve
 	
 	// TODO: Add more print statements.
-	private void run(URL source, Poll poll, boolean verify)
+	private void run(URL source, Poll poll) throws InterruptedException, IOException
 	{
+		if (this.watchSeconds > 0)
+		{
+			this.watch(source, poll);
+			return;
+		}
+
 		System.out.println("Running script on " + source + "...");
 		System.out.println();
+		Metrics.Span run = Metrics.ENABLED ? Metrics.start() : null;
 		
-		List<Ballot> ballots = this.scraper.makeBallots(source);
-		if (verify)
+		// Fetching all pages at once has to wait for the whole thread,
+		// but otherwise, count ballots while later pages are still downloading.
+		Iterator<Ballot> ballots = this.fetchThreads > 1
+			? this.scraper.makeBallots(source, this.fetchThreads).iterator()
+			: this.scraper.iterateBallots(source);
+		Poll.Accumulator accumulator = poll.accumulator();
+		Consumer<Ballot> consumer = accumulator;
+		// Validate ballots as they are counted, and report problems once scraping is done.
+		List<Validator.Violation> violations = new ArrayList<>();
+		if (this.verify)
 		{
-			System.out.println("Verifying ballots...");
-			Ballot.validate(ballots);
-			System.out.println("End of verification.");
+			Consumer<Ballot> validator = this.validator(violations::add);
+			if (Metrics.ENABLED) validator = Metrics.timed("validate", validator);
+			consumer = validator.andThen(accumulator);
+		}
+		// Keep the ballots encoded for resampling, if asked to.
+		BallotMatrix.Builder matrix = new BallotMatrix.Builder();
+		if (this.samples > 0) consumer = consumer.andThen(matrix::add);
+		int voters = 0;
+		Metrics.Span scrape = Metrics.ENABLED ? Metrics.start() : null;
+		try (Snapshot.Writer writer = this.save == null ? null : new Snapshot.Writer(this.save))
+		{
+			if (writer != null) consumer = consumer.andThen(writer);
+			while (ballots.hasNext())
+			{
+				consumer.accept(ballots.next());
+				voters++;
+			}
+		}
+		if (Metrics.ENABLED) Metrics.global().phase("scrape", scrape);
+		if (this.verify) Script.report(violations);
+		if (this.save != null)
+		{
+			System.out.println("Saved ballots to " + this.save + ".");
 			System.out.println();
 		}
-		SortedSet<Poll.Entry> results = poll.tally(ballots);
+		Metrics.Span tally = Metrics.ENABLED ? Metrics.start() : null;
+		SortedSet<Poll.Entry> results = accumulator.result();
+		if (Metrics.ENABLED) Metrics.global().phase("tally", tally);
+		Script.report(poll, results, voters);
+		this.writeTrace();
+		if (this.samples > 0) this.bootstrap(poll, matrix.build());
+		if (Metrics.ENABLED) Metrics.global().phase("run", run);
+		this.writeMetrics();
+	}
+
+	// Tallies a snapshot saved by an earlier run, straight from the encoded ballots.
+	private void replay(Path snapshot, Poll poll) throws IOException
+	{
+		System.out.println("Running script on " + snapshot + "...");
+		System.out.println();
+
+		Metrics.Span run = Metrics.ENABLED ? Metrics.start() : null;
+		BallotMatrix matrix = Snapshot.read(snapshot);
+		if (Metrics.ENABLED) Metrics.global().phase("read", run);
+		if (this.verify)
+		{
+			Metrics.Span validate = Metrics.ENABLED ? Metrics.start() : null;
+			List<Validator.Violation> violations = new ArrayList<>();
+			this.validator(violations::add).accept(matrix);
+			if (Metrics.ENABLED) Metrics.global().phase("validate", validate);
+			Script.report(violations);
+		}
+		Metrics.Span tally = Metrics.ENABLED ? Metrics.start() : null;
+		SortedSet<Poll.Entry> results = poll.tally(matrix);
+		if (Metrics.ENABLED) Metrics.global().phase("tally", tally);
+		Script.report(poll, results, matrix.size());
+		this.writeTrace();
+		if (this.samples > 0) this.bootstrap(poll, matrix);
+		if (Metrics.ENABLED) Metrics.global().phase("run", run);
+		this.writeMetrics();
+	}
+
+	// Keeps a running tally of a thread while its poll is open, until the script is stopped.
+	// Only new posts are scraped and counted on each poll of the thread.
+	private void watch(URL source, Poll poll) throws InterruptedException, IOException
+	{
+		System.out.println("Watching " + source + " every " + this.watchSeconds + " seconds...");
+		System.out.println();
+
+		ThreadScraper.Watch watch = this.scraper.watch(source);
+		Poll.Accumulator accumulator = poll.accumulator();
+		Consumer<Ballot> consumer = this.verify ? this.validator(System.out::println).andThen(accumulator) : accumulator;
+		int voters = 0;
+		for (boolean first = true; ; first = false)
+		{
+			List<Ballot> ballots = watch.poll();
+			if (first || !ballots.isEmpty())
+			{
+				ballots.forEach(consumer);
+				voters += ballots.size();
+				System.out.println("As of " + LocalTime.now().withNano(0) + ":");
+				Script.report(poll, accumulator.result(), voters);
+				System.out.println();
+				this.writeTrace();
+				this.writeMetrics();
+			}
+			Thread.sleep(this.watchSeconds * 1000L);
+		}
+	}
+
+	// Resamples the ballots to show how stable the results are.
+	private void bootstrap(Poll poll, BallotMatrix matrix)
+	{
+		System.out.println();
+		System.out.println("Resampling the ballots " + this.samples + " times (seed " + this.seed + ")...");
+		Metrics.Span span = Metrics.ENABLED ? Metrics.start() : null;
+		Bootstrap.Result result = new Bootstrap(poll, matrix).run(this.samples, this.seed);
+		if (Metrics.ENABLED) Metrics.global().phase("bootstrap", span);
 
+		// Likeliest winners first.
+		Integer[] order = new Integer[result.candidateCount()];
+		for (int id = 0; id < order.length; id++) order[id] = id;
+		Arrays.sort(order, Comparator.comparingDouble((Integer id) -> -result.getWinProbability(id))
+			.thenComparing(id -> result.getCandidate(id).getName(), String.CASE_INSENSITIVE_ORDER));
+		for (int id: order)
+		{
+			StringBuilder line = new StringBuilder(result.getCandidate(id).getName())
+				.append(": wins ").append(Script.percent(result.getWinProbability(id)));
+			if (result.getTieProbability(id) > 0) line.append(" (tied ").append(Script.percent(result.getTieProbability(id))).append(')');
+			line.append("; places");
+			for (int place = 1; place <= result.candidateCount(); place++)
+				if (result.getPlaceProbability(id, place) > 0)
+					line.append(' ').append(place).append(": ").append(Script.percent(result.getPlaceProbability(id, place)));
+			if (result.getUnplacedProbability(id) > 0) line.append(" unplaced: ").append(Script.percent(result.getUnplacedProbability(id)));
+			System.out.println(line);
+		}
+	}
+
+	// Rounds a share to a tenth of a percent, without rounding rare outcomes to 0% or 100%.
+	private static String percent(double share)
+	{
+		if (share > 0 && share < 0.0005) return "<0.1%";
+		if (share < 1 && share > 0.9995) return ">99.9%";
+		return String.format("%.1f%%", 100 * share);
+	}
+
+	// Writes a JSON summary of the Metrics recorded so far, if asked to.
+	private void writeMetrics() throws IOException
+	{
+		if (this.metrics == null) return;
+		Files.write(this.metrics, Metrics.global().toJson().getBytes(StandardCharsets.UTF_8));
+		System.out.println("Wrote metrics to " + this.metrics + ".");
+	}
+
+	// Writes the trace of the latest tally as JSON, if asked to.
+	private void writeTrace() throws IOException
+	{
+		if (this.traceFile == null) return;
+		Files.write(this.traceFile, this.trace.toJson().getBytes(StandardCharsets.UTF_8));
+		System.out.println("Wrote the trace of every round to " + this.traceFile + ".");
+	}
+
+	private Validator validator(Consumer<Validator.Violation> sink)
+	{
+		Validator validator = new Validator(sink);
+		if (this.maxVotes > 0) validator.withMaxVotes(this.maxVotes);
+		if (this.slate != null) validator.withCandidates(this.slate);
+		return validator;
+	}
+
+	private static void report(List<Validator.Violation> violations)
+	{
+		System.out.println("Verifying ballots...");
+		violations.forEach(System.out::println);
+		if (!violations.isEmpty()) System.out.println(violations.size() + " problems found.");
+		System.out.println("End of verification.");
+		System.out.println();
+	}
+
+	private static void report(Poll poll, SortedSet<Poll.Entry> results, int voters)
+	{
 		System.out.println(poll.toString() + " results:");
 		results.forEach(System.out::println);
 		System.out.println();
-		System.out.println("Total voters: " + ballots.size());
+		System.out.println("Total voters: " + voters);
+	}
+	
+	// Scrapes each thread of a manifest once, and tallies it with every poll listed for it.
+	private static void batch(String... args) throws IOException
+	{
+		ThreadScraper scraper = new XenForoScraper();
+		int fetchThreads = 1;
+		Path report = null;
+		for (int i = 2; i < args.length; i++)
+		{
+			switch (args[i])
+			{
+				case "-c":
+					fetchThreads = Integer.parseInt(args[++i]);
+					break;
+				case "-cache":
+					scraper.setPageCache(new PageCache(Paths.get(args[++i]), Script.CACHE_BYTES));
+					break;
+				case "-o":
+					report = Paths.get(args[++i]);
+					break;
+				default:
+					throw new IllegalArgumentException("Unknown flag for a batch: " + args[i]);
+			}
+		}
+
+		List<Batch.Task> tasks = Batch.read(Paths.get(args[1]));
+		System.out.println("Running script on " + tasks.size() + " threads from " + args[1] + "...");
+		System.out.println();
+		Batch batch = new Batch(scraper, fetchThreads, Runtime.getRuntime().availableProcessors());
+		if (report == null)
+		{
+			batch.run(tasks, System.out);
+			return;
+		}
+		try (PrintStream out = new PrintStream(Files.newOutputStream(report), false, "UTF-8"))
+		{
+			batch.run(tasks, out);
+		}
+		System.out.println("Wrote results to " + report + ".");
+	}
+	
+	// Serves tallies over HTTP until the script is stopped.
+	private static void serve(String... args) throws IOException, InterruptedException
+	{
+		ThreadScraper scraper = new XenForoScraper();
+		int fetchThreads = 1;
+		InetAddress address = InetAddress.getLoopbackAddress();
+		for (int i = 2; i < args.length; i++)
+		{
+			switch (args[i])
+			{
+				case "-bind":
+					address = InetAddress.getByName(args[++i]);
+					break;
+				case "-c":
+					fetchThreads = Integer.parseInt(args[++i]);
+					break;
+				case "-cache":
+					scraper.setPageCache(new PageCache(Paths.get(args[++i]), Script.CACHE_BYTES));
+					break;
+				default:
+					throw new IllegalArgumentException("Unknown flag for a server: " + args[i]);
+			}
+		}
+
+		try (TallyServer server = new TallyServer(address, Integer.parseInt(args[1]), scraper, fetchThreads, Script.CACHED_RESULTS))
+		{
+			System.out.println("Serving tallies on " + address.getHostAddress() + ", port " + server.getPort() + "...");
+			Thread.currentThread().join(); // until the script is stopped
+		}
 	}
 	
 	public static void main(String... args)
@@ -49,22 +315,152 @@ public final class Script
 		// http://stackoverflow.com/a/36787811
 		if (args.length < 2)
 		{
-			System.out.println("Usage: <poll URL> <poll type> [-v]");
+			System.out.println("Usage: <poll URL> <poll type> [-v] [-s <seats>] [-c <threads>] [-cache <directory>] [-w <seconds>] [-save <file>] [-max <votes>] [-slate <file>] [-metrics <file>] [-bootstrap <samples>] [-seed <seed>] [-bulk] [-trace <file>] [-stream] [-forum <profile>]");
+			System.out.println("   or: -batch <manifest> [-c <threads>] [-cache <directory>] [-o <file>]");
+			System.out.println("   or: -serve <port> [-c <threads>] [-cache <directory>] [-bind <address>]");
+			System.out.println("<poll URL> can also be a directory or .zip archive of saved pages of the thread, or a snapshot saved with [-save].");
 			System.out.println("<poll type> can be one of: ");
 			for (Polls poll: Polls.values()) // Polls is the enum, Poll is the interface.
 				System.out.println(poll.name());
 			System.out.println("Add the [-v] flag to validate ballots before determining results.");
+			System.out.println("Add the [-s <seats>] flag to " + Polls.PBV + " to stop once the top <seats> seats are filled.");
+			System.out.println("Add the [-c <threads>] flag to fetch up to <threads> pages of the thread at once.");
+			System.out.println("Add the [-cache <directory>] flag to keep pages in <directory>, and only download pages that changed since.");
+			System.out.println("Add the [-w <seconds>] flag to keep watching the thread, and update the results every <seconds> seconds.");
+			System.out.println("Add the [-save <file>] flag to save a snapshot of the ballots to <file>, to tally again later without scraping.");
+			System.out.println("Add the [-max <votes>] flag to also validate that no ballot has more than <votes> votes.");
+			System.out.println("Add the [-slate <file>] flag to also validate that every vote is for a candidate listed in <file>, one per line.");
+			System.out.println("Add the [-metrics <file>] flag to time each part of the run, and write a summary to <file> as JSON.");
+			System.out.println("Add the [-bootstrap <samples>] flag to tally <samples> resamples of the ballots, and show how often each candidate wins.");
+			System.out.println("Add the [-seed <seed>] flag to draw the resamples from <seed>, instead of 1.");
+			System.out.println("Add the [-bulk] flag to " + Polls.IRV + " or " + Polls.PBV + " to eliminate hopeless candidates several at a time, and stop once the winner is certain, logging each step.");
+			System.out.println("Add the [-trace <file>] flag to " + Polls.IRV + " or " + Polls.PBV + " to write every round's counts, eliminations and seats to <file> as JSON.");
+			System.out.println("Add the [-stream] flag to only parse the posts and page navigation of each page, to save memory on heavy pages.");
+			System.out.println("Add the [-forum <profile>] flag to scrape a forum skin described by the <profile> .properties file (see ForumProfile).");
+			System.out.println("With -batch, each line of <manifest> is a <poll URL> followed by the <poll type>s to tally it with (" + Polls.PBV + ":<seats> for [-s <seats>]).");
+			System.out.println("Each thread is scraped once, and the results are written to [-o <file>], or else shown.");
+			System.out.println("With -serve, GET /tally?poll=<poll type>&thread=<poll URL>, or POST a snapshot to /tally?poll=<poll type>, for the results as JSON.");
+			System.out.println("The server only answers this machine, unless given an [-bind <address>] to listen on, such as 0.0.0.0 for every interface.");
 			return;
 		}
 		
 		// else, generate the poll
 		try
 		{
-			URL source = new URL(args[0]);
-			Poll poll = Polls.valueOf(args[1]);
-			boolean verify = (args.length >= 3 && args[2].equals("-v"));
+			if (args[0].equals("-batch"))
+			{
+				Script.batch(args);
+				return;
+			}
+			if (args[0].equals("-serve"))
+			{
+				Script.serve(args);
+				return;
+			}
+			Polls method = Polls.valueOf(args[1]);
+			Poll poll = method;
+			Script script = new Script();
+			// Pick the scraper before any flag configures it.
+			List<String> flags = Arrays.asList(args);
+			ForumProfile profile = flags.contains("-forum")
+				? ForumProfile.load(Paths.get(flags.get(flags.indexOf("-forum") + 1)))
+				: ForumProfile.XENFORO;
+			script.scraper = flags.contains("-stream") ? new StreamingXenForoScraper(profile) : new XenForoScraper(profile);
+			URL source;
+			Path saved = Paths.get(args[0]);
+			Path snapshot = null;
+			if (!args[0].contains("://") && Files.isRegularFile(saved) && Snapshot.isSnapshot(saved))
+			{
+				source = saved.toUri().toURL();
+				snapshot = saved;
+			}
+			else if (!args[0].contains("://") && Files.exists(saved)) // a thread saved to disk
+			{
+				source = saved.toUri().toURL();
+				script.scraper = new ArchiveScraper(script.scraper);
+			}
+			else source = new URL(args[0]);
+			for (int i = 2; i < args.length; i++)
+			{
+				switch (args[i])
+				{
+					case "-v":
+						script.verify = true;
+						break;
+					case "-s":
+						if (method != Polls.PBV) throw new IllegalArgumentException("Only " + Polls.PBV + " takes a number of seats.");
+						poll = new RunoffPoll(Integer.parseInt(args[++i]));
+						break;
+					case "-c":
+						script.fetchThreads = Integer.parseInt(args[++i]);
+						break;
+					case "-w":
+						script.watchSeconds = Integer.parseInt(args[++i]);
+						break;
+					case "-max":
+						script.verify = true;
+						script.maxVotes = Integer.parseInt(args[++i]);
+						break;
+					case "-slate":
+						script.verify = true;
+						script.slate = Files.readAllLines(Paths.get(args[++i]), StandardCharsets.UTF_8).stream()
+							.map(String::trim)
+							.filter(name -> !name.isEmpty())
+							.map(User::of)
+							.collect(Collectors.toList());
+						break;
+					case "-metrics":
+						// Metrics reads the property when it is first used, which is after the flags are parsed.
+						// (Metrics.PROPERTY is a constant, so reading it here doesn't count as a use.)
+						System.setProperty(Metrics.PROPERTY, "true");
+						script.metrics = Paths.get(args[++i]);
+						break;
+					case "-bootstrap":
+						script.samples = Integer.parseInt(args[++i]);
+						break;
+					case "-seed":
+						script.seed = Long.parseLong(args[++i]);
+						break;
+					case "-bulk":
+						if (method != Polls.IRV && method != Polls.PBV)
+							throw new IllegalArgumentException("Only " + Polls.IRV + " and " + Polls.PBV + " can exclude in bulk.");
+						script.bulk = true;
+						break;
+					case "-trace":
+						if (method != Polls.IRV && method != Polls.PBV)
+							throw new IllegalArgumentException("Only " + Polls.IRV + " and " + Polls.PBV + " can be traced.");
+						script.traceFile = Paths.get(args[++i]);
+						break;
+					case "-save":
+						script.save = Paths.get(args[++i]);
+						break;
+					case "-stream":
+						break; // already picked
+					case "-forum":
+						i++; // already picked
+						break;
+					case "-cache":
+						script.scraper.setPageCache(new PageCache(Paths.get(args[++i]), Script.CACHE_BYTES));
+						break;
+					default:
+						throw new IllegalArgumentException("Unknown flag: " + args[i]);
+				}
+			}
 
-			new Script().run(source, poll, verify);
+			if (script.save != null && (snapshot != null || script.watchSeconds > 0))
+				throw new IllegalArgumentException("Only a single scrape of a thread can be saved.");
+			if (script.samples > 0 && script.watchSeconds > 0)
+				throw new IllegalArgumentException("Only a single scrape of a thread can be resampled.");
+			// Set runoff options last, as -s may come after -bulk or -trace.
+			if (script.bulk || script.traceFile != null)
+			{
+				RunoffPoll runoff = RunoffPoll.of(poll);
+				if (script.bulk) runoff.excludeInBulk(System.out::println);
+				if (script.traceFile != null) runoff.trace(script.trace);
+				poll = runoff;
+			}
+			if (snapshot != null) script.replay(snapshot, poll);
+			else script.run(source, poll);
 		}
 		catch (Error | Exception e)
 		{
@@ -0,0 +1,308 @@
+package com.smogon.cap.voting;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.List;
+import java.util.function.Consumer;
+
+/**
+ * A compact binary file of ballots, so that a thread can be tallied again without scraping it again.
+ * <p>
+ * A snapshot is laid out as:
+ * <ol>
+ *     <li>A header: the magic number {@code V4CS}, the format version, and the offset of the dictionaries;</li>
+ *     <li>The rows: for each ballot, the voter's ID, the number of votes, then the ID of each candidate voted for;</li>
+ *     <li>The dictionaries: the number of rows and of votes, then the names of the candidates and of the voters, in ID order.</li>
+ * </ol>
+ * Every number after the header is an unsigned varint (7 bits per byte, low bits first),
+ * and every name is a varint byte count followed by the name in UTF-8.
+ * The dictionaries come after the rows so that a {@link Writer} can stream ballots to disk
+ * without knowing every name in advance; it fills in the header once they are written.
+ * <p>
+ * {@link #read(Path)} memory-maps the file and decodes the rows straight into a {@link BallotMatrix},
+ * without creating a {@link Ballot} per row.
+ */
+public final class Snapshot
+{
+	private static final int MAGIC = 0x56344353; // "V4CS"
+	private static final int VERSION = 1;
+	private static final int HEADER_BYTES = 4 + 4 + 8; // magic, version, dictionary offset
+
+	private Snapshot(){}
+
+	/**
+	 * Writes ballots to a snapshot, one at a time, as they are scraped.
+	 * The snapshot is only complete once the writer is closed.
+	 */
+	public static final class Writer implements Consumer<Ballot>, Closeable
+	{
+		private final FileChannel channel;
+		private final ByteBuffer buffer = ByteBuffer.allocate(1 << 16);
+		// Each candidate and voter is represented by the first User seen for it, as in BallotMatrix.
+		private final Ids candidates = new Ids();
+		private final Ids voters = new Ids();
+		private int rows = 0;
+		private int votes = 0;
+
+		/**
+		 * @param file The file to write to. Replaced if it exists.
+		 * @throws IOException If the file can't be opened.
+		 */
+		public Writer(Path file) throws IOException
+		{
+			this.channel = FileChannel.open(file, StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.WRITE);
+			this.channel.position(Snapshot.HEADER_BYTES);
+		}
+
+		/**
+		 * Appends a ballot to the snapshot.
+		 * @param ballot The ballot to write.
+		 */
+		@Override
+		public void accept(Ballot ballot)
+		{
+			List<User> votes = ballot.getVotes();
+			try
+			{
+				this.putVarint(this.voters.idOf(ballot.getVoter()));
+				this.putVarint(votes.size());
+				for (User vote: votes) this.putVarint(this.candidates.idOf(vote));
+			}
+			catch (IOException e){throw new AssertionError(e);}
+			this.rows++;
+			this.votes += votes.size();
+		}
+
+		/**
+		 * Writes the dictionaries and the header, completing the snapshot.
+		 * @throws IOException If the snapshot can't be written.
+		 */
+		@Override
+		public void close() throws IOException
+		{
+			try
+			{
+				this.flush();
+				long dictionaries = this.channel.position();
+				this.putVarint(this.rows);
+				this.putVarint(this.votes);
+				this.putNames(this.candidates);
+				this.putNames(this.voters);
+				this.flush();
+
+				ByteBuffer header = ByteBuffer.allocate(Snapshot.HEADER_BYTES)
+					.putInt(Snapshot.MAGIC).putInt(Snapshot.VERSION).putLong(dictionaries);
+				header.flip();
+				while (header.hasRemaining()) this.channel.write(header, header.position());
+			}
+			finally
+			{
+				this.channel.close();
+			}
+		}
+
+		// IDs in the snapshot, keyed by User.getId() as BallotMatrix.Builder keys candidates.
+		private static final class Ids
+		{
+			private int[] ids = new int[64]; // by User.getId(): 1 + the ID in the snapshot, or 0 if not seen
+			private final List<User> users = new ArrayList<>(); // in ID order, keeping their User IDs in use
+
+			int idOf(User user)
+			{
+				int userId = user.getId();
+				if (userId >= this.ids.length) this.ids = Arrays.copyOf(this.ids, Math.max(userId + 1, 2 * this.ids.length));
+				int id = this.ids[userId] - 1;
+				if (id < 0)
+				{
+					id = this.users.size();
+					this.ids[userId] = id + 1;
+					this.users.add(user);
+				}
+				return id;
+			}
+		}
+
+		private void putVarint(int value) throws IOException
+		{
+			if (this.buffer.remaining() < 5) this.flush();
+			while ((value & ~0x7F) != 0)
+			{
+				this.buffer.put((byte) ((value & 0x7F) | 0x80));
+				value >>>= 7;
+			}
+			this.buffer.put((byte) value);
+		}
+
+		private void putNames(Ids names) throws IOException
+		{
+			this.putVarint(names.users.size());
+			for (User user: names.users)
+			{
+				byte[] name = user.getName().getBytes(StandardCharsets.UTF_8);
+				this.putVarint(name.length);
+				if (name.length > this.buffer.remaining()) this.flush();
+				if (name.length > this.buffer.remaining()) this.write(ByteBuffer.wrap(name)); // longer than the buffer
+				else this.buffer.put(name);
+			}
+		}
+
+		private void flush() throws IOException
+		{
+			this.buffer.flip();
+			this.write(this.buffer);
+			this.buffer.clear();
+		}
+
+		private void write(ByteBuffer bytes) throws IOException
+		{
+			while (bytes.hasRemaining()) this.channel.write(bytes);
+		}
+	}
+
+	/**
+	 * Writes ballots to a snapshot all at once.
+	 * @param file The file to write to. Replaced if it exists.
+	 * @param ballots The ballots to write.
+	 * @throws IOException If the snapshot can't be written.
+	 */
+	public static void write(Path file, Collection<Ballot> ballots) throws IOException
+	{
+		try (Writer writer = new Writer(file)) {ballots.forEach(writer);}
+	}
+
+	/**
+	 * Reads a snapshot into a {@link BallotMatrix}, in the order its ballots were written.
+	 * @param file The snapshot to read.
+	 * @return The ballots in the snapshot.
+	 * @throws IOException If the file can't be read, or isn't a snapshot.
+	 */
+	public static BallotMatrix read(Path file) throws IOException
+	{
+		MappedByteBuffer buffer;
+		try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ))
+		{
+			if (channel.size() > Integer.MAX_VALUE) throw new IOException(file + " is too large to map.");
+			buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size()); // stays mapped after closing
+		}
+		return Snapshot.read(buffer, file.toString());
+	}
+
+	/**
+	 * Reads a snapshot that is already in memory, e.g. one uploaded to a {@link TallyServer}.
+	 * @param snapshot The bytes of the snapshot.
+	 * @return The ballots in the snapshot.
+	 * @throws IOException If the bytes aren't a snapshot.
+	 */
+	public static BallotMatrix read(byte[] snapshot) throws IOException
+	{
+		return Snapshot.read(ByteBuffer.wrap(snapshot), "Snapshot");
+	}
+
+	// Decodes a whole snapshot. The name is only for error messages.
+	private static BallotMatrix read(ByteBuffer buffer, String file) throws IOException
+	{
+		try
+		{
+			if (buffer.getInt() != Snapshot.MAGIC) throw new IOException(file + " isn't a ballot snapshot.");
+			int version = buffer.getInt();
+			if (version != Snapshot.VERSION) throw new IOException(file + " is a version " + version + " snapshot, not version " + Snapshot.VERSION + ".");
+			long dictionaries = buffer.getLong();
+			if (dictionaries < Snapshot.HEADER_BYTES || dictionaries > buffer.limit())
+				throw new IOException(file + " is corrupt: its dictionaries are out of bounds.");
+
+			// Read the dictionaries first, so that the arrays can be allocated up front.
+			// Every count is checked against the bytes it must fit in before anything is allocated for it,
+			// so that a corrupt (or hostile) snapshot can't ask for more memory than its own size.
+			// Each row takes at least 2 bytes (its voter and its length), and each choice and name at least 1.
+			int rowBytes = (int) dictionaries - Snapshot.HEADER_BYTES;
+			buffer.position((int) dictionaries);
+			int size = Snapshot.getCount(buffer, rowBytes / 2, file, "rows");
+			int[] choices = new int[Snapshot.getCount(buffer, rowBytes, file, "choices")];
+			User[] candidates = Snapshot.getNames(buffer, file);
+			User[] voterNames = Snapshot.getNames(buffer, file);
+
+			User[] voters = new User[size];
+			int[] offsets = new int[size + 1];
+			buffer.position(Snapshot.HEADER_BYTES);
+			for (int row = 0, i = 0; row < size; row++)
+			{
+				voters[row] = voterNames[Snapshot.getVarint(buffer)];
+				for (int end = i + Snapshot.getVarint(buffer); i < end;)
+				{
+					int id = Snapshot.getVarint(buffer);
+					if (id < 0 || id >= candidates.length) throw new IOException(file + " is corrupt: no candidate " + id + ".");
+					choices[i++] = id;
+				}
+				offsets[row + 1] = i;
+			}
+			if (buffer.position() != dictionaries) throw new IOException(file + " is corrupt: rows don't end at the dictionaries.");
+			return new BallotMatrix(candidates, voters, choices, offsets);
+		}
+		catch (BufferUnderflowException | IllegalArgumentException | IndexOutOfBoundsException | NegativeArraySizeException e)
+		{
+			throw new IOException(file + " is corrupt.", e);
+		}
+	}
+
+	/**
+	 * Checks whether a file is a snapshot, without reading the whole file.
+	 * @param file The file to check.
+	 * @return Whether the file starts like a snapshot.
+	 * @throws IOException If the file can't be read.
+	 */
+	public static boolean isSnapshot(Path file) throws IOException
+	{
+		try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ))
+		{
+			ByteBuffer magic = ByteBuffer.allocate(4);
+			while (magic.hasRemaining() && channel.read(magic) != -1);
+			return !magic.hasRemaining() && magic.getInt(0) == Snapshot.MAGIC;
+		}
+	}
+
+	// Helper functions
+
+	private static int getVarint(ByteBuffer buffer)
+	{
+		int value = 0;
+		for (int shift = 0; shift < 32; shift += 7)
+		{
+			byte b = buffer.get();
+			value |= (b & 0x7F) << shift;
+			if (b >= 0) return value;
+		}
+		throw new IllegalArgumentException("Varint is too long.");
+	}
+
+	// Reads a count, which must be between 0 and a maximum.
+	private static int getCount(ByteBuffer buffer, int max, String file, String what) throws IOException
+	{
+		int count = Snapshot.getVarint(buffer);
+		if (count < 0 || count > max) throw new IOException(file + " is corrupt: " + count + " " + what + " can't fit in it.");
+		return count;
+	}
+
+	private static User[] getNames(ByteBuffer buffer, String file) throws IOException
+	{
+		User[] users = new User[Snapshot.getCount(buffer, buffer.remaining(), file, "names")];
+		byte[] name = new byte[64];
+		for (int id = 0; id < users.length; id++)
+		{
+			int length = Snapshot.getCount(buffer, buffer.remaining(), file, "bytes of a name");
+			if (length > name.length) name = new byte[Math.max(length, 2 * name.length)];
+			buffer.get(name, 0, length);
+			users[id] = User.of(new String(name, 0, length, StandardCharsets.UTF_8));
+		}
+		return users;
+	}
+}
@@ -0,0 +1,39 @@
+package com.smogon.cap.voting;
+
+import java.io.IOException;
+import java.net.URISyntaxException;
+import java.net.URL;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.List;
+
+/**
+ * A {@link Scraper} that reads ballots back from a {@link Snapshot}, rather than from a thread.
+ * The link to scrape is a {@code file:} URL to the snapshot.
+ * <p>
+ * A {@link Poll} can tally a snapshot faster through {@link #makeMatrix(URL)},
+ * which skips decoding the snapshot into ballots.
+ */
+public class SnapshotScraper extends Scraper
+{
+	@Override
+	public List<Ballot> makeBallots(URL link)
+	{
+		return this.makeMatrix(link).ballots();
+	}
+
+	/**
+	 * Reads a snapshot as it is stored, for {@link Poll#tally(BallotMatrix)}.
+	 * @param link A {@code file:} URL to the snapshot.
+	 * @return The ballots in the snapshot.
+	 */
+	public BallotMatrix makeMatrix(URL link)
+	{
+		Path file;
+		try {file = Paths.get(link.toURI());}
+		catch (URISyntaxException | IllegalArgumentException e){throw new IllegalArgumentException("Not a snapshot: " + link, e);}
+
+		try {return Snapshot.read(file);}
+		catch (IOException e){throw new AssertionError(e);}
+	}
+}
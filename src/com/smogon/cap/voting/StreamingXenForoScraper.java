@@ -0,0 +1,372 @@
+package com.smogon.cap.voting;
+
+import org.jsoup.Jsoup;
+import org.jsoup.nodes.Document;
+
+import java.io.BufferedReader;
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.Reader;
+import java.net.URL;
+import java.nio.charset.Charset;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * A {@link XenForoScraper} that only builds the parts of a page it reads.
+ * <p>
+ * Most of a thread page is signatures, quotes, embeds and the forum's own furniture,
+ * which a full {@link Document} spends most of its memory on.
+ * Instead, this scraper reads through the page's tags once, without building anything,
+ * and only copies out the posts and the first of each part of the page navigation, as the {@link ForumProfile} finds them.
+ * Jsoup then parses just those into a small {@code Document}, which the usual {@link XenForoScraper} methods read,
+ * so the ballots are the same as from a full parse.
+ * <p>
+ * A tag scanner can only match a tag on its own, so the profile's selectors must be simple enough:
+ * {@code posts} may be a post, or a post within a block (e.g. {@code .block-body .message}),
+ * and {@code next}, {@code current} and {@code pages} must start with the element to copy the navigation from.
+ * Each of those is a tag name, ID, classes and attributes, such as {@code li.post} or {@code a[rel=next]},
+ * and a child ({@code >}) is matched as any descendant. Everything inside a post is copied,
+ * so the rest of the profile can use any selector.
+ * <p>
+ * This isn't a streaming parser in the sense of reading from the network:
+ * it scans the page's body, which {@link ThreadScraper} has already fetched (or read from its cache) as bytes,
+ * decoding characters as it goes. What it saves is the full {@code Document}, which takes many times the memory
+ * of the page's bytes, and the time to build it.
+ * <p>
+ * This relies on posts, the blocks they're in, and the page navigation always having end tags,
+ * which is how XenForo writes them. A page with no charset is read as UTF-8.
+ */
+public class StreamingXenForoScraper extends XenForoScraper
+{
+	private final Step block; // null if posts aren't looked for within a block
+	private final Step post;
+	private final Step[] navigation;
+
+	/**
+	 * Scrapes a XenForo 2 forum.
+	 */
+	public StreamingXenForoScraper(){this(ForumProfile.XENFORO);}
+
+	/**
+	 * @param profile Where the forum keeps posts and page links.
+	 * @throws IllegalArgumentException If the profile's selectors are too complex to match tag by tag, as described above.
+	 */
+	public StreamingXenForoScraper(ForumProfile profile)
+	{
+		super(profile);
+		List<Step> posts = Step.parse(profile.query("posts"));
+		if (posts.size() > 2) throw new IllegalArgumentException("Can't stream posts nested more than a block deep: " + profile.query("posts"));
+		this.block = posts.size() == 2 ? posts.get(0) : null;
+		this.post = posts.get(posts.size() - 1);
+		String[] keys = {"next", "current", "pages"};
+		this.navigation = new Step[keys.length];
+		for (int i = 0; i < keys.length; i++) this.navigation[i] = Step.parse(profile.query(keys[i])).get(0);
+	}
+
+	@Override
+	protected Document parsePage(byte[] body, String charset, URL link) throws IOException
+	{
+		Charset decoding = charset != null && Charset.isSupported(charset) ? Charset.forName(charset) : StandardCharsets.UTF_8;
+		Extractor extractor = new Extractor(new BufferedReader(new InputStreamReader(new ByteArrayInputStream(body), decoding)),
+			this.block, this.post, this.navigation);
+		extractor.run();
+		return Jsoup.parse(extractor.html(), link.toString());
+	}
+
+	/**
+	 * One step of a selector: a tag name, ID, classes and attributes, all of which a start tag must have.
+	 */
+	private static final class Step
+	{
+		// A step, then the combinator before the next one.
+		private static final Pattern STEP = Pattern.compile(
+			"([A-Za-z][\\w-]*|\\*)?((?:[#.][\\w-]+|\\[[\\w-]+(?:=(?:\"[^\"]*\"|'[^']*'|[^\\]]*))?\\])*)\\s*(>?)\\s*");
+		private static final Pattern PART = Pattern.compile("([#.])([\\w-]+)|\\[([\\w-]+)(?:=(\"[^\"]*\"|'[^']*'|[^\\]]*))?\\]");
+
+		private final String name; // null for any
+		private final List<String[]> attributes = new ArrayList<>(); // {attribute, value or null for any}, with "class" for each class
+
+		private Step(String name){this.name = name;}
+
+		// Splits a selector into its steps, treating children as descendants.
+		static List<Step> parse(String query)
+		{
+			List<Step> steps = new ArrayList<>();
+			Matcher matcher = Step.STEP.matcher(query);
+			int at = 0;
+			while (at < query.length())
+			{
+				if (!matcher.find(at) || matcher.start() != at || matcher.end() == at
+					|| (matcher.group(1) == null && matcher.group(2).isEmpty()))
+					throw new IllegalArgumentException("Can't stream a page by the selector " + query);
+				Step step = new Step(matcher.group(1) == null || matcher.group(1).equals("*") ? null : matcher.group(1).toLowerCase());
+				Matcher part = Step.PART.matcher(matcher.group(2));
+				while (part.find())
+				{
+					if (part.group(1) != null) step.attributes.add(new String[]{part.group(1).equals("#") ? "id" : "class", part.group(2)});
+					else
+					{
+						String value = part.group(4);
+						if (value != null && (value.startsWith("\"") || value.startsWith("'"))) value = value.substring(1, value.length() - 1);
+						step.attributes.add(new String[]{part.group(3), value});
+					}
+				}
+				steps.add(step);
+				at = matcher.end();
+			}
+			if (steps.isEmpty()) throw new IllegalArgumentException("Can't stream a page by the selector " + query);
+			return steps;
+		}
+
+		// Whether a start tag matches, given its name and what was between its brackets.
+		boolean matches(String name, String tag)
+		{
+			if (this.name != null && !this.name.equals(name)) return false;
+			for (String[] attribute: this.attributes)
+			{
+				String value = Extractor.attribute(tag, attribute[0]);
+				if (value == null) return false;
+				if (attribute[0].equals("class") ? !Extractor.hasClass(value, attribute[1]) : attribute[1] != null && !attribute[1].equals(value))
+					return false;
+			}
+			return true;
+		}
+	}
+
+	/**
+	 * Reads a page tag by tag, copying out the elements we want, and dropping the rest as it goes.
+	 * <p>
+	 * Elements are matched by counting the start and end tags with the same name as theirs,
+	 * so there is no stack of open elements to keep.
+	 */
+	private static final class Extractor
+	{
+		private final Reader in;
+		private final Step blockStep, postStep; // blockStep is null if posts are anywhere
+		private final Step[] navigationSteps;
+		private final boolean[] found; // whether the first element for each navigation step has been copied
+		private final StringBuilder posts = new StringBuilder();
+		private final StringBuilder navigation = new StringBuilder();
+		private String blockTag = null; // the start tag of the first block, to put the posts back in
+
+		private StringBuilder capture = null; // the element being copied, if any
+		private boolean capturingNavigation; // whether it's the page navigation, rather than a post
+		private String captureName;
+		private int captureDepth;
+
+		private String blockName = null; // the block we're in, if any
+		private int blockDepth;
+
+		Extractor(Reader in, Step block, Step post, Step[] navigation)
+		{
+			this.in = in;
+			this.blockStep = block;
+			this.postStep = post;
+			this.navigationSteps = navigation;
+			this.found = new boolean[navigation.length];
+		}
+
+		void run() throws IOException
+		{
+			for (int c = this.in.read(); c != -1; c = this.in.read())
+			{
+				if (c != '<')
+				{
+					if (this.capture != null) this.capture.append((char) c);
+					continue;
+				}
+
+				// Only a letter, '/', '!' or '?' makes a tag. Anything else is text, as in an HTML parser.
+				// The '<' of "<<b>" is text, but the second one still starts a tag.
+				int first = this.in.read();
+				while (first == '<')
+				{
+					if (this.capture != null) this.capture.append('<');
+					first = this.in.read();
+				}
+				if (first == -1) break;
+				if (!Character.isLetter(first) && first != '/' && first != '!' && first != '?')
+				{
+					if (this.capture != null) this.capture.append('<').append((char) first);
+					continue;
+				}
+
+				String tag = this.readTag((char) first);
+				if (this.capture != null) this.capture.append('<').append(tag).append('>');
+				if (first == '!' || first == '?') continue; // a comment or doctype
+
+				boolean end = first == '/';
+				String name = Extractor.name(tag, end ? 1 : 0);
+				boolean selfClosing = tag.endsWith("/");
+				this.element(name, tag, end, selfClosing);
+				if (!end && !selfClosing && (name.equals("script") || name.equals("style"))) this.skipRawText(name);
+			}
+		}
+
+		// Keeps track of the elements we're in, and starts and stops copying.
+		private void element(String name, String tag, boolean end, boolean selfClosing)
+		{
+			int change = end ? -1 : selfClosing ? 0 : 1;
+			if (this.capture != null && name.equals(this.captureName))
+			{
+				this.captureDepth += change;
+				if (this.captureDepth == 0)
+				{
+					(this.capturingNavigation ? this.navigation : this.posts).append(this.capture);
+					this.capture = null;
+				}
+			}
+			if (this.blockName != null && name.equals(this.blockName))
+			{
+				this.blockDepth += change;
+				if (this.blockDepth == 0) this.blockName = null;
+			}
+			if (end || selfClosing || this.capture != null) return;
+
+			boolean post = (this.blockStep == null || this.blockName != null) && this.postStep.matches(name, tag);
+			boolean navigation = false;
+			for (int i = 0; !post && i < this.navigationSteps.length; i++)
+				if (!this.found[i] && this.navigationSteps[i].matches(name, tag)) navigation = this.found[i] = true;
+			if (post || navigation)
+			{
+				this.capture = new StringBuilder().append('<').append(tag).append('>');
+				this.capturingNavigation = !post;
+				this.captureName = name;
+				this.captureDepth = 1;
+			}
+			else if (this.blockStep != null && this.blockName == null && this.blockStep.matches(name, tag))
+			{
+				this.blockName = name;
+				this.blockDepth = 1;
+				if (this.blockTag == null) this.blockTag = tag;
+			}
+		}
+
+		// Reads the rest of a tag, up to its closing '>', and returns what was between the brackets.
+		private String readTag(char first) throws IOException
+		{
+			StringBuilder tag = new StringBuilder().append(first);
+			char quote = 0; // the quote we're in, if any
+			for (int c; (c = this.in.read()) != -1;)
+			{
+				if (c == '>' && quote == 0)
+				{
+					// A comment only ends at "-->", and may have '>' anywhere else.
+					boolean comment = tag.length() >= 3 && tag.charAt(1) == '-' && tag.charAt(2) == '-' && first == '!';
+					if (!comment || (tag.length() >= 5 && tag.charAt(tag.length() - 1) == '-' && tag.charAt(tag.length() - 2) == '-')) break;
+				}
+				else if (first != '!' && (c == '"' || c == '\''))
+				{
+					if (quote == 0) quote = (char) c;
+					else if (quote == c) quote = 0;
+				}
+				tag.append((char) c);
+			}
+			return tag.toString();
+		}
+
+		// Skips (or copies) the text of a script or style, which may have '<' anywhere, up to and including its end tag.
+		private void skipRawText(String name) throws IOException
+		{
+			String close = "</" + name;
+			StringBuilder text = new StringBuilder();
+			for (int c; (c = this.in.read()) != -1;)
+			{
+				text.append((char) c);
+				if (Extractor.endsWith(text, close))
+				{
+					while ((c = this.in.read()) != -1 && c != '>') text.append((char) c);
+					text.append('>');
+					break;
+				}
+				// Only the last few characters matter when we aren't copying.
+				if (this.capture == null && text.length() > close.length()) text.deleteCharAt(0);
+			}
+			if (this.capture != null) this.capture.append(text);
+		}
+
+		// Whether text ends with a lowercase string, ignoring case.
+		private static boolean endsWith(StringBuilder text, String end)
+		{
+			int at = text.length() - end.length();
+			if (at < 0) return false;
+			for (int i = 0; i < end.length(); i++)
+				if (Character.toLowerCase(text.charAt(at + i)) != end.charAt(i)) return false;
+			return true;
+		}
+
+		// Whether a class attribute has a class, as a whole word.
+		private static boolean hasClass(String classes, String name)
+		{
+			for (int at = classes.indexOf(name); at >= 0; at = classes.indexOf(name, at + 1))
+			{
+				int end = at + name.length();
+				if ((at == 0 || Character.isWhitespace(classes.charAt(at - 1)))
+					&& (end == classes.length() || Character.isWhitespace(classes.charAt(end)))) return true;
+			}
+			return false;
+		}
+
+		// Reads the (lowercase) tag name starting at an index of a tag.
+		private static String name(String tag, int start)
+		{
+			int end = start;
+			while (end < tag.length() && !Character.isWhitespace(tag.charAt(end)) && tag.charAt(end) != '/') end++;
+			return tag.substring(start, end).toLowerCase();
+		}
+
+		// Reads an attribute of a start tag, or returns null if it isn't there.
+		private static String attribute(String tag, String name)
+		{
+			int i = 0;
+			while (i < tag.length() && !Character.isWhitespace(tag.charAt(i))) i++; // skip the tag name
+			while (i < tag.length())
+			{
+				while (i < tag.length() && (Character.isWhitespace(tag.charAt(i)) || tag.charAt(i) == '/')) i++;
+				int start = i;
+				while (i < tag.length() && tag.charAt(i) != '=' && !Character.isWhitespace(tag.charAt(i)) && tag.charAt(i) != '/') i++;
+				String attribute = tag.substring(start, i);
+				while (i < tag.length() && Character.isWhitespace(tag.charAt(i))) i++;
+				if (i >= tag.length() || tag.charAt(i) != '=')
+				{
+					if (attribute.isEmpty()) i++; // a stray character; don't get stuck on it
+					else if (attribute.equalsIgnoreCase(name)) return "";
+					continue; // no value
+				}
+				i++;
+				while (i < tag.length() && Character.isWhitespace(tag.charAt(i))) i++;
+
+				String value;
+				if (i < tag.length() && (tag.charAt(i) == '"' || tag.charAt(i) == '\''))
+				{
+					int close = tag.indexOf(tag.charAt(i), i + 1);
+					if (close < 0) close = tag.length();
+					value = tag.substring(i + 1, close);
+					i = close + 1;
+				}
+				else
+				{
+					start = i;
+					while (i < tag.length() && !Character.isWhitespace(tag.charAt(i))) i++;
+					value = tag.substring(start, i);
+				}
+				if (attribute.equalsIgnoreCase(name)) return value;
+			}
+			return null;
+		}
+
+		// The parts of the page we copied out, as a page of their own.
+		String html()
+		{
+			if (this.capture != null && !this.capturingNavigation) this.posts.append(this.capture); // the page was cut short
+			String block = this.blockTag == null ? "<div>" + this.posts + "</div>"
+				: "<" + this.blockTag + ">" + this.posts + "</" + Extractor.name(this.blockTag, 0) + ">";
+			return "<html><body>" + block + this.navigation + "</body></html>";
+		}
+	}
+}
@@ -0,0 +1,296 @@
+package com.smogon.cap.voting;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.UnsupportedEncodingException;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.URL;
+import java.net.URLDecoder;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+
+/**
+ * A long-running HTTP service that tallies polls, so that repeated queries skip the JVM's startup and warmup,
+ * and the tallies themselves whenever the ballots haven't changed.
+ * <p>
+ * The service has one endpoint, {@code /tally}, which takes the poll type as the {@code poll} parameter
+ * (as in a {@link Batch} manifest), and the ballots as either:
+ * <ul>
+ *     <li>{@code GET /tally?poll=IRV&thread=<link>}: a thread to scrape, or</li>
+ *     <li>{@code POST /tally?poll=IRV}: a {@link Snapshot} as the request body.</li>
+ * </ul>
+ * It answers with the results as JSON.
+ * <p>
+ * Results are cached by a hash of the ballots and the poll type, so a thread is still scraped on every query
+ * (cheaply, if the scraper has a {@link PageCache}), but only tallied again once someone has voted.
+ * The cache keeps the most recently used results, up to a fixed number.
+ * <p>
+ * The service has no authentication, so by default it only listens on the loopback interface.
+ * Even then, it only scrapes {@code http} and {@code https} links, and only accepts uploads of up to
+ * {@value #MAX_UPLOAD} bytes. Every request is answered, even if its tally runs out of memory.
+ */
+public final class TallyServer implements AutoCloseable
+{
+	// Request threads. Daemons, like ThreadScraper's fetchers, so that closing the server lets the JVM exit.
+	private static final ThreadFactory HANDLERS = runnable ->
+	{
+		Thread thread = new Thread(runnable, "tally-server");
+		thread.setDaemon(true);
+		return thread;
+	};
+
+	/** The most bytes a snapshot may have to be uploaded. */
+	public static final int MAX_UPLOAD = 16 << 20;
+
+	private final ThreadScraper scraper;
+	private final int fetchThreads;
+	private final HttpServer server;
+	private final ExecutorService handlers;
+	private final Map<String, String> results; // by ballot hash and poll; least recently used first
+
+	/**
+	 * Starts serving on the loopback interface, so only to this machine.
+	 * @param port The port to listen on, or 0 for any free port.
+	 * @param scraper The scraper for threads.
+	 * @param fetchThreads The most pages of a thread to fetch at once.
+	 * @param cacheSize The most results to cache.
+	 * @throws IOException If the port can't be listened on.
+	 */
+	public TallyServer(int port, ThreadScraper scraper, int fetchThreads, int cacheSize) throws IOException
+	{
+		this(InetAddress.getLoopbackAddress(), port, scraper, fetchThreads, cacheSize);
+	}
+
+	/**
+	 * Starts serving.
+	 * @param address The address to listen on, e.g. the wildcard address to serve other machines.
+	 * @param port The port to listen on, or 0 for any free port.
+	 * @param scraper The scraper for threads.
+	 * @param fetchThreads The most pages of a thread to fetch at once.
+	 * @param cacheSize The most results to cache.
+	 * @throws IOException If the port can't be listened on.
+	 */
+	public TallyServer(InetAddress address, int port, ThreadScraper scraper, int fetchThreads, int cacheSize) throws IOException
+	{
+		this.scraper = scraper;
+		this.fetchThreads = fetchThreads;
+		this.results = new Cache(cacheSize);
+		this.server = HttpServer.create(new InetSocketAddress(address, port), 0);
+		this.handlers = Executors.newFixedThreadPool(Runtime.getRuntime().availableProcessors(), TallyServer.HANDLERS);
+		this.server.setExecutor(this.handlers);
+		this.server.createContext("/tally", this::handle);
+		this.server.start();
+	}
+
+	/** @return The port the server is listening on. */
+	public int getPort(){return this.server.getAddress().getPort();}
+
+	// Answers a request, turning whatever goes wrong into an error status.
+	// The exchange is always answered and closed, so that no client is left hanging.
+	private void handle(HttpExchange exchange)
+	{
+		int status = 500;
+		String body = TallyServer.error("Couldn't tally the poll.");
+		try
+		{
+			body = this.tally(exchange);
+			status = 200;
+		}
+		catch (TooLarge e)
+		{
+			status = 413;
+			body = TallyServer.error(e.getMessage());
+		}
+		catch (IllegalArgumentException | IOException e) // a bad query or upload
+		{
+			status = 400;
+			body = TallyServer.error(e.getMessage());
+		}
+		catch (RuntimeException | AssertionError e) // e.g. the forum is down
+		{
+			status = 502;
+			body = TallyServer.error("Couldn't tally the poll: " + e);
+		}
+		catch (Error e) // e.g. an OutOfMemoryError; the request's memory is gone by now
+		{
+			body = TallyServer.error("Couldn't tally the poll: " + e);
+		}
+		finally
+		{
+			try
+			{
+				byte[] bytes = body.getBytes(StandardCharsets.UTF_8);
+				exchange.getResponseHeaders().set("Content-Type", "application/json; charset=UTF-8");
+				exchange.sendResponseHeaders(status, bytes.length);
+				exchange.getResponseBody().write(bytes);
+			}
+			catch (IOException e){} // the client has gone
+			finally {exchange.close();}
+		}
+	}
+
+	// An upload over MAX_UPLOAD bytes.
+	private static final class TooLarge extends IOException
+	{
+		private static final long serialVersionUID = 1L;
+		private TooLarge(){super("Uploads can't be over " + TallyServer.MAX_UPLOAD + " bytes.");}
+	}
+
+	// A map in access order that drops its least recently used entry once it holds too many.
+	private static final class Cache extends LinkedHashMap<String, String>
+	{
+		private static final long serialVersionUID = 1L;
+		private final int capacity;
+
+		private Cache(int capacity)
+		{
+			super(16, 0.75f, true);
+			this.capacity = capacity;
+		}
+
+		@Override
+		protected boolean removeEldestEntry(Map.Entry<String, String> eldest){return this.size() > this.capacity;}
+	}
+
+	// Reads the ballots and the poll from a request, and tallies them, or looks up their tally.
+	private String tally(HttpExchange exchange) throws IOException
+	{
+		Map<String, String> parameters = TallyServer.parameters(exchange.getRequestURI().getRawQuery());
+		String name = parameters.get("poll");
+		if (name == null) throw new IllegalArgumentException("No poll type given.");
+		Poll poll = Batch.poll(name);
+
+		BallotMatrix matrix;
+		switch (exchange.getRequestMethod())
+		{
+			case "GET":
+				String thread = parameters.get("thread");
+				if (thread == null) throw new IllegalArgumentException("No thread given.");
+				URL link = new URL(thread);
+				if (!link.getProtocol().equals("http") && !link.getProtocol().equals("https"))
+					throw new IllegalArgumentException("Can only scrape http and https links, not " + thread);
+				matrix = BallotMatrix.of(this.scraper.makeBallots(link, this.fetchThreads));
+				break;
+			case "POST":
+				matrix = Snapshot.read(TallyServer.readUpload(exchange));
+				break;
+			default:
+				throw new IllegalArgumentException("Can't " + exchange.getRequestMethod() + " a tally.");
+		}
+
+		String hash = TallyServer.hash(matrix);
+		String key = hash + " " + poll;
+		String result;
+		synchronized (this.results) {result = this.results.get(key);}
+		if (result != null) return result;
+
+		// Tally outside the lock, so that a slow tally doesn't hold up the rest.
+		// At worst, two queries for the same new ballots both tally them.
+		result = TallyServer.json(poll, matrix, hash);
+		synchronized (this.results) {this.results.put(key, result);}
+		return result;
+	}
+
+	// Helper functions
+
+	// Hashes the ballots as they read: voters and candidates by name, in order.
+	private static String hash(BallotMatrix matrix)
+	{
+		MessageDigest digest;
+		try {digest = MessageDigest.getInstance("SHA-256");}
+		catch (NoSuchAlgorithmException e){throw new AssertionError(e);} // every JVM has SHA-256
+
+		for (int row = 0; row < matrix.size(); row++)
+		{
+			String voter = matrix.isAggregated() ? "" : matrix.getVoter(row).getName();
+			digest.update(voter.getBytes(StandardCharsets.UTF_8));
+			for (int i = matrix.offsets[row]; i < matrix.offsets[row + 1]; i++)
+			{
+				digest.update((byte) 0); // can't appear in a name
+				digest.update(matrix.getCandidate(matrix.choices[i]).getName().getBytes(StandardCharsets.UTF_8));
+			}
+			digest.update((byte) '\n');
+			digest.update(Integer.toString(matrix.getWeight(row)).getBytes(StandardCharsets.UTF_8));
+			digest.update((byte) '\n');
+		}
+
+		StringBuilder hex = new StringBuilder();
+		for (byte b: digest.digest()) hex.append(String.format("%02x", b));
+		return hex.toString();
+	}
+
+	private static String json(Poll poll, BallotMatrix matrix, String hash)
+	{
+		StringBuilder json = new StringBuilder("{\"poll\": ").append(Metrics.quote(poll.toString()))
+			.append(", \"ballots\": ").append(Metrics.quote(hash))
+			.append(", \"voters\": ").append(matrix.ballotCount())
+			.append(", \"results\": [");
+		String separator = "";
+		for (Poll.Entry entry: poll.tally(matrix))
+		{
+			double value = entry.getValue();
+			json.append(separator).append("{\"candidate\": ").append(Metrics.quote(entry.getUser().getName()))
+				.append(", \"value\": ").append(value == (long) value ? Long.toString((long) value) : Double.toString(value))
+				.append('}');
+			separator = ", ";
+		}
+		return json.append("]}").toString();
+	}
+
+	private static String error(String message){return "{\"error\": " + Metrics.quote(String.valueOf(message)) + "}";}
+
+	private static Map<String, String> parameters(String query) throws UnsupportedEncodingException
+	{
+		Map<String, String> parameters = new HashMap<>();
+		if (query == null) return parameters;
+		for (String parameter: query.split("&"))
+		{
+			String[] pair = parameter.split("=", 2);
+			parameters.put(URLDecoder.decode(pair[0], "UTF-8"), pair.length == 2 ? URLDecoder.decode(pair[1], "UTF-8") : "");
+		}
+		return parameters;
+	}
+
+	// Reads an upload, refusing it as soon as it turns out to be too large.
+	private static byte[] readUpload(HttpExchange exchange) throws IOException
+	{
+		String length = exchange.getRequestHeaders().getFirst("Content-Length");
+		if (length != null && length.trim().matches("\\d+") && Long.parseLong(length.trim()) > TallyServer.MAX_UPLOAD) throw new TooLarge();
+
+		ByteArrayOutputStream out = new ByteArrayOutputStream();
+		try (InputStream in = exchange.getRequestBody())
+		{
+			byte[] buffer = new byte[8192];
+			for (int read; (read = in.read(buffer)) != -1;)
+			{
+				if (out.size() + read > TallyServer.MAX_UPLOAD) throw new TooLarge();
+				out.write(buffer, 0, read);
+			}
+		}
+		return out.toByteArray();
+	}
+
+	/**
+	 * Stops serving, without waiting for requests in progress.
+	 */
+	@Override
+	public void close()
+	{
+		this.server.stop(0);
+		this.handlers.shutdownNow();
+	}
+
+	@Override public String toString(){return "TallyServer on port " + this.getPort();}
+}
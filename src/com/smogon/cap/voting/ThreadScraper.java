@@ -5,10 +5,22 @@ import org.jsoup.nodes.Document;
 import org.jsoup.nodes.Element;
 import org.jsoup.select.Elements;
 
+import java.io.ByteArrayInputStream;
 import java.io.IOException;
+import java.net.HttpURLConnection;
 import java.net.URL;
+import java.util.ArrayDeque;
 import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Deque;
+import java.util.Iterator;
 import java.util.List;
+import java.util.NoSuchElementException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
 
 // Note to self:
 // We want to be as efficient as possible with scraping pages. That means:
@@ -28,16 +40,86 @@ import java.util.List;
 // Return the List of Ballots.
 public abstract class ThreadScraper extends Scraper
 {
-	// Timeout for fetching a web page.
-	private static final int TIMEOUT = 10_000; // in milliseconds
+	// Threads for fetching pages in the background.
+	// Daemons, so they don't keep the JVM alive if the main thread gives up on a scrape.
+	private static final ThreadFactory FETCHERS = runnable ->
+	{
+		Thread thread = new Thread(runnable, "page-fetcher");
+		thread.setDaemon(true);
+		return thread;
+	};
+	// Idle threads die off after a minute, so an abandoned iterator doesn't leak one.
+	private static final ExecutorService PREFETCHER = Executors.newCachedThreadPool(ThreadScraper.FETCHERS);
+
+	// Where to keep pages between runs, if anywhere, and how to download them.
+	// This is configuration rather than state, so the scraper still acts as a function.
+	private PageCache cache = null;
+	private PageFetcher fetcher = HttpFetcher.shared();
+
+	/**
+	 * Keeps fetched pages in a {@link PageCache}, so that pages that haven't changed
+	 * aren't downloaded again the next time the thread is scraped.
+	 * @param cache The cache to use, or null to always download pages.
+	 */
+	public void setPageCache(PageCache cache){this.cache = cache;}
+
+	/**
+	 * Downloads pages with a different {@link PageFetcher}, e.g. one with a different rate limit.
+	 * @param fetcher The fetcher to use. {@link HttpFetcher#shared()} by default.
+	 */
+	public void setPageFetcher(PageFetcher fetcher){this.fetcher = fetcher;}
 
 	// Helper function: Get the HTML document from a link, "handling" IOExceptions.
-	private static Document getDocument(URL link)
+	// The fetcher has already retried whatever could be retried, so what's left ends the scrape.
+	private Document getDocument(URL link)
 	{
-		try {return Jsoup.parse(link, ThreadScraper.TIMEOUT);}
+		try
+		{
+			// Fetch and parse separately, so that Metrics can time each.
+			long start = Metrics.ENABLED ? System.nanoTime() : 0;
+			byte[] body;
+			String charset;
+			URL base; // where the page ended up, after any redirects
+			if (this.cache == null)
+			{
+				PageFetcher.Response response = this.fetcher.fetch(link, Collections.emptyMap());
+				if (response.getStatus() != HttpURLConnection.HTTP_OK)
+					throw new IOException("HTTP " + response.getStatus() + " fetching " + link);
+				body = response.getBody();
+				charset = response.getCharset();
+				base = response.getLink();
+			}
+			else
+			{
+				PageCache.Page page = this.cache.get(link, this.fetcher);
+				body = page.getBody();
+				charset = page.getCharset();
+				base = page.getLink();
+			}
+			long fetched = Metrics.ENABLED ? System.nanoTime() : 0;
+			Document document = this.parsePage(body, charset, base);
+			if (Metrics.ENABLED) Metrics.global().page(fetched - start, body.length, System.nanoTime() - fetched);
+			return document;
+		}
 		catch (IOException e){throw new AssertionError(e);}
 	}
 
+	/**
+	 * Parses a fetched page into the {@link Document} that the methods below read.
+	 * <p>
+	 * By default, the whole page is parsed, but a subclass may leave out whatever
+	 * {@link #getPosts(Document)}, {@link #findNextLink(Document)} and {@link #findLaterLinks(Document)} don't read.
+	 * @param body The raw bytes of the page.
+	 * @param charset The page's charset, or null if the server didn't say.
+	 * @param link The page's URL, for resolving relative links.
+	 * @return The page.
+	 * @throws IOException If the page can't be decoded.
+	 */
+	protected Document parsePage(byte[] body, String charset, URL link) throws IOException
+	{
+		return Jsoup.parse(new ByteArrayInputStream(body), charset, link.toString());
+	}
+
 	// Ballot parsing
 
 	/**
@@ -69,6 +151,66 @@ public abstract class ThreadScraper extends Scraper
 	 */
 	protected abstract URL findNextLink(Document page);
 
+	/**
+	 * Lists the links to every page after this one,
+	 * so that {@link #makeBallots(URL, int)} can fetch them all at once
+	 * instead of following {@link #findNextLink(Document)} one page at a time.
+	 * <p>
+	 * By default, a {@code ThreadScraper} can't tell, and returns null.
+	 * @param page The web page to read the page navigation of.
+	 * @return The URLs of the following pages in order (empty on the last page),
+	 * or null if the page doesn't say.
+	 */
+	protected List<URL> findLaterLinks(Document page){return null;}
+
+	/**
+	 * Finds which page of its thread a page is, so that {@link ArchiveScraper} can put saved pages in order.
+	 * <p>
+	 * By default, a {@code ThreadScraper} can't tell, and returns -1.
+	 * @param page The web page to read the page number of.
+	 * @return The page's number, starting from 1, or -1 if the page doesn't say.
+	 */
+	protected int findPageNumber(Document page){return -1;}
+
+	/**
+	 * Whether the first post of a thread is an opening post rather than a ballot,
+	 * and so should be skipped.
+	 * @return False by default.
+	 */
+	protected boolean skipsOpeningPost(){return false;}
+
+	/**
+	 * Finds the forum's ID for a post, which {@link Watch} uses to tell new posts from ones it has seen.
+	 * IDs must increase in post order.
+	 * <p>
+	 * By default, a {@code ThreadScraper} can't tell, and returns -1.
+	 * @param post One of the values returned from {@link #getPosts(Document)}.
+	 * @return The post's ID, or -1 if it has none.
+	 */
+	protected long getPostId(Element post){return -1;}
+
+	// Helper function: Create ballots from the posts on a page.
+	// Package-private, for ArchiveScraper.
+	List<Ballot> scrapePage(Document page)
+	{
+		long start = Metrics.ENABLED ? System.nanoTime() : 0;
+		// Find posts on page using CSS-style queries as HTML elements.
+		Elements posts = this.getPosts(page);
+
+		List<Ballot> ballots = new ArrayList<>(posts.size());
+		for (Element post: posts) ballots.add(this.parse(post));
+		if (Metrics.ENABLED) Metrics.global().posts(posts.size(), System.nanoTime() - start);
+		return ballots;
+	}
+
+	// Helper function: Drop the opening post if needed.
+	// Package-private, for ArchiveScraper.
+	List<Ballot> skipOpeningPost(List<Ballot> ballots)
+	{
+		if (this.skipsOpeningPost() && !ballots.isEmpty()) ballots.remove(0);
+		return ballots;
+	}
+
 	/**
 	 * This method scrapes posts until it reaches the end of the thread
 	 * and builds a {@link List} of {@link Ballot Ballots} from it.
@@ -78,26 +220,214 @@ public abstract class ThreadScraper extends Scraper
 	 *     <li>{@link #getPosts(Document)} to split the page into HTML nodes</li>
 	 *     <li>{@link #parse(Element)} to process each post</li>
 	 *     <li>{@link #findNextLink(Document)} to find the next page</li>
+	 *     <li>{@link #skipsOpeningPost()} to drop the opening post</li>
 	 * </ul>
 	 */
 	@Override
 	public List<Ballot> makeBallots(URL link)
 	{
-		URL currentLink = link;
+		Metrics.Span span = Metrics.ENABLED ? Metrics.start() : null;
+		List<Ballot> ballots = this.scrapeFrom(this.getDocument(link));
+		if (Metrics.ENABLED) Metrics.global().phase("makeBallots", span);
+		return this.skipOpeningPost(ballots);
+	}
+
+	// Helper function: Scrape a fetched page and every page after it, one at a time.
+	private List<Ballot> scrapeFrom(Document page)
+	{
 		List<Ballot> ballots = new ArrayList<>();
-		while (currentLink != null) // Scrape pages until we reach the end of the thread.
+		while (true) // Scrape pages until we reach the end of the thread.
 		{
-			Document page = ThreadScraper.getDocument(currentLink);
-
-			// Find posts on page using CSS-style queries as HTML elements.
-			Elements posts = this.getPosts(page);
-
 			// Create ballots from the HTML elements.
-			for (Element post: posts) ballots.add(this.parse(post));
+			ballots.addAll(this.scrapePage(page));
 
 			// Go to the next page.
-			currentLink = this.findNextLink(page);
+			URL nextLink = this.findNextLink(page);
+			if (nextLink == null) return ballots;
+			page = this.getDocument(nextLink);
+		}
+	}
+
+	/**
+	 * Like {@link #makeBallots(URL)}, but fetches and parses pages on several threads at once.
+	 * <p>
+	 * After fetching the first page, this method reads the links to the rest of the thread
+	 * from {@link #findLaterLinks(Document)} and fetches them concurrently,
+	 * so that scraping a long thread takes a few round trips rather than one per page.
+	 * Ballots are still returned in post order.
+	 * If the first page doesn't list the later pages, this follows {@link #findNextLink(Document)} from it,
+	 * as {@link #makeBallots(URL)} does.
+	 * @param link The link to scrape.
+	 * @param fetchThreads The most pages to fetch at once.
+	 * @return A list of all {@code Ballots} scraped from the URL.
+	 */
+	public List<Ballot> makeBallots(URL link, int fetchThreads)
+	{
+		if (fetchThreads <= 1) return this.makeBallots(link);
+
+		Metrics.Span span = Metrics.ENABLED ? Metrics.start() : null;
+		Document first = this.getDocument(link);
+		List<URL> laterLinks = this.findLaterLinks(first);
+		List<Ballot> ballots;
+		if (laterLinks == null || laterLinks.isEmpty())
+		{
+			// Nothing to fetch at once, so carry on from the first page as makeBallots(URL) would.
+			ballots = this.scrapeFrom(first);
+			if (Metrics.ENABLED) Metrics.global().phase("makeBallots", span);
+			return this.skipOpeningPost(ballots);
+		}
+
+		ballots = this.scrapePage(first);
+
+		ExecutorService pool = Executors.newFixedThreadPool(Math.min(fetchThreads, laterLinks.size()), ThreadScraper.FETCHERS);
+		try
+		{
+			// Submit every page first, then collect them in order.
+			List<Future<List<Ballot>>> pages = new ArrayList<>(laterLinks.size());
+			for (URL laterLink: laterLinks)
+				pages.add(pool.submit(() -> this.scrapePage(this.getDocument(laterLink))));
+			for (Future<List<Ballot>> page: pages)
+				ballots.addAll(ThreadScraper.await(page));
+		}
+		finally
+		{
+			pool.shutdownNow();
+		}
+		if (Metrics.ENABLED) Metrics.global().phase("makeBallots", span);
+		return this.skipOpeningPost(ballots);
+	}
+
+	// Helper function: Wait for a background fetch, rethrowing what getDocument() or parse() threw.
+	// Package-private, for ArchiveScraper.
+	static <T> T await(Future<T> future)
+	{
+		try {return future.get();}
+		catch (InterruptedException e)
+		{
+			Thread.currentThread().interrupt();
+			throw new AssertionError(e);
+		}
+		catch (ExecutionException e)
+		{
+			if (e.getCause() instanceof Error) throw (Error) e.getCause();
+			if (e.getCause() instanceof RuntimeException) throw (RuntimeException) e.getCause();
+			throw new AssertionError(e.getCause());
+		}
+	}
+
+	/**
+	 * Yields ballots one page at a time, rather than after the whole thread is scraped.
+	 * <p>
+	 * While the caller consumes one page's ballots, the next page is fetched in the background,
+	 * so that fetching and counting overlap and at most two pages are held in memory.
+	 * Later pages are found the same way as {@link #makeBallots(URL)} and {@link #makeBallots(URL, int)}:
+	 * from {@link #findLaterLinks(Document)} if the first page lists them,
+	 * or else by following {@link #findNextLink(Document)}.
+	 */
+	@Override
+	public Iterator<Ballot> iterateBallots(URL link)
+	{
+		return new Iterator<Ballot>()
+		{
+			private Future<Document> nextPage = ThreadScraper.PREFETCHER.submit(() -> ThreadScraper.this.getDocument(link));
+			private Deque<URL> laterLinks = null; // known from the first page, if it lists them
+			private boolean firstPage = true;
+			private Iterator<Ballot> ballots = Collections.emptyIterator();
+
+			@Override
+			public boolean hasNext()
+			{
+				while (!this.ballots.hasNext())
+				{
+					if (this.nextPage == null) return false;
+					Document page = ThreadScraper.await(this.nextPage);
+
+					// Start fetching the next page before parsing this one.
+					if (this.firstPage)
+					{
+						List<URL> links = ThreadScraper.this.findLaterLinks(page);
+						if (links != null) this.laterLinks = new ArrayDeque<>(links);
+					}
+					URL nextLink = this.laterLinks != null ? this.laterLinks.poll() : ThreadScraper.this.findNextLink(page);
+					this.nextPage = nextLink == null ? null : ThreadScraper.PREFETCHER.submit(() -> ThreadScraper.this.getDocument(nextLink));
+
+					List<Ballot> pageBallots = ThreadScraper.this.scrapePage(page);
+					if (this.firstPage) ThreadScraper.this.skipOpeningPost(pageBallots);
+					this.firstPage = false;
+					this.ballots = pageBallots.iterator();
+				}
+				return true;
+			}
+
+			@Override
+			public Ballot next()
+			{
+				if (!this.hasNext()) throw new NoSuchElementException();
+				return this.ballots.next();
+			}
+		};
+	}
+
+	/**
+	 * Starts watching a thread for new posts.
+	 * @param link The link to the thread.
+	 * @return A watch that has not yet scraped anything.
+	 */
+	public Watch watch(URL link){return new Watch(link);}
+
+	/**
+	 * Watches a thread while its poll is open, to keep a running tally of it.
+	 * <p>
+	 * A {@code Watch} remembers the last post it has seen and the page it was on.
+	 * Each {@link #poll()} rescrapes only from that page onwards,
+	 * and only parses the posts after that post,
+	 * so that polling costs one or two pages no matter how long the thread is.
+	 * <p>
+	 * Posts that are edited or deleted after they were seen are not picked up.
+	 */
+	public final class Watch
+	{
+		private URL tail; // the page the last post seen was on
+		private long lastPostId = Long.MIN_VALUE;
+		private boolean started = false; // whether the opening post has been dealt with
+
+		private Watch(URL link){this.tail = link;}
+
+		/**
+		 * Scrapes the posts made since the last poll.
+		 * The first poll scrapes the whole thread.
+		 * @return The ballots of the new posts, in post order.
+		 */
+		public List<Ballot> poll()
+		{
+			List<Ballot> ballots = new ArrayList<>();
+			Deque<URL> laterLinks = null;
+			for (URL link = this.tail; link != null;)
+			{
+				Document page = ThreadScraper.this.getDocument(link);
+				this.tail = link;
+				for (Element post: ThreadScraper.this.getPosts(page))
+				{
+					long id = ThreadScraper.this.getPostId(post);
+					if (id < 0) throw new IllegalStateException(ThreadScraper.this.getClass().getSimpleName() + " can't tell posts apart, so it can't watch threads.");
+					if (id <= this.lastPostId) continue; // seen on the last poll
+					this.lastPostId = id;
+
+					boolean openingPost = !this.started;
+					this.started = true;
+					if (openingPost && ThreadScraper.this.skipsOpeningPost()) continue;
+					ballots.add(ThreadScraper.this.parse(post));
+				}
+
+				// Go to the next page, preferring the page navigation of the first page.
+				if (laterLinks == null)
+				{
+					List<URL> links = ThreadScraper.this.findLaterLinks(page);
+					if (links != null) laterLinks = new ArrayDeque<>(links);
+				}
+				link = laterLinks != null ? laterLinks.poll() : ThreadScraper.this.findNextLink(page);
+			}
+			return ballots;
 		}
-		return ballots;
 	}
 }
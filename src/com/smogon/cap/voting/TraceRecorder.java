@@ -0,0 +1,186 @@
+package com.smogon.cap.voting;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * A {@link RoundListener} that keeps the trace of the latest tally, to export as JSON.
+ * <p>
+ * Every round's counts are kept, so the trace is kept compactly:
+ * each kind of number goes into its own growing {@code int} array, back to back,
+ * with the rounds and seats indexing into them, rather than as an object per round.
+ * <p>
+ * A recorder forgets the previous tally when the next one begins. It isn't thread-safe,
+ * but a traced {@link RunoffPoll} only reports one tally at a time.
+ */
+public final class TraceRecorder implements RoundListener
+{
+	private List<User> candidates = null;
+
+	// Rounds: {seat, round, exhausted, end of eliminated} for each round, and each round's frequencies
+	private final Ints rounds = new Ints();
+	private final Ints frequencies = new Ints();
+	private final Ints eliminated = new Ints();
+	// Seats: {seat, end of winners} for each seat
+	private final Ints seats = new Ints();
+	private final Ints winners = new Ints();
+
+	// A growing array of ints.
+	private static final class Ints
+	{
+		private int[] values = new int[16];
+		private int size = 0;
+
+		void add(int value)
+		{
+			if (this.size == this.values.length) this.values = Arrays.copyOf(this.values, 2 * this.size);
+			this.values[this.size++] = value;
+		}
+
+		void add(int[] values, int count)
+		{
+			if (this.size + count > this.values.length)
+				this.values = Arrays.copyOf(this.values, Math.max(2 * this.values.length, this.size + count));
+			System.arraycopy(values, 0, this.values, this.size, count);
+			this.size += count;
+		}
+
+		int get(int index){return this.values[index];}
+
+		int[] range(int from, int to){return Arrays.copyOfRange(this.values, from, to);}
+	}
+
+	@Override
+	public void begin(List<User> candidates)
+	{
+		this.candidates = candidates;
+		this.rounds.size = 0;
+		this.frequencies.size = 0;
+		this.eliminated.size = 0;
+		this.seats.size = 0;
+		this.winners.size = 0;
+	}
+
+	@Override
+	public void round(int seat, int round, int[] frequencies, int exhausted, int[] eliminated, int eliminatedCount)
+	{
+		this.frequencies.add(frequencies, this.candidates.size());
+		this.eliminated.add(eliminated, eliminatedCount);
+		this.rounds.add(seat);
+		this.rounds.add(round);
+		this.rounds.add(exhausted);
+		this.rounds.add(this.eliminated.size);
+	}
+
+	@Override
+	public void seated(int seat, int[] winners, int winnerCount)
+	{
+		this.winners.add(winners, winnerCount);
+		this.seats.add(seat);
+		this.seats.add(this.winners.size);
+	}
+
+	// Getters
+
+	/** @return The candidates of the latest tally, by ID, or {@code null} before the first. */
+	public List<User> getCandidates(){return this.candidates;}
+	/** @return The number of rounds counted, over every seat. */
+	public int roundCount(){return this.rounds.size / 4;}
+	/** @return The number of seats filled. */
+	public int seatCount(){return this.seats.size / 2;}
+
+	/**
+	 * @param index A round, from 0 up to {@link #roundCount()}, over every seat.
+	 * @return The seat the round was for, starting from 1.
+	 */
+	public int getSeat(int index){return this.rounds.get(4 * index);}
+	/**
+	 * @param index A round, from 0 up to {@link #roundCount()}, over every seat.
+	 * @return The round's number within its seat, starting from 1.
+	 */
+	public int getRound(int index){return this.rounds.get(4 * index + 1);}
+	/**
+	 * @param index A round, from 0 up to {@link #roundCount()}, over every seat.
+	 * @return The ballots of the seat with nobody left in the running, as of the round.
+	 */
+	public int getExhausted(int index){return this.rounds.get(4 * index + 2);}
+	/**
+	 * @param index A round, from 0 up to {@link #roundCount()}, over every seat.
+	 * @return Each candidate's votes in the round, by ID.
+	 */
+	public int[] getFrequencies(int index)
+	{
+		int candidates = this.candidates.size();
+		return this.frequencies.range(index * candidates, (index + 1) * candidates);
+	}
+	/**
+	 * @param index A round, from 0 up to {@link #roundCount()}, over every seat.
+	 * @return The IDs of the candidates eliminated at the end of the round.
+	 */
+	public int[] getEliminated(int index)
+	{
+		return this.eliminated.range(index == 0 ? 0 : this.rounds.get(4 * index - 1), this.rounds.get(4 * index + 3));
+	}
+	/**
+	 * @param index A seat filled, from 0 up to {@link #seatCount()}.
+	 * @return The IDs of the candidates who won the seat.
+	 */
+	public int[] getWinners(int index)
+	{
+		return this.winners.range(index == 0 ? 0 : this.seats.get(2 * index - 1), this.seats.get(2 * index + 1));
+	}
+
+	/**
+	 * @return The trace of the latest tally, as JSON.
+	 * Each round's {@code "frequencies"} line up with the {@code "candidates"},
+	 * while eliminations and winners are given by name.
+	 */
+	public String toJson()
+	{
+		StringBuilder json = new StringBuilder("{\n  \"candidates\": [");
+		List<User> candidates = this.candidates == null ? Collections.<User>emptyList() : this.candidates;
+		for (int id = 0; id < candidates.size(); id++)
+			json.append(id == 0 ? "" : ", ").append(Metrics.quote(candidates.get(id).getName()));
+		json.append("],\n");
+
+		json.append("  \"rounds\": [");
+		String separator = "\n";
+		for (int index = 0; index < this.roundCount(); index++)
+		{
+			json.append(separator).append("    {\"seat\": ").append(this.getSeat(index))
+				.append(", \"round\": ").append(this.getRound(index))
+				.append(", \"frequencies\": ").append(Arrays.toString(this.getFrequencies(index)))
+				.append(", \"exhausted\": ").append(this.getExhausted(index))
+				.append(", \"eliminated\": ");
+			this.names(json, this.getEliminated(index));
+			json.append("}");
+			separator = ",\n";
+		}
+		json.append(this.roundCount() == 0 ? "],\n" : "\n  ],\n");
+
+		json.append("  \"seats\": [");
+		separator = "\n";
+		for (int index = 0; index < this.seatCount(); index++)
+		{
+			json.append(separator).append("    {\"seat\": ").append(this.seats.get(2 * index))
+				.append(", \"winners\": ");
+			this.names(json, this.getWinners(index));
+			json.append("}");
+			separator = ",\n";
+		}
+		json.append(this.seatCount() == 0 ? "]\n" : "\n  ]\n");
+		return json.append("}").toString();
+	}
+
+	@Override public String toString(){return this.toJson();}
+
+	// Writes the names of candidates as a JSON array.
+	private void names(StringBuilder json, int[] ids)
+	{
+		json.append('[');
+		for (int i = 0; i < ids.length; i++)
+			json.append(i == 0 ? "" : ", ").append(Metrics.quote(this.candidates.get(ids[i]).getName()));
+		json.append(']');
+	}
+}
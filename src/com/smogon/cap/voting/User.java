@@ -1,5 +1,14 @@
 package com.smogon.cap.voting;
 
+import java.lang.ref.Reference;
+import java.lang.ref.ReferenceQueue;
+import java.lang.ref.WeakReference;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
 /**
  * A representation of a user.
  * <p>
@@ -16,24 +25,161 @@ package com.smogon.cap.voting;
  * <p>
  * This class is preferred to a using {@code String} in the {@link Ballot} class
  * due to different definitions of equality (i.e., case insensitivity).
+ * <p>
+ * Names are interned: each distinct name is case-folded once, into a shared key with a cached hash,
+ * so {@code equals()} and {@code hashCode()} never allocate.
+ * Threads repeat the same few names over and over,
+ * so prefer {@link #of(String)}, which also shares the {@code User} itself.
+ * <p>
+ * A name is only interned while some {@code User} with it is still in use,
+ * so that a long-running {@link TallyServer} doesn't keep every name it has ever seen.
+ * Once a name is no longer in use, its ID is given to the next new name, which keeps IDs as dense as the names in use.
+ * Anything that tracks users by ID must therefore keep those users (or any equal ones) reachable meanwhile.
  */
 public class User
 {
+	// Interning pools, as pages may be scraped on several threads at once.
+	// SPELLINGS is read without a lock, so that names already in use never contend;
+	// it is only written, like the rest, under a lock on KEYS.
+	// A spelling lives as long as its User, and a folded name lives as long as its Key, which every User with the name holds.
+	private static final ConcurrentMap<String, SpellingReference> SPELLINGS = new ConcurrentHashMap<>(); // name -> User
+	private static final ReferenceQueue<User> UNUSED = new ReferenceQueue<>(); // Users no longer in use
+	private static final Map<String, KeyReference> KEYS = new HashMap<>(); // folded name -> Key
+	private static final ReferenceQueue<Key> RELEASED = new ReferenceQueue<>(); // Keys no longer in use
+	private static int[] freeIds = new int[16]; // IDs of released Keys, to hand out again
+	private static int freeCount = 0;
+	private static int nextId = 0;
+
+	// The identity shared by every User whose name folds to the same string.
+	private static final class Key
+	{
+		private final int id; // dense among the names in use
+		private final int hash;
+		private Key(int id, int hash)
+		{
+			this.id = id;
+			this.hash = hash;
+		}
+	}
+
+	// Keeps a Key's ID and name for after it is released, to free them both.
+	private static final class KeyReference extends WeakReference<Key>
+	{
+		private final int id;
+		private final String folded;
+		private KeyReference(Key key, String folded)
+		{
+			super(key, User.RELEASED);
+			this.id = key.id;
+			this.folded = folded;
+		}
+	}
+
+	// Keeps a User's name for after it is no longer in use, to drop its spelling.
+	private static final class SpellingReference extends WeakReference<User>
+	{
+		private final String name;
+		private SpellingReference(User user)
+		{
+			super(user, User.UNUSED);
+			this.name = user.name;
+		}
+	}
+
 	private final String name;
-	public User(String name){this.name = name;}
-	
+	private final Key key;
+
+	public User(String name){this(name, User.of(name).key);}
+	private User(String name, Key key)
+	{
+		this.name = name;
+		this.key = key;
+	}
+
+	/**
+	 * Returns the interned {@code User} for a name, creating it on first use.
+	 * The displayed name keeps its original capitalization.
+	 * @param name The user's name.
+	 * @return The one {@code User} with exactly this name.
+	 */
+	public static User of(String name)
+	{
+		SpellingReference spelling = User.SPELLINGS.get(name);
+		User user = spelling == null ? null : spelling.get();
+		if (user != null) return user;
+
+		synchronized (User.KEYS)
+		{
+			User.release();
+			spelling = User.SPELLINGS.get(name); // another thread may have interned it meanwhile
+			user = spelling == null ? null : spelling.get();
+			if (user != null) return user;
+
+			String folded = User.fold(name);
+			KeyReference reference = User.KEYS.get(folded);
+			Key key = reference == null ? null : reference.get();
+			if (key == null)
+			{
+				int id = User.freeCount > 0 ? User.freeIds[--User.freeCount] : User.nextId++;
+				key = new Key(id, folded.hashCode());
+				User.KEYS.put(folded, new KeyReference(key, folded));
+			}
+			user = new User(name, key);
+			User.SPELLINGS.put(user.name, new SpellingReference(user)); // replacing any stale entry, with its old key
+			return user;
+		}
+	}
+
+	// Drops the spellings of Users, and frees the names and IDs of Keys, no longer in use. Called under the lock.
+	private static void release()
+	{
+		for (Reference<? extends User> unused; (unused = User.UNUSED.poll()) != null;)
+			User.SPELLINGS.remove(((SpellingReference) unused).name, unused);
+		for (Reference<? extends Key> released; (released = User.RELEASED.poll()) != null;)
+		{
+			KeyReference reference = (KeyReference) released;
+			if (User.KEYS.get(reference.folded) == reference) User.KEYS.remove(reference.folded);
+			if (User.freeCount == User.freeIds.length) User.freeIds = Arrays.copyOf(User.freeIds, 2 * User.freeCount);
+			User.freeIds[User.freeCount++] = reference.id;
+		}
+	}
+
+	/** @return The number of distinct names interned and still in use, give or take any not yet collected. */
+	static int internedCount()
+	{
+		synchronized (User.KEYS)
+		{
+			User.release();
+			return User.KEYS.size();
+		}
+	}
+
+	// Case-folds a name the same way as String.CASE_INSENSITIVE_ORDER,
+	// which is locale-independent (unlike String.toLowerCase()).
+	private static String fold(String name)
+	{
+		char[] folded = new char[name.length()];
+		for (int i = 0; i < folded.length; i++)
+			folded[i] = Character.toLowerCase(Character.toUpperCase(name.charAt(i)));
+		return new String(folded);
+	}
+
 	public String getName(){return this.name;}
-	
+	/**
+	 * @return An ID shared by every {@code User} equal to this one,
+	 * and by no other {@code User}.
+	 */
+	public int getId(){return this.key.id;}
+
 	@Override public boolean equals(Object o)
 	{
 		if (!(o instanceof User)) return false;
 		User u = (User) o;
-		return this.name.toLowerCase().equals(u.name.toLowerCase());
-			
+		return this.key == u.key; // keys are interned
 	}
 	@Override public int hashCode()
 	{
-		return this.name.toLowerCase().hashCode();
+		return this.key.hash;
 	}
 	@Override public String toString(){return this.name;}
 }
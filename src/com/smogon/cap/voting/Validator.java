@@ -0,0 +1,233 @@
+package com.smogon.cap.voting;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.Collection;
+import java.util.EnumSet;
+import java.util.List;
+import java.util.Set;
+import java.util.function.Consumer;
+
+/**
+ * Checks ballots for problems one at a time, as they are scraped,
+ * and reports each problem as a {@link Violation} rather than printing it.
+ * <p>
+ * A validator is a {@link Consumer} of ballots, so it can be chained onto whatever else consumes them
+ * (e.g. a {@link Poll.Accumulator}) and never needs a pass of its own over the ballots.
+ * It remembers every voter it has seen, so it should see each ballot exactly once.
+ * <p>
+ * Voters and options are tracked by {@link User#getId()} in primitive sets that are reused from ballot to ballot
+ * (keeping the users themselves, so that their IDs stay theirs),
+ * so checking a ballot only allocates to grow those sets, or to report a rule it breaks.
+ * <p>
+ * By default, only the rules that need no configuration are checked:
+ * {@link Rule#REPEATED_VOTER}, {@link Rule#EMPTY_BALLOT} and {@link Rule#REPEATED_OPTION}.
+ * The others are turned on by {@link #withMaxVotes(int)} and {@link #withCandidates(Collection)}.
+ */
+public final class Validator implements Consumer<Ballot>
+{
+	/**
+	 * The rules a ballot can break.
+	 */
+	public enum Rule
+	{
+		/** A voter has already cast a ballot. */
+		REPEATED_VOTER,
+		/** A ballot has no votes. */
+		EMPTY_BALLOT,
+		/** A ballot votes for the same option more than once. */
+		REPEATED_OPTION,
+		/** A ballot votes for more options than allowed. */
+		OVERLONG_BALLOT,
+		/** A ballot votes for an option that isn't a candidate. */
+		UNKNOWN_CANDIDATE
+	}
+
+	/**
+	 * A rule broken by a ballot.
+	 */
+	public static final class Violation
+	{
+		private final Rule rule;
+		private final int row;
+		private final User voter;
+		private final User option; // null unless the rule is about one option
+		private final String detail;
+
+		private Violation(Rule rule, int row, User voter, User option, String detail)
+		{
+			this.rule = rule;
+			this.row = row;
+			this.voter = voter;
+			this.option = option;
+			this.detail = detail;
+		}
+
+		// Getters
+		public Rule getRule(){return this.rule;}
+		/** @return The position of the ballot among those validated, counting from 0. */
+		public int getRow(){return this.row;}
+		public User getVoter(){return this.voter;}
+		/** @return The option the violation is about, or null if it is about the whole ballot. */
+		public User getOption(){return this.option;}
+
+		@Override public String toString(){return "Invalid vote detected: " + this.voter + " " + this.detail;}
+	}
+
+	private final Consumer<? super Violation> sink;
+	private final Set<Rule> rules = EnumSet.of(Rule.REPEATED_VOTER, Rule.EMPTY_BALLOT, Rule.REPEATED_OPTION);
+	private int maxVotes = Integer.MAX_VALUE;
+	private final BitSet candidates = new BitSet(); // by User ID
+	private final List<User> slate = new ArrayList<>(); // keeps the candidates' IDs in use
+
+	private final BitSet voters = new BitSet(); // by User ID
+	private final List<User> seen = new ArrayList<>(); // keeps the voters' IDs in use
+	private int[] stamps = new int[64]; // User ID -> the last row + 1 that voted for them
+	private int[] ids = new int[16]; // the current ballot's votes, by User ID
+	private int row = 0;
+
+	/**
+	 * @param sink Where to report violations, in the order they are found.
+	 */
+	public Validator(Consumer<? super Violation> sink){this.sink = sink;}
+
+	// Configuration
+
+	/**
+	 * Also checks that no ballot votes for more than a number of options.
+	 * @param maxVotes The most options a ballot may vote for.
+	 * @return This validator.
+	 */
+	public Validator withMaxVotes(int maxVotes)
+	{
+		this.maxVotes = maxVotes;
+		this.rules.add(Rule.OVERLONG_BALLOT);
+		return this;
+	}
+
+	/**
+	 * Also checks that every vote is for one of the candidates.
+	 * @param candidates The options that may be voted for.
+	 * @return This validator.
+	 */
+	public Validator withCandidates(Collection<User> candidates)
+	{
+		for (User candidate: candidates) this.candidates.set(candidate.getId());
+		this.slate.addAll(candidates);
+		this.rules.add(Rule.UNKNOWN_CANDIDATE);
+		return this;
+	}
+
+	/**
+	 * Stops checking a rule.
+	 * @param rule The rule to ignore.
+	 * @return This validator.
+	 */
+	public Validator without(Rule rule)
+	{
+		this.rules.remove(rule);
+		return this;
+	}
+
+	// Validation
+
+	/**
+	 * Checks a ballot, reporting every rule it breaks.
+	 * @param ballot The next ballot.
+	 */
+	@Override
+	public void accept(Ballot ballot)
+	{
+		List<User> votes = ballot.getVotes();
+		int[] ids = this.reserve(votes.size());
+		for (int i = 0; i < votes.size(); i++) ids[i] = votes.get(i).getId();
+		this.check(ballot.getVoter(), votes.size(), votes, null, null, 0);
+	}
+
+	/**
+	 * Checks every row of a matrix, as if each were a ballot passed to {@link #accept(Ballot)}.
+	 * @param matrix The ballots to check.
+	 * @throws UnsupportedOperationException If the matrix is aggregated, as rows no longer have a single voter.
+	 */
+	public void accept(BallotMatrix matrix)
+	{
+		if (matrix.isAggregated()) throw new UnsupportedOperationException("Validate ballots before aggregating them");
+		int[] userIds = new int[matrix.candidateCount()]; // candidate ID -> User ID
+		for (int id = 0; id < userIds.length; id++) userIds[id] = matrix.candidates[id].getId();
+
+		for (int row = 0; row < matrix.size(); row++)
+		{
+			int start = matrix.offsets[row];
+			int length = matrix.offsets[row + 1] - start;
+			int[] ids = this.reserve(length);
+			for (int i = 0; i < length; i++) ids[i] = userIds[matrix.choices[start + i]];
+			this.check(matrix.voters[row], length, null, matrix.candidates, matrix.choices, start);
+		}
+	}
+
+	// Helper functions
+
+	// The scratch array for a ballot's votes, with room for at least some number of votes.
+	private int[] reserve(int length)
+	{
+		if (length > this.ids.length) this.ids = new int[Math.max(length, 2 * this.ids.length)];
+		return this.ids;
+	}
+
+	// The same checks as Ballot.validate(), plus the configurable ones, on the votes in this.ids.
+	// The users voted for, to report, are either the ballot's votes, or else candidates[choices[start + i]] of a matrix,
+	// passed as they are so that nothing is allocated to look them up.
+	private void check(User voter, int length, List<User> votes, User[] candidates, int[] choices, int start)
+	{
+		int row = this.row++;
+		int stamp = row + 1;
+
+		// Ensure each voter voted once.
+		if (this.voters.get(voter.getId()))
+		{
+			if (this.rules.contains(Rule.REPEATED_VOTER)) this.report(Rule.REPEATED_VOTER, row, voter, null, "repeated post.");
+		}
+		else
+		{
+			this.voters.set(voter.getId());
+			this.seen.add(voter);
+		}
+
+		// Ensure voter made at least one vote, and not too many.
+		if (length == 0 && this.rules.contains(Rule.EMPTY_BALLOT)) this.report(Rule.EMPTY_BALLOT, row, voter, null, "made no votes.");
+		if (length > this.maxVotes && this.rules.contains(Rule.OVERLONG_BALLOT))
+			this.report(Rule.OVERLONG_BALLOT, row, voter, null, "made " + length + " votes, more than " + this.maxVotes + ".");
+
+		boolean repeats = this.rules.contains(Rule.REPEATED_OPTION);
+		boolean unknowns = this.rules.contains(Rule.UNKNOWN_CANDIDATE);
+		for (int i = 0; i < length; i++)
+		{
+			int id = this.ids[i];
+			if (id >= this.stamps.length) this.stamps = Arrays.copyOf(this.stamps, Math.max(id + 1, 2 * this.stamps.length));
+
+			// Ensure each voter voted for at most one instance of each option.
+			if (this.stamps[id] == stamp)
+			{
+				if (repeats)
+				{
+					User option = votes != null ? votes.get(i) : candidates[choices[start + i]];
+					this.report(Rule.REPEATED_OPTION, row, voter, option, "repeated vote " + option);
+				}
+			}
+			else this.stamps[id] = stamp;
+
+			// Ensure each vote is for a candidate.
+			if (unknowns && !this.candidates.get(id))
+			{
+				User option = votes != null ? votes.get(i) : candidates[choices[start + i]];
+				this.report(Rule.UNKNOWN_CANDIDATE, row, voter, option, "voted for " + option + ", who isn't a candidate.");
+			}
+		}
+	}
+
+	private void report(Rule rule, int row, User voter, User option, String detail)
+	{
+		this.sink.accept(new Violation(rule, row, voter, option, detail));
+	}
+}
@@ -1,38 +1,49 @@
 package com.smogon.cap.voting;
 
-import org.jsoup.Jsoup;
+import org.jsoup.nodes.Comment;
+import org.jsoup.nodes.DataNode;
 import org.jsoup.nodes.Document;
 import org.jsoup.nodes.Element;
-import org.jsoup.safety.Whitelist;
+import org.jsoup.nodes.Node;
+import org.jsoup.nodes.TextNode;
 import org.jsoup.select.Elements;
+import org.jsoup.select.Evaluator;
 
 import java.io.IOException;
 import java.net.URL;
-import java.util.Arrays;
+import java.util.ArrayList;
 import java.util.List;
 import java.util.function.Function;
-import java.util.stream.Collectors;
 
 /**
  * A class that scrapes a XenForo thread and collects the posts in the thread,
  * converting them into a {@code List} of {@link Ballot Ballots} for use by a voting algorithm.
+ * <p>
+ * Where the scraper looks for each part of a post or page comes from a {@link ForumProfile},
+ * so that forums with other skins can be scraped by writing a profile for them.
  */
 public class XenForoScraper extends ThreadScraper
 {
+	private final ForumProfile profile;
+
+	/**
+	 * Scrapes a XenForo 2 forum.
+	 */
+	public XenForoScraper(){this(ForumProfile.XENFORO);}
+
+	/**
+	 * @param profile Where the forum keeps posts and page links.
+	 */
+	public XenForoScraper(ForumProfile profile){this.profile = profile;}
+
 	/**
 	 * {@inheritDoc}
 	 */
 	@Override
 	protected Elements getPosts(Document page) {
-		return page.select(".block-body .message");
+		return ForumProfile.select(this.profile.posts, page);
 	}
 
-
-	// Static constants
-	private final String TAGNAME = "br";
-	private final String TAG = "<" + this.TAGNAME + ">";
-	private final Whitelist WHITELIST = Whitelist.none().addTags(this.TAGNAME); // For Jsoup
-
 	/**
 	 * Given an HTML element representing a user's post,
 	 * this parser uses the {@code <br>} tags in the post
@@ -42,33 +53,171 @@ public class XenForoScraper extends ThreadScraper
 	 * Once the post encounters two consecutive {@code <br>} tags,
 	 * the post is assumed to have reached comments
 	 * and so the rest of the text is ignored.
+	 * <p>
+	 * The parser reads the post's nodes directly (see {@link Lines})
+	 * instead of writing the post back out as HTML and cleaning it,
+	 * but reads each line exactly as the cleaned HTML would.
 	 */
 	private Function<Element, Ballot> parser = post ->
 	{
 		// Find the user who made the post.
-		User voter = new User(post.attr("data-author"));
+		User voter = User.of(this.author(post));
 
-		// Get the post message in HTML form.
-		String html = post.select(".bbWrapper").outerHtml();
-		// Remove all HTML except whitelisted tags.
-		String text = Jsoup.clean(html, WHITELIST).trim();
+		// Split the post message into the text between each pair of tags.
+		List<String> lines = this.lines(post);
 
-		// Truncate the HTML to only the part before the comment.
-		// http://stackoverflow.com/a/4972126
-		// Regex: tag followed by any number of whitespace characters followed by another tag
-		String divider = this.TAG + "[ \\t\\n]*" + TAG;
-		String votesPart = text.split(divider, 2)[0];
+		// Truncate the lines to only the part before the comment,
+		// i.e., before the first blank line between two tags.
+		int end = lines.size();
+		for (int i = 1; i < lines.size() - 1; i++)
+		{
+			if (Lines.isBlank(lines.get(i)))
+			{
+				end = i;
+				break;
+			}
+		}
+
+		// Drop empty lines at the end of the ballot.
+		// Only the first and last lines can be empty: any other line ends in the whitespace before its tag.
+		if (end > 1)
+		{
+			if (end == lines.size() && lines.get(end - 1).trim().isEmpty()) end--;
+			if (end == 1 && lines.get(0).trim().isEmpty()) end--;
+		}
 
 		// Create a vote for every line in the truncated section.
-		List<User> votes = Arrays.stream(votesPart.split(TAG))
-			.map(String::trim) // trim whitespace
-			.map(User::new)
-			.collect(Collectors.toList());
+		List<User> votes = new ArrayList<>(end);
+		for (int i = 0; i < end; i++) votes.add(User.of(lines.get(i).trim()));
 
 		// Create the ballot from the data.
 		return new Ballot(voter, votes);
 	};
 
+	/**
+	 * The text of a post, split into lines at each divider (normally a {@code <br>} tag).
+	 * <p>
+	 * Jsoup only loses a post's formatting when writing it out as text,
+	 * so this walks the post's nodes and writes down what the cleaned HTML would say:
+	 * <ul>
+	 *     <li>Text is escaped as HTML and each run of whitespace becomes a single space;</li>
+	 *     <li>Tags other than {@code <br>} are dropped,
+	 *     except that Jsoup's pretty-printing adds whitespace around some of them;</li>
+	 *     <li>Comments and the contents of scripts and styles are dropped entirely.</li>
+	 * </ul>
+	 * Whitespace is only ever collapsed within the text between two tags, as in the cleaned HTML.
+	 */
+	private static final class Lines
+	{
+		private final Evaluator divider;
+		private final List<String> lines = new ArrayList<>();
+		private final StringBuilder line = new StringBuilder(); // the current line, escaped
+		private final StringBuilder text = new StringBuilder(); // the raw text since the last tag
+		private boolean written; // whether the wrapper being read would have written anything yet
+
+		Lines(Elements wrappers, Evaluator divider)
+		{
+			this.divider = divider;
+			for (int i = 0; i < wrappers.size(); i++)
+			{
+				if (i > 0) this.text.append('\n'); // outerHtml() puts wrappers on separate lines
+				this.written = false;
+				this.read(wrappers.get(i));
+			}
+			this.tag();
+			this.lines.add(this.line.toString());
+		}
+
+		// Mirrors Node.outerHtml(), with every tag collapsed to a call to tag().
+		private void read(Node node)
+		{
+			if (node instanceof TextNode)
+			{
+				TextNode text = (TextNode) node;
+				if (node.siblingIndex() == 0 && Lines.isBlock(node.parent()) && !text.isBlank()) this.text.append(' ');
+				this.text.append(text.getWholeText());
+				this.written |= this.text.length() > 0;
+			}
+			else if (node instanceof Element)
+			{
+				Element element = (Element) node;
+				if (this.written && (element.tag().formatAsBlock() || Lines.isBlock(element.parent()))) this.text.append(' ');
+				this.tag();
+				this.written = true;
+				if (element.is(this.divider))
+				{
+					this.lines.add(this.line.toString());
+					this.line.setLength(0);
+				}
+
+				for (Node child: element.childNodes()) this.read(child);
+
+				if (element.childNodeSize() > 0 || !element.tag().isSelfClosing())
+				{
+					if (element.childNodeSize() > 0 && element.tag().formatAsBlock()) this.text.append(' ');
+					this.tag();
+				}
+			}
+			else if (node instanceof Comment)
+			{
+				this.text.append(' ');
+				this.tag();
+				this.written = true;
+			}
+			else if (node instanceof DataNode) this.written |= !((DataNode) node).getWholeData().isEmpty(); // script or style
+		}
+
+		// Ends the text between two tags, adding it to the current line.
+		private void tag()
+		{
+			boolean white = false;
+			for (int i = 0; i < this.text.length(); i++)
+			{
+				char c = this.text.charAt(i);
+				switch (c)
+				{
+					case ' ': case '\t': case '\n': case '\f': case '\r':
+						if (!white) this.line.append(' ');
+						white = true;
+						continue;
+					case '&': this.line.append("&amp;"); break;
+					case '<': this.line.append("&lt;"); break;
+					case '>': this.line.append("&gt;"); break;
+					case '\u00a0': this.line.append("&nbsp;"); break;
+					default: this.line.append(c);
+				}
+				white = false;
+			}
+			this.text.setLength(0);
+		}
+
+		private static boolean isBlock(Node node)
+		{
+			return node instanceof Element && ((Element) node).tag().formatAsBlock();
+		}
+
+		// Whether a line is only the whitespace between two tags.
+		static boolean isBlank(String line)
+		{
+			for (int i = 0; i < line.length(); i++) if (line.charAt(i) != ' ') return false;
+			return true;
+		}
+	}
+
+	// Splits the body of a post into lines, as the profile says.
+	private List<String> lines(Element post)
+	{
+		return new Lines(ForumProfile.select(this.profile.body, post), this.profile.divider).lines;
+	}
+
+	// Reads the author of a post, as the profile says.
+	private String author(Element post)
+	{
+		Element author = this.profile.author == null ? post : ForumProfile.select(this.profile.author, post).first();
+		if (author == null) return "";
+		return this.profile.authorAttribute.isEmpty() ? author.text() : author.attr(this.profile.authorAttribute);
+	}
+
 	/**
 	 * This method could be left abstract and filled via an anonymous subclass.
 	 * Anonymous subclasses are more convenient when a script needs
@@ -86,27 +235,104 @@ public class XenForoScraper extends ThreadScraper
 	@Override
 	protected URL findNextLink(Document page)
 	{
+		Element next = ForumProfile.select(this.profile.next, page).first();
+		if (next == null || next.attr("abs:href").isEmpty()) return null; // If we find no 'next' button, we're at the last page.
+
+		// We want the absolute URL, hence why we use the 'abs' attribute prefix.
+		// https://jsoup.org/cookbook/extracting-data/working-with-urls
+		try {return new URL(next.attr("abs:href"));}
+		catch (IOException e){throw new AssertionError(e);}
+	}
+
+	/**
+	 * {@inheritDoc}
+	 * <p>
+	 * XenForo's page navigation links to the first and last pages of the thread
+	 * (and a few pages around the current one), as {@code .../page-N}
+	 * (or whatever prefix the profile gives).
+	 * The links to the pages in between are filled in from the last one.
+	 * <p>
+	 * XenForo leaves the navigation out of a thread with a single page,
+	 * so a page without one can't be told apart from a skin the profile doesn't match,
+	 * and gets null, to be followed by {@link #findNextLink(Document)}.
+	 */
+	@Override
+	protected List<URL> findLaterLinks(Document page)
+	{
+		List<URL> links = new ArrayList<>();
+		Element current = ForumProfile.select(this.profile.current, page).first();
+		Element last = ForumProfile.select(this.profile.pages, page).last();
+		if (current == null || last == null) return null; // no navigation bar found
+
 		try
 		{
-			// Use CSS query syntax to find the navigation bar to the next page.
-			Elements nextElements = page
-				.select(".PageNav") // Select navigation bar.
-				.select("pageNav-jump")
-				.select(".text") // Select prev/next button on the navbar.
-				.select(":contains(next)"); // If inner HTML has 'next', it's the 'next' button.
-			if (nextElements.isEmpty()) return null; // If we find no 'next' button, we're at the last page.
-
-			// We want the absolute URL, hence why we use the 'abs' attribute prefix.
-			// https://jsoup.org/cookbook/extracting-data/working-with-urls
-			return new URL(nextElements.first().attr("abs:href"));
+			int currentNumber = Integer.parseInt(current.text().trim());
+			int lastNumber = Integer.parseInt(last.text().trim());
+			if (lastNumber <= currentNumber) return links; // already on the last page
+			String lastLink = last.attr("abs:href");
+			String lastSuffix = this.profile.pagesPrefix + lastNumber;
+			if (!lastLink.contains(lastSuffix)) return null; // not a link format we know how to fill in
+
+			int at = lastLink.lastIndexOf(lastSuffix);
+			for (int number = currentNumber + 1; number <= lastNumber; number++)
+				links.add(new URL(lastLink.substring(0, at) + this.profile.pagesPrefix + number + lastLink.substring(at + lastSuffix.length())));
+			return links;
 		}
+		catch (NumberFormatException e){return null;} // e.g., an unexpected skin
 		catch (IOException e){throw new AssertionError(e);}
 	}
 
+	/**
+	 * {@inheritDoc}
+	 * <p>
+	 * XenForo marks the current page in its page navigation.
+	 * A page without one, such as the only page of a thread, is numbered from its canonical link,
+	 * which ends in {@code page-N} (or whatever prefix the profile gives) past the first page.
+	 */
+	@Override
+	protected int findPageNumber(Document page)
+	{
+		Element current = ForumProfile.select(this.profile.current, page).first();
+		if (current != null)
+		{
+			try {return Integer.parseInt(current.text().trim());}
+			catch (NumberFormatException e){return -1;} // e.g., an unexpected skin
+		}
+
+		Element canonical = page.select("link[rel=canonical]").first();
+		if (canonical == null) return -1;
+		String path;
+		try {path = new URL(canonical.attr("abs:href")).getPath();}
+		catch (IOException e){return -1;} // not a link at all
+		if (path.endsWith("/")) path = path.substring(0, path.length() - 1);
+		String last = path.substring(path.lastIndexOf('/') + 1);
+		if (!last.startsWith(this.profile.pagesPrefix)) return 1;
+		try {return Integer.parseInt(last.substring(this.profile.pagesPrefix.length()));}
+		catch (NumberFormatException e){return -1;}
+	}
+
+	/**
+	 * {@inheritDoc}
+	 * <p>
+	 * XenForo marks each post with {@code data-content="post-<ID>"},
+	 * or as the profile says.
+	 */
 	@Override
-	public List<Ballot> makeBallots(URL link) {
-		List<Ballot> ballots = super.makeBallots(link);
-		ballots.remove(0); // Skip the opening post.
-		return ballots;
+	protected long getPostId(Element post)
+	{
+		if (this.profile.idAttribute.isEmpty()) return -1;
+		String content = post.attr(this.profile.idAttribute);
+		if (!content.startsWith(this.profile.idPrefix)) return -1;
+		try {return Long.parseLong(content.substring(this.profile.idPrefix.length()));}
+		catch (NumberFormatException e){return -1;}
 	}
+
+	/**
+	 * {@inheritDoc}
+	 * <p>
+	 * XenForo threads open with a post that introduces the poll,
+	 * unless the profile says otherwise.
+	 */
+	@Override
+	protected boolean skipsOpeningPost(){return this.profile.skipsOpeningPost;}
 }
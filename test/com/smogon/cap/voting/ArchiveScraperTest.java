@@ -0,0 +1,125 @@
+package com.smogon.cap.voting;
+
+import org.junit.Test;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipOutputStream;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class ArchiveScraperTest
+{
+	@Test
+	public void testDirectory() throws IOException
+	{
+		Path directory = Files.createTempDirectory("saved-thread");
+		try (ForumStandIn forum = new ForumStandIn(12, 5))
+		{
+			// Saved in reverse, so that page order can't come from the file system.
+			for (int page = forum.pages(); page >= 1; page--)
+				Files.write(directory.resolve("page-" + page + ".html"), forum.page(page).getBytes(StandardCharsets.UTF_8));
+			Files.write(directory.resolve("notes.txt"), "not a page".getBytes(StandardCharsets.UTF_8));
+
+			ArchiveScraper scraper = new ArchiveScraper(new XenForoScraper());
+			List<Ballot> live = new XenForoScraper().makeBallots(forum.link(1), 4);
+			assertEquals(live, scraper.makeBallots(directory.toUri().toURL()));
+			assertEquals(live, scraper.makeBallots(directory.toUri().toURL(), 1));
+
+			List<Ballot> iterated = new ArrayList<>();
+			scraper.iterateBallots(directory.toUri().toURL()).forEachRemaining(iterated::add);
+			assertEquals(live, iterated);
+		}
+	}
+
+	@Test
+	public void testPageNumbersFromPages() throws IOException
+	{
+		Path directory = Files.createTempDirectory("saved-thread");
+		try (ForumStandIn forum = new ForumStandIn(3, 4))
+		{
+			// As a browser names copies, with the numbers in the names the wrong way round.
+			String[] names = {"Test poll (2).html", "Test poll (1).html", "Test poll.html"};
+			for (int page = 1; page <= forum.pages(); page++)
+				Files.write(directory.resolve(names[page - 1]), forum.page(page).getBytes(StandardCharsets.UTF_8));
+			ArchiveScraper scraper = new ArchiveScraper(new XenForoScraper());
+			assertEquals(new XenForoScraper().makeBallots(forum.link(1), 4), scraper.makeBallots(directory.toUri().toURL()));
+
+			// Without the first page, there is no opening post to skip.
+			Files.delete(directory.resolve(names[0]));
+			List<Ballot> expected = new ArrayList<>();
+			for (int post = 4; post < forum.posts(); post++) expected.add(ForumStandIn.ballot(post));
+			assertEquals(expected, scraper.makeBallots(directory.toUri().toURL()));
+
+			// Two copies of a page can't be put in order.
+			Files.write(directory.resolve("copy.html"), forum.page(2).getBytes(StandardCharsets.UTF_8));
+			try
+			{
+				scraper.makeBallots(directory.toUri().toURL());
+				fail("Expected duplicate pages to fail");
+			}
+			catch (IllegalArgumentException e){assertTrue(e.getMessage(), e.getMessage().contains("both page 2"));}
+		}
+	}
+
+	@Test
+	public void testUnnumberedPages() throws IOException
+	{
+		Path directory = Files.createTempDirectory("saved-thread");
+		try (ForumStandIn single = new ForumStandIn(1, 4))
+		{
+			// A thread of one page has no page navigation, and needs none.
+			Files.write(directory.resolve("poll.html"), single.page(1).getBytes(StandardCharsets.UTF_8));
+			List<Ballot> expected = new XenForoScraper().makeBallots(single.link(1));
+			assertEquals(expected, new ArchiveScraper(new XenForoScraper()).makeBallots(directory.toUri().toURL()));
+
+			// Alongside another page, it could be any page of the thread.
+			Files.write(directory.resolve("other.html"), single.page(1).getBytes(StandardCharsets.UTF_8));
+			try
+			{
+				new ArchiveScraper(new XenForoScraper()).makeBallots(directory.toUri().toURL());
+				fail("Expected unnumbered pages to fail");
+			}
+			catch (IllegalArgumentException e){assertTrue(e.getMessage(), e.getMessage().startsWith("Can't tell which page"));}
+
+			// Unless its canonical link says.
+			String canonical = "<link rel=\"canonical\" href=\"https://example.com/threads/test-poll.1/page-%d\">";
+			Files.write(directory.resolve("poll.html"), single.page(1).replace("<head>", "<head>" + String.format(canonical, 2))
+				.getBytes(StandardCharsets.UTF_8));
+			Files.write(directory.resolve("other.html"), single.page(1).replace("<head>", "<head>" + String.format(canonical, 7))
+				.getBytes(StandardCharsets.UTF_8));
+			List<Ballot> twice = new ArrayList<>();
+			for (int copy = 0; copy < 2; copy++)
+				for (int post = 0; post < single.posts(); post++) twice.add(ForumStandIn.ballot(post));
+			assertEquals(twice, new ArchiveScraper(new XenForoScraper()).makeBallots(directory.toUri().toURL()));
+		}
+	}
+
+	@Test
+	public void testZip() throws IOException
+	{
+		Path archive = Files.createTempFile("saved-thread", ".zip");
+		try (ForumStandIn forum = new ForumStandIn(3, 4))
+		{
+			try (ZipOutputStream zip = new ZipOutputStream(Files.newOutputStream(archive)))
+			{
+				for (int page = 1; page <= forum.pages(); page++)
+				{
+					zip.putNextEntry(new ZipEntry("test-poll/page-" + page + ".htm"));
+					zip.write(forum.page(page).getBytes(StandardCharsets.UTF_8));
+				}
+			}
+
+			List<Ballot> ballots = new ArchiveScraper(new XenForoScraper()).makeBallots(archive.toUri().toURL());
+			assertEquals(new XenForoScraper().makeBallots(forum.link(1), 4), ballots);
+			assertEquals(forum.posts() - 1, ballots.size());
+		}
+	}
+}
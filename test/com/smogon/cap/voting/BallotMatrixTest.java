@@ -0,0 +1,76 @@
+package com.smogon.cap.voting;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+public class BallotMatrixTest
+{
+	private static Ballot ballot(String voter, String... votes)
+	{
+		List<User> users = new ArrayList<>();
+		for (String vote: votes) users.add(User.of(vote));
+		return new Ballot(User.of(voter), users);
+	}
+
+	@Test
+	public void testAggregate()
+	{
+		BallotMatrix matrix = BallotMatrix.of(Arrays.asList(
+			BallotMatrixTest.ballot("V1", "A", "B"),
+			BallotMatrixTest.ballot("V2", "B"),
+			BallotMatrixTest.ballot("V3", "A", "A", "B"), // the same as V1's, once normalized
+			BallotMatrixTest.ballot("V4"),
+			BallotMatrixTest.ballot("V5", "B"),
+			BallotMatrixTest.ballot("V6")));
+		assertFalse(matrix.isAggregated());
+		assertEquals(6, matrix.size());
+		assertEquals(6, matrix.ballotCount());
+
+		BallotMatrix aggregated = matrix.aggregate();
+		assertTrue(aggregated.isAggregated());
+		assertSame(aggregated, aggregated.aggregate());
+		assertEquals(3, aggregated.size());
+		assertEquals(6, aggregated.ballotCount());
+		assertEquals(matrix.candidateCount(), aggregated.candidateCount());
+		assertEquals(matrix.getCandidate(1), aggregated.getCandidate(1));
+
+		// Rows keep the order they first appeared in.
+		assertArrayEquals(new int[]{0, 1, 1}, aggregated.choices);
+		assertArrayEquals(new int[]{0, 2, 3, 3}, aggregated.offsets);
+		assertEquals(2, aggregated.getWeight(0));
+		assertEquals(2, aggregated.getWeight(1));
+		assertEquals(2, aggregated.getWeight(2));
+	}
+
+	@Test(expected = UnsupportedOperationException.class)
+	public void testAggregatedHasNoVoters()
+	{
+		BallotMatrix.of(Arrays.asList(BallotMatrixTest.ballot("V1", "A"))).aggregate().getVoter(0);
+	}
+
+	@Test
+	public void testAggregatedTallies()
+	{
+		Random random = new Random(17);
+		for (int trial = 0; trial < 1_000; trial++)
+		{
+			BallotMatrix matrix = BallotMatrix.of(PollsTest.randomBallots(random, random.nextInt(100), 1 + random.nextInt(5)));
+			for (Polls poll: Polls.values())
+			{
+				if (poll == Polls.AV) continue; // counts repeated votes, which aggregating drops
+				assertEquals(poll + " on trial " + trial,
+					new ArrayList<>(poll.tally(matrix)), new ArrayList<>(poll.tally(matrix.aggregate())));
+			}
+		}
+	}
+}
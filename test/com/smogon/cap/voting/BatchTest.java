@@ -0,0 +1,82 @@
+package com.smogon.cap.voting;
+
+import org.junit.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.PrintStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class BatchTest
+{
+	// What the script would show for one poll.
+	private static String section(Poll poll, List<Ballot> ballots)
+	{
+		StringBuilder section = new StringBuilder(poll + " results:" + System.lineSeparator());
+		for (Poll.Entry entry: poll.tally(ballots)) section.append(entry).append(System.lineSeparator());
+		return section.toString();
+	}
+
+	@Test
+	public void testScrapesOnce() throws IOException
+	{
+		Path snapshot = Files.createTempFile("batch", ".snapshot");
+		List<Ballot> saved = PollsTest.randomBallots(new Random(21), 50, 5);
+		Snapshot.write(snapshot, saved);
+		try (ForumStandIn forum = new ForumStandIn(6, 4))
+		{
+			Path manifest = Files.createTempFile("batch", ".txt");
+			Files.write(manifest, Arrays.asList(
+				"# A thread, and a snapshot of another",
+				forum.link(1) + " FPTPV IRV PBV:2 SCHULZE",
+				"",
+				snapshot + "   PBV AV"), StandardCharsets.UTF_8);
+
+			ByteArrayOutputStream report = new ByteArrayOutputStream();
+			new Batch(new XenForoScraper(), 2, 3).run(Batch.read(manifest), new PrintStream(report, true, "UTF-8"));
+			String text = new String(report.toByteArray(), StandardCharsets.UTF_8);
+			assertEquals(6, forum.requests()); // each page once, for all four polls
+
+			List<Ballot> scraped = new XenForoScraper().makeBallots(forum.link(1), 2);
+			for (Poll poll: new Poll[]{Polls.FPTPV, Polls.IRV, new RunoffPoll(2), Polls.SCHULZE})
+				assertTrue(poll.toString(), text.contains(BatchTest.section(poll, scraped)));
+			for (Poll poll: new Poll[]{Polls.PBV, Polls.AV})
+				assertTrue(poll.toString(), text.contains(BatchTest.section(poll, saved)));
+			assertTrue(text.indexOf(forum.link(1).toString()) < text.indexOf(snapshot.toString()));
+		}
+	}
+
+	@Test
+	public void testCarriesOn() throws IOException
+	{
+		try (ForumStandIn forum = new ForumStandIn(2, 4))
+		{
+			Path manifest = Files.createTempFile("batch", ".txt");
+			Files.write(manifest, Arrays.asList(
+				forum.link(5) + " IRV", // past the end of the thread
+				forum.link(1) + " IRV"), StandardCharsets.UTF_8);
+
+			ByteArrayOutputStream report = new ByteArrayOutputStream();
+			new Batch(new XenForoScraper(), 2, 1).run(Batch.read(manifest), new PrintStream(report, true, "UTF-8"));
+			String text = new String(report.toByteArray(), StandardCharsets.UTF_8);
+			assertTrue(text, text.contains("Couldn't scrape the thread"));
+			assertTrue(text, text.contains(BatchTest.section(Polls.IRV, new XenForoScraper().makeBallots(forum.link(1), 2))));
+		}
+	}
+
+	@Test(expected = IllegalArgumentException.class)
+	public void testUnknownPoll() throws IOException
+	{
+		Path manifest = Files.createTempFile("batch", ".txt");
+		Files.write(manifest, Arrays.asList("http://localhost/threads/1/ IRV STV"), StandardCharsets.UTF_8);
+		Batch.read(manifest);
+	}
+}
@@ -0,0 +1,109 @@
+package com.smogon.cap.voting;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class BootstrapTest
+{
+	// Ballots for two candidates, split 'a' to 'b'.
+	private static List<Ballot> split(int a, int b)
+	{
+		List<Ballot> ballots = new ArrayList<>();
+		for (int i = 0; i < a + b; i++)
+			ballots.add(new Ballot(User.of("V" + i), Arrays.asList(User.of(i < a ? "A" : "B"), User.of(i < a ? "B" : "A"))));
+		return ballots;
+	}
+
+	@Test
+	public void testReproducible()
+	{
+		List<Ballot> ballots = PollsTest.randomBallots(new Random(18), 200, 6);
+		for (Poll poll: new Poll[]{Polls.FPTPV, Polls.IRV, Polls.PBV, Polls.SCHULZE, new RunoffPoll(2)})
+		{
+			Bootstrap bootstrap = new Bootstrap(poll, ballots);
+			Bootstrap.Result one = bootstrap.run(500, 42, 1);
+			Bootstrap.Result three = bootstrap.run(500, 42, 3);
+			for (int id = 0; id < one.candidateCount(); id++)
+			{
+				assertEquals(poll.toString(), one.getWinProbability(id), three.getWinProbability(id), 0);
+				for (int place = 1; place <= one.candidateCount(); place++)
+					assertEquals(poll.toString(), one.getPlaceProbability(id, place), three.getPlaceProbability(id, place), 0);
+			}
+		}
+	}
+
+	@Test
+	public void testProbabilities()
+	{
+		Bootstrap.Result result = new Bootstrap(Polls.FPTPV, BootstrapTest.split(60, 40)).run(2_000, 7);
+		int a = result.getCandidate(0).getName().equals("A") ? 0 : 1;
+		// A wins unless at least half of 100 resampled voters are B's, which happens about 3% of the time.
+		assertTrue(result.getWinProbability(a) > 0.93 && result.getWinProbability(a) < 0.995);
+		assertEquals(1, result.getWinProbability(a) + result.getWinProbability(1 - a) - result.getTieProbability(a), 1e-9);
+		assertEquals(result.getWinProbability(a), result.getPlaceProbability(a, 1), 0);
+
+		// Only ever one winner when everyone agrees.
+		result = new Bootstrap(Polls.IRV, BootstrapTest.split(30, 0)).run(100, 7);
+		assertEquals(1, result.getWinProbability(0), 0);
+		assertEquals(0, result.getTieProbability(0), 0);
+	}
+
+	@Test
+	public void testRepeatedVotes()
+	{
+		// Approval voting counts every vote on a ballot, so A's three votes beat B's two.
+		List<Ballot> ballots = Arrays.asList(
+			new Ballot(User.of("V1"), Arrays.asList(User.of("A"), User.of("A"), User.of("A"))),
+			new Ballot(User.of("V2"), Arrays.asList(User.of("B"))),
+			new Ballot(User.of("V3"), Arrays.asList(User.of("B"))));
+		Bootstrap.Result result = new Bootstrap(Polls.AV, ballots).run(2_000, 1);
+		int a = result.getCandidate(0).getName().equals("A") ? 0 : 1;
+		// A wins whenever V1 is drawn at all: 1 - (2/3)^3, or about 70% of samples.
+		assertTrue(String.valueOf(result.getWinProbability(a)), result.getWinProbability(a) > 0.65 && result.getWinProbability(a) < 0.76);
+	}
+
+	@Test(expected = IllegalArgumentException.class)
+	public void testRepeatedVotesAggregated()
+	{
+		new Bootstrap(Polls.AV, BallotMatrix.of(BootstrapTest.split(3, 2)).aggregate());
+	}
+
+	@Test
+	public void testReloadedRunoff()
+	{
+		// A reloaded engine should tally a reweighed matrix exactly as the ballots it stands for.
+		Random random = new Random(19);
+		for (int trial = 0; trial < 300; trial++)
+		{
+			BallotMatrix matrix = BallotMatrix.of(PollsTest.randomBallots(random, 1 + random.nextInt(40), 1 + random.nextInt(6))).aggregate();
+			Runoff runoff = new Runoff(matrix);
+			for (int sample = 0; sample < 5; sample++)
+			{
+				int[] weights = new int[matrix.size()];
+				List<Ballot> ballots = new ArrayList<>();
+				for (int row = 0; row < matrix.size(); row++)
+				{
+					weights[row] = random.nextInt(3);
+					List<User> votes = new ArrayList<>();
+					for (int i = matrix.offsets[row]; i < matrix.offsets[row + 1]; i++) votes.add(matrix.getCandidate(matrix.choices[i]));
+					for (int i = 0; i < weights[row]; i++) ballots.add(new Ballot(User.of("V" + ballots.size()), votes));
+				}
+				int population = matrix.reweigh(weights).ballotCount();
+
+				runoff.reload(weights);
+				assertEquals(new ArrayList<>(ReferencePolls.IRV.tally(ballots)),
+					new ArrayList<>(Polls.instantRunoff(runoff, population).toSortedSet()));
+				runoff.reload(weights);
+				assertEquals(new ArrayList<>(ReferencePolls.PBV.tally(ballots)),
+					new ArrayList<>(Polls.blockVote(runoff, population, Integer.MAX_VALUE).toSortedSet()));
+			}
+		}
+	}
+}
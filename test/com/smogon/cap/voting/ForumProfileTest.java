@@ -0,0 +1,97 @@
+package com.smogon.cap.voting;
+
+import org.jsoup.Jsoup;
+import org.jsoup.nodes.Document;
+import org.jsoup.nodes.Element;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+
+public class ForumProfileTest
+{
+	private static Path profile(String... lines) throws IOException
+	{
+		Path file = Files.createTempFile("forum", ".properties");
+		Files.write(file, Arrays.asList(lines), StandardCharsets.UTF_8);
+		return file;
+	}
+
+	@Test
+	public void testNextLinks()
+	{
+		// Following the 'next' button page by page finds the same ballots as reading the page navigation.
+		try (ForumStandIn forum = new ForumStandIn(7, 3))
+		{
+			List<Ballot> expected = new XenForoScraper().makeBallots(forum.link(1), 3);
+			assertEquals(7 * 3 - 1, expected.size());
+			assertEquals(expected, new XenForoScraper().makeBallots(forum.link(1)));
+		}
+	}
+
+	@Test
+	public void testOtherSkin() throws IOException
+	{
+		Path file = ForumProfileTest.profile(
+			"posts = #thread > li.post",
+			"author = .poster",
+			"author.attribute =",
+			"body = blockquote.content",
+			"divider = hr",
+			"next = a[rel=next]",
+			"id.attribute = id",
+			"id.prefix = p",
+			"skip.opening.post = false");
+		ForumProfile profile;
+		try {profile = ForumProfile.load(file);}
+		finally {Files.delete(file);}
+		Document page = Jsoup.parse("<ol id=\"thread\">"
+			+ "<li class=\"post\" id=\"p7\"><span class=\"poster\">Alice</span>"
+			+ "<blockquote class=\"content\">Option1<hr>Option2<hr><hr>A comment</blockquote></li>"
+			+ "<li class=\"post\" id=\"p9\"><span class=\"poster\">Bob</span>"
+			+ "<blockquote class=\"content\">Option2</blockquote></li>"
+			+ "</ol><a rel=\"next\" href=\"/thread/2\">Next</a>", "http://localhost/thread/1");
+
+		XenForoScraper scraper = new XenForoScraper(profile);
+		List<Ballot> ballots = new ArrayList<>();
+		List<Long> ids = new ArrayList<>();
+		for (Element post: scraper.getPosts(page))
+		{
+			ballots.add(scraper.parse(post));
+			ids.add(scraper.getPostId(post));
+		}
+		assertEquals(Arrays.asList(
+			new Ballot(User.of("Alice"), Arrays.asList(User.of("Option1"), User.of("Option2"))),
+			new Ballot(User.of("Bob"), Arrays.asList(User.of("Option2")))), ballots);
+		assertEquals(Arrays.asList(User.of("Option1"), User.of("Option2")), ballots.get(0).getVotes());
+		assertEquals(Arrays.asList(7L, 9L), ids);
+		assertEquals("http://localhost/thread/2", scraper.findNextLink(page).toString());
+		assertEquals(false, scraper.skipsOpeningPost());
+		assertNull(scraper.findNextLink(Jsoup.parse("<p>Last page</p>")));
+	}
+
+	@Test
+	public void testLoadedOnce() throws IOException
+	{
+		Path file = ForumProfileTest.profile("posts = .message");
+		try {assertSame(ForumProfile.load(file), ForumProfile.load(file));}
+		finally {Files.delete(file);}
+	}
+
+	@Test(expected = IllegalArgumentException.class)
+	public void testBadSelector() throws IOException
+	{
+		Path file = ForumProfileTest.profile("posts = .message >");
+		try {ForumProfile.load(file);}
+		finally {Files.delete(file);}
+	}
+}
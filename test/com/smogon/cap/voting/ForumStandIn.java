@@ -0,0 +1,143 @@
+package com.smogon.cap.voting;
+
+import com.sun.net.httpserver.HttpServer;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.UncheckedIOException;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.URL;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * A local HTTP stand-in for a paginated XenForo thread, for testing scrapers without the forum.
+ * <p>
+ * Post {@code i} (counting from 0, the opening post) is by {@code Voter<i>},
+ * and votes for {@code Option<i % 3>} then {@code Option<(i + 1) % 3>}, followed by a comment.
+ * <p>
+ * Every page can also be reached through a {@code 301 Moved Permanently} from its {@link #movedLink(int) old link},
+ * as the forum redirects {@code http} links to {@code https}.
+ */
+class ForumStandIn implements AutoCloseable
+{
+	private static final String THREAD = "/threads/test-poll.1/";
+	private static final String MOVED = "/moved";
+
+	private final HttpServer server;
+	private final int postsPerPage;
+	private volatile int posts; // including the opening post
+	private final AtomicInteger requests = new AtomicInteger();
+	private final AtomicInteger downloads = new AtomicInteger(); // requests answered with a full page
+
+	ForumStandIn(int pages, int postsPerPage)
+	{
+		this.postsPerPage = postsPerPage;
+		this.posts = pages * postsPerPage;
+		try {this.server = HttpServer.create(new InetSocketAddress(InetAddress.getLoopbackAddress(), 0), 0);}
+		catch (IOException e){throw new UncheckedIOException(e);}
+		this.server.createContext(ForumStandIn.THREAD, exchange ->
+		{
+			this.requests.incrementAndGet();
+			String rest = exchange.getRequestURI().getPath().substring(ForumStandIn.THREAD.length());
+			int number = rest.startsWith("page-") ? Integer.parseInt(rest.substring("page-".length())) : 1;
+			String etag = "\"" + this.page(number).hashCode() + "\"";
+			if (etag.equals(exchange.getRequestHeaders().getFirst("If-None-Match")))
+			{
+				exchange.sendResponseHeaders(304, -1);
+				exchange.close();
+				return;
+			}
+
+			this.downloads.incrementAndGet();
+			byte[] body = this.page(number).getBytes(StandardCharsets.UTF_8);
+			exchange.getResponseHeaders().set("Content-Type", "text/html; charset=UTF-8");
+			exchange.getResponseHeaders().set("ETag", etag);
+			exchange.sendResponseHeaders(number <= this.pages() ? 200 : 404, body.length);
+			try (OutputStream out = exchange.getResponseBody()) {out.write(body);}
+		});
+		this.server.createContext(ForumStandIn.MOVED + "/", exchange ->
+		{
+			String path = exchange.getRequestURI().getPath().substring(ForumStandIn.MOVED.length());
+			exchange.getResponseHeaders().set("Location", this.link(1).toString().replace(ForumStandIn.THREAD, path));
+			exchange.sendResponseHeaders(301, -1);
+			exchange.close();
+		});
+		this.server.start();
+	}
+
+	/** @return The link to a page of the thread. */
+	URL link(int number)
+	{
+		String path = ForumStandIn.THREAD + (number == 1 ? "" : "page-" + number);
+		try {return new URL("http", "localhost", this.server.getAddress().getPort(), path);}
+		catch (IOException e){throw new AssertionError(e);}
+	}
+
+	/** @return The old link to a page of the thread, which redirects to {@link #link(int)}. */
+	URL movedLink(int number)
+	{
+		try {return new URL("http", "localhost", this.server.getAddress().getPort(), ForumStandIn.MOVED + this.link(number).getPath());}
+		catch (IOException e){throw new AssertionError(e);}
+	}
+
+	/** @return The number of pages requested so far. */
+	int requests(){return this.requests.get();}
+	/** @return The number of requests so far that weren't answered with 304 Not Modified. */
+	int downloads(){return this.downloads.get();}
+
+	/** @return The number of posts in the thread, including the opening post. */
+	int posts(){return this.posts;}
+	/** @return The number of pages in the thread. */
+	int pages(){return (this.posts + this.postsPerPage - 1) / this.postsPerPage;}
+	/** Adds posts to the end of the thread, as if voters were still voting. */
+	void addPosts(int count){this.posts += count;}
+
+	/** @return The ballot the stand-in serves for a post. */
+	static Ballot ballot(int post)
+	{
+		return new Ballot(User.of("Voter" + post),
+			Arrays.asList(User.of("Option" + post % 3), User.of("Option" + (post + 1) % 3)));
+	}
+
+	// Renders a page the way XenForo 2 does, down to the classes the scrapers rely on.
+	String page(int number)
+	{
+		int pages = this.pages();
+		StringBuilder html = new StringBuilder("<!DOCTYPE html><html><head><title>Test poll</title></head><body>");
+		html.append("<div class=\"block-body js-replyNewMessageContainer\">");
+		for (int post = (number - 1) * this.postsPerPage; post < Math.min(number * this.postsPerPage, this.posts); post++)
+		{
+			html.append("<article class=\"message message--post\" data-author=\"Voter").append(post)
+				.append("\" data-content=\"post-").append(1000 + post).append("\" id=\"js-post-").append(1000 + post).append("\">")
+				.append("<div class=\"message-inner\"><div class=\"message-cell message-cell--main\">")
+				.append("<article class=\"message-body js-selectToQuote\"><div class=\"bbWrapper\">")
+				.append("Option").append(post % 3).append("<br />\nOption").append((post + 1) % 3)
+				.append("<br />\n<br />\nPost number <b>").append(post).append("</b>, with a comment.")
+				.append("</div></article></div></div></article>");
+		}
+		html.append("</div>");
+
+		if (pages > 1) // XenForo only lists the first, last, and nearby pages.
+		{
+			html.append("<nav class=\"pageNavWrapper\"><div class=\"pageNav\"><ul class=\"pageNav-main\">");
+			for (int page = 1; page <= pages; page++)
+			{
+				if (page != 1 && page != pages && Math.abs(page - number) > 2) continue;
+				html.append("<li class=\"pageNav-page").append(page == number ? " pageNav-page--current" : "")
+					.append("\"><a href=\"").append(this.link(page).getPath()).append("\">").append(page).append("</a></li>");
+			}
+			html.append("</ul>");
+			if (number < pages)
+				html.append("<a href=\"").append(this.link(number + 1).getPath())
+					.append("\" class=\"pageNav-jump pageNav-jump--next\">Next</a>");
+			html.append("</div></nav>");
+		}
+		return html.append("</body></html>").toString();
+	}
+
+	@Override
+	public void close(){this.server.stop(0);}
+}
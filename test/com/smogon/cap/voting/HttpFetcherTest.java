@@ -0,0 +1,175 @@
+package com.smogon.cap.voting;
+
+import com.sun.net.httpserver.HttpServer;
+import org.junit.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.URL;
+import java.nio.charset.StandardCharsets;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.zip.GZIPOutputStream;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class HttpFetcherTest
+{
+	private static final String PAGE = "<html><body>Option1<br />Option2</body></html>";
+
+	// Serves PAGE, gzipped if asked, after failing the first 'failures' requests with 'status'.
+	private static HttpServer flaky(int failures, int status, AtomicInteger requests) throws IOException
+	{
+		HttpServer server = HttpServer.create(new InetSocketAddress(InetAddress.getLoopbackAddress(), 0), 0);
+		server.createContext("/", exchange ->
+		{
+			if (requests.incrementAndGet() <= failures)
+			{
+				exchange.sendResponseHeaders(status, -1);
+				exchange.close();
+				return;
+			}
+			byte[] body = HttpFetcherTest.PAGE.getBytes(StandardCharsets.UTF_8);
+			String accepted = exchange.getRequestHeaders().getFirst("Accept-Encoding");
+			if (accepted != null && accepted.contains("gzip"))
+			{
+				ByteArrayOutputStream compressed = new ByteArrayOutputStream();
+				try (GZIPOutputStream out = new GZIPOutputStream(compressed)) {out.write(body);}
+				body = compressed.toByteArray();
+				exchange.getResponseHeaders().set("Content-Encoding", "gzip");
+			}
+			exchange.getResponseHeaders().set("Content-Type", "text/html; charset=UTF-8");
+			exchange.sendResponseHeaders(200, body.length);
+			try (OutputStream out = exchange.getResponseBody()) {out.write(body);}
+		});
+		server.start();
+		return server;
+	}
+
+	private static URL link(HttpServer server) throws IOException
+	{
+		return new URL("http", "localhost", server.getAddress().getPort(), "/thread/");
+	}
+
+	@Test
+	public void testRetriesAndDecompresses() throws IOException
+	{
+		AtomicInteger requests = new AtomicInteger();
+		HttpServer server = HttpFetcherTest.flaky(2, 503, requests);
+		try
+		{
+			PageFetcher.Response response = new HttpFetcher(3, 10, 0).fetch(HttpFetcherTest.link(server), Collections.emptyMap());
+			assertEquals(200, response.getStatus());
+			assertEquals("UTF-8", response.getCharset());
+			assertEquals(HttpFetcherTest.PAGE, new String(response.getBody(), StandardCharsets.UTF_8));
+			assertEquals(3, requests.get());
+		}
+		finally {server.stop(0);}
+	}
+
+	@Test
+	public void testGivesUp() throws IOException
+	{
+		AtomicInteger requests = new AtomicInteger();
+		HttpServer server = HttpFetcherTest.flaky(Integer.MAX_VALUE, 503, requests);
+		try
+		{
+			try
+			{
+				new HttpFetcher(3, 10, 0).fetch(HttpFetcherTest.link(server), Collections.emptyMap());
+				fail("Fetched a page that always fails");
+			}
+			catch (IOException e){assertTrue(e.getMessage(), e.getMessage().contains("503"));}
+			assertEquals(3, requests.get());
+		}
+		finally {server.stop(0);}
+	}
+
+	@Test
+	public void testNotFoundIsNotRetried() throws IOException
+	{
+		AtomicInteger requests = new AtomicInteger();
+		HttpServer server = HttpFetcherTest.flaky(Integer.MAX_VALUE, 404, requests);
+		try
+		{
+			try
+			{
+				new HttpFetcher(3, 10, 0).fetch(HttpFetcherTest.link(server), Collections.emptyMap());
+				fail("Fetched a missing page");
+			}
+			catch (IOException e){assertTrue(e.getMessage(), e.getMessage().contains("404"));}
+			assertEquals(1, requests.get());
+		}
+		finally {server.stop(0);}
+	}
+
+	@Test
+	public void testRateLimit() throws IOException
+	{
+		AtomicInteger requests = new AtomicInteger();
+		HttpServer server = HttpFetcherTest.flaky(0, 200, requests);
+		try
+		{
+			// Five requests at 20 a second can't start within 4 intervals of 50 ms.
+			HttpFetcher fetcher = new HttpFetcher(1, 0, 20);
+			long start = System.nanoTime();
+			for (int i = 0; i < 5; i++) fetcher.fetch(HttpFetcherTest.link(server), Collections.emptyMap());
+			assertTrue(System.nanoTime() - start >= TimeUnit.MILLISECONDS.toNanos(200));
+		}
+		finally {server.stop(0);}
+	}
+
+	@Test
+	public void testFollowsRedirects() throws IOException
+	{
+		try (ForumStandIn forum = new ForumStandIn(3, 4))
+		{
+			PageFetcher.Response response = new HttpFetcher(1, 0, 0).fetch(forum.movedLink(2), Collections.emptyMap());
+			assertEquals(200, response.getStatus());
+			assertEquals(forum.link(2), response.getLink());
+			assertEquals(forum.page(2), new String(response.getBody(), StandardCharsets.UTF_8));
+
+			// The scrape starts from the old link, but reads every page from where it moved to.
+			List<Ballot> expected = new XenForoScraper().makeBallots(forum.link(1), 2);
+			assertEquals(3 * 4 - 1, expected.size());
+			assertEquals(expected, new XenForoScraper().makeBallots(forum.movedLink(1)));
+			assertEquals(expected, new XenForoScraper().makeBallots(forum.movedLink(1), 2));
+		}
+	}
+
+	@Test
+	public void testRedirectLimits() throws IOException
+	{
+		HttpServer server = HttpServer.create(new InetSocketAddress(InetAddress.getLoopbackAddress(), 0), 0);
+		server.createContext("/", exchange ->
+		{
+			// Around in circles, or out of the web entirely.
+			boolean loop = exchange.getRequestURI().getPath().startsWith("/loop");
+			exchange.getResponseHeaders().set("Location", loop ? "/loop" : "file:///etc/passwd");
+			exchange.sendResponseHeaders(302, -1);
+			exchange.close();
+		});
+		server.start();
+		try
+		{
+			int port = server.getAddress().getPort();
+			for (String path: new String[]{"/loop", "/file"})
+			{
+				try
+				{
+					new HttpFetcher(1, 0, 0).fetch(new URL("http", "localhost", port, path), Collections.emptyMap());
+					fail("Followed a bad redirect from " + path);
+				}
+				catch (IOException e){assertTrue(e.getMessage(), e.getMessage().contains(path.equals("/loop") ? "Too many redirects" : "file:"));}
+			}
+		}
+		finally {server.stop(0);}
+	}
+}
@@ -0,0 +1,48 @@
+package com.smogon.cap.voting;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class MetricsTest
+{
+	@Test
+	public void testOffByDefault()
+	{
+		assertFalse(Metrics.ENABLED);
+	}
+
+	@Test
+	public void testSummary()
+	{
+		Metrics metrics = new Metrics();
+		metrics.page(500_000, 1000, 2_000_000); // 0.5 ms
+		metrics.page(3_000_000, 2000, 2_000_000); // 3 ms
+		metrics.page(3_500_000, 3000, 2_000_000);
+		metrics.posts(50, 1_000_000_000);
+		metrics.phase("scrape", Metrics.start());
+		metrics.phase("scrape", Metrics.start());
+		metrics.tally(Polls.IRV, 49, 2_000_000);
+		metrics.rounds(Polls.IRV, 3);
+		metrics.tally(new RunoffPoll(2), 49, 1_000_000);
+
+		String json = metrics.toJson();
+		assertTrue(json, json.contains("\"count\": 3, \"bytes\": 6000"));
+		assertTrue(json, json.contains("\"<1\": 1, \"<2\": 0, \"<4\": 2, \"<8\": 0"));
+		assertTrue(json, json.contains("\"parseSeconds\": 0.006000"));
+		assertTrue(json, json.contains("\"posts\": {\"count\": 50, \"extractSeconds\": 1.000000, \"perSecond\": 50.0}"));
+		assertTrue(json, json.contains("\"scrape\": {\"count\": 2,"));
+		assertTrue(json, json.contains("\"IRV\": {\"count\": 1, \"ballots\": 49, \"seconds\": 0.002000, \"ballotsPerSecond\": 24500.0, \"runoffRounds\": 3}"));
+		assertTrue(json, json.contains("\"PBV (top 2)\": {\"count\": 1,"));
+	}
+
+	@Test
+	public void testEmptySummary()
+	{
+		String json = new Metrics().toJson();
+		assertTrue(json, json.contains("\"phases\": {},\n  \"tallies\": {}\n}"));
+		assertEquals('}', json.charAt(json.length() - 1));
+	}
+}
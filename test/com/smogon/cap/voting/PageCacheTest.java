@@ -0,0 +1,83 @@
+package com.smogon.cap.voting;
+
+import org.junit.Test;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.List;
+import java.util.stream.Stream;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class PageCacheTest
+{
+	@Test
+	public void testRevalidation() throws IOException
+	{
+		Path directory = Files.createTempDirectory("page-cache");
+		try (ForumStandIn forum = new ForumStandIn(5, 4))
+		{
+			XenForoScraper scraper = new XenForoScraper();
+			scraper.setPageCache(new PageCache(directory, Long.MAX_VALUE));
+
+			List<Ballot> first = scraper.makeBallots(forum.link(1), 2);
+			assertEquals(5, forum.downloads());
+
+			// Nothing changed, so every page is revalidated rather than downloaded.
+			List<Ballot> second = scraper.makeBallots(forum.link(1), 2);
+			assertEquals(first, second);
+			assertEquals(10, forum.requests());
+			assertEquals(5, forum.downloads());
+		}
+	}
+
+	@Test
+	public void testEviction() throws IOException
+	{
+		Path directory = Files.createTempDirectory("page-cache");
+		try (ForumStandIn forum = new ForumStandIn(6, 4))
+		{
+			// Only room for about two compressed pages.
+			long pageSize = forum.page(1).getBytes(StandardCharsets.UTF_8).length;
+			PageCache cache = new PageCache(directory, pageSize / 2);
+			for (int page = 1; page <= 6; page++)
+				assertEquals(forum.page(page), new String(cache.get(forum.link(page)).getBody(), StandardCharsets.UTF_8));
+
+			long total = 0;
+			try (Stream<Path> files = Files.list(directory))
+			{
+				for (Path file: (Iterable<Path>) files::iterator) total += Files.size(file);
+			}
+			assertTrue(total <= pageSize / 2);
+			assertTrue(total > 0);
+		}
+	}
+
+	@Test
+	public void testCorruptEntry() throws IOException
+	{
+		Path directory = Files.createTempDirectory("page-cache");
+		try (ForumStandIn forum = new ForumStandIn(1, 4))
+		{
+			PageCache cache = new PageCache(directory, Long.MAX_VALUE);
+			cache.get(forum.link(1));
+			assertEquals(1, forum.downloads());
+
+			// Cut the entry short, as a crash or a full disk might.
+			Path entry;
+			try (Stream<Path> files = Files.list(directory)) {entry = files.findFirst().get();}
+			byte[] bytes = Files.readAllBytes(entry);
+			Files.write(entry, Arrays.copyOf(bytes, bytes.length / 2));
+
+			assertEquals(forum.page(1), new String(cache.get(forum.link(1)).getBody(), StandardCharsets.UTF_8));
+			assertEquals(2, forum.downloads());
+			// The entry was replaced, so the page is only revalidated from then on.
+			cache.get(forum.link(1));
+			assertEquals(2, forum.downloads());
+		}
+	}
+}
@@ -0,0 +1,97 @@
+package com.smogon.cap.voting;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+
+public class PairwiseTest
+{
+	// Adds copies of a ballot that ranks the candidates in the order of their one-letter names.
+	private static void vote(List<Ballot> ballots, int copies, String order)
+	{
+		for (int i = 0; i < copies; i++)
+		{
+			List<User> votes = new ArrayList<>();
+			for (char candidate: order.toCharArray()) votes.add(User.of(String.valueOf(candidate)));
+			ballots.add(new Ballot(User.of("V" + ballots.size()), votes));
+		}
+	}
+
+	private static List<Poll.Entry> entries(Object... entries)
+	{
+		List<Poll.Entry> expected = new ArrayList<>();
+		for (int i = 0; i < entries.length; i += 2) expected.add(new Poll.Entry(User.of((String) entries[i]), (Integer) entries[i + 1]));
+		return expected;
+	}
+
+	@Test
+	public void testSchulze()
+	{
+		// The example from Schulze's paper, which E wins despite A's strong showing.
+		List<Ballot> ballots = new ArrayList<>();
+		PairwiseTest.vote(ballots, 5, "ACBED");
+		PairwiseTest.vote(ballots, 5, "ADECB");
+		PairwiseTest.vote(ballots, 8, "BEDAC");
+		PairwiseTest.vote(ballots, 3, "CABED");
+		PairwiseTest.vote(ballots, 7, "CAEBD");
+		PairwiseTest.vote(ballots, 2, "CBADE");
+		PairwiseTest.vote(ballots, 7, "DCEBA");
+		PairwiseTest.vote(ballots, 8, "EBADC");
+		assertEquals(PairwiseTest.entries("E", 4, "A", 3, "C", 2, "B", 1, "D", 0), new ArrayList<>(Polls.SCHULZE.tally(ballots)));
+	}
+
+	@Test
+	public void testRankedPairs()
+	{
+		// Tennessee's capital, with Memphis (M), Nashville (N), Chattanooga (C) and Knoxville (K).
+		List<Ballot> ballots = new ArrayList<>();
+		PairwiseTest.vote(ballots, 42, "MNCK");
+		PairwiseTest.vote(ballots, 26, "NCKM");
+		PairwiseTest.vote(ballots, 15, "CKNM");
+		PairwiseTest.vote(ballots, 17, "KCNM");
+		assertEquals(PairwiseTest.entries("N", 3, "C", 2, "K", 1, "M", 0), new ArrayList<>(Polls.RP.tally(ballots)));
+	}
+
+	@Test
+	public void testManyCandidates()
+	{
+		// Enough candidates for several blocks, and enough choices to be counted in chunks.
+		Random random = new Random(16);
+		int n = 150;
+		List<Ballot> ballots = PollsTest.randomBallots(random, 3_000, n);
+		BallotMatrix matrix = BallotMatrix.of(ballots);
+
+		// Count every pair of every ballot directly.
+		int[][] expected = new int[matrix.candidateCount()][matrix.candidateCount()];
+		for (int row = 0; row < matrix.size(); row++)
+		{
+			int[] ranks = new int[matrix.candidateCount()];
+			Arrays.fill(ranks, Integer.MAX_VALUE);
+			for (int i = matrix.offsets[row + 1] - 1; i >= matrix.offsets[row]; i--) ranks[matrix.choices[i]] = i;
+			for (int a = 0; a < ranks.length; a++)
+				for (int b = 0; b < ranks.length; b++)
+					if (ranks[a] < ranks[b]) expected[a][b]++;
+		}
+		int[][] beats = Pairwise.count(matrix);
+		assertArrayEquals(expected, beats);
+
+		// Plain Floyd-Warshall over (max, min).
+		int[][] paths = new int[n][n];
+		for (int a = 0; a < n; a++)
+			for (int b = 0; b < n; b++)
+				if (a != b && beats[a][b] > beats[b][a]) paths[a][b] = beats[a][b];
+		for (int k = 0; k < n; k++)
+			for (int i = 0; i < n; i++)
+				for (int j = 0; j < n; j++)
+					if (i != j && i != k && j != k) paths[i][j] = Math.max(paths[i][j], Math.min(paths[i][k], paths[k][j]));
+		int[][] actual = Pairwise.strongestPaths(beats);
+		for (int a = 0; a < n; a++) actual[a][a] = 0; // the diagonal is meaningless
+		assertArrayEquals(paths, actual);
+	}
+}
@@ -5,6 +5,7 @@ import org.junit.Test;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.List;
+import java.util.Random;
 import java.util.SortedSet;
 
 import static org.junit.Assert.assertEquals;
@@ -94,4 +95,93 @@ public class PollsTest
 		assertEquals(u1, result.getUser());
 		assertEquals(u1_, result.getUser());
 	}
+
+	// Generates ballots of random lengths (including blank ballots and repeated votes),
+	// over a small field of candidates so that ties and eliminations are common.
+	static List<Ballot> randomBallots(Random random, int voters, int candidates)
+	{
+		List<Ballot> ballots = new ArrayList<>();
+		for (int i = 0; i < voters; i++)
+		{
+			List<User> votes = new ArrayList<>();
+			int length = random.nextInt(candidates + 2);
+			for (int j = 0; j < length; j++) votes.add(new User("C" + random.nextInt(candidates)));
+			ballots.add(new Ballot(new User("V" + i), votes));
+		}
+		return ballots;
+	}
+
+	@Test
+	public void testRandomizedAgainstReference()
+	{
+		Random random = new Random(4); // fixed seed, for reproducible failures
+		for (int trial = 0; trial < 5_000; trial++)
+		{
+			List<Ballot> ballots = PollsTest.randomBallots(random, random.nextInt(40), 1 + random.nextInt(8));
+			for (Polls poll: Polls.values())
+			{
+				List<Poll.Entry> expected = new ArrayList<>(ReferencePolls.valueOf(poll.name()).tally(ballots));
+				List<Poll.Entry> actual = new ArrayList<>(poll.tally(ballots));
+				assertEquals(poll + " on trial " + trial, expected, actual);
+			}
+		}
+	}
+
+	@Test
+	public void testDuplicateBallotsAgainstReference()
+	{
+		// Few candidates and short ballots, so that most ballots are repeated,
+		// and most of the rest become identical once a candidate or two is out.
+		Random random = new Random(17);
+		for (int trial = 0; trial < 2_000; trial++)
+		{
+			List<Ballot> ballots = PollsTest.randomBallots(random, random.nextInt(200), 1 + random.nextInt(4));
+			for (Polls poll: Polls.values())
+			{
+				List<Poll.Entry> expected = new ArrayList<>(ReferencePolls.valueOf(poll.name()).tally(ballots));
+				List<Poll.Entry> actual = new ArrayList<>(poll.tally(ballots));
+				assertEquals(poll + " on trial " + trial, expected, actual);
+			}
+		}
+	}
+
+	@Test
+	public void testSeatLimit()
+	{
+		Random random = new Random(3);
+		for (int trial = 0; trial < 1_000; trial++)
+		{
+			List<Ballot> ballots = PollsTest.randomBallots(random, random.nextInt(40), 1 + random.nextInt(8));
+			SortedSet<Poll.Entry> full = Polls.PBV.tally(ballots);
+			for (int seats = 1; seats <= 3; seats++)
+			{
+				// Stopping early should give the same first seats as ranking everyone.
+				List<Poll.Entry> expected = new ArrayList<>();
+				for (Poll.Entry entry: full)
+					if (entry.getValue() <= seats) expected.add(entry);
+				List<Poll.Entry> actual = new ArrayList<>(new RunoffPoll(seats).tally(ballots));
+				assertEquals("top " + seats + " on trial " + trial, expected, actual);
+			}
+		}
+	}
+
+	@Test
+	public void testAccumulator()
+	{
+		Random random = new Random(6);
+		for (int trial = 0; trial < 500; trial++)
+		{
+			List<Ballot> ballots = PollsTest.randomBallots(random, random.nextInt(40), 1 + random.nextInt(8));
+			int half = ballots.size() / 2;
+			for (Polls poll: Polls.values())
+			{
+				// Results can be read halfway through, and more ballots accepted afterwards.
+				Poll.Accumulator accumulator = poll.accumulator();
+				ballots.subList(0, half).forEach(accumulator);
+				assertEquals(new ArrayList<>(poll.tally(ballots.subList(0, half))), new ArrayList<>(accumulator.result()));
+				ballots.subList(half, ballots.size()).forEach(accumulator);
+				assertEquals(new ArrayList<>(poll.tally(ballots)), new ArrayList<>(accumulator.result()));
+			}
+		}
+	}
 }
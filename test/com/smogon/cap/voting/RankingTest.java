@@ -0,0 +1,87 @@
+package com.smogon.cap.voting;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Random;
+import java.util.SortedSet;
+import java.util.TreeSet;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class RankingTest
+{
+	@Test
+	public void testAgainstTreeSet()
+	{
+		Random random = new Random(15);
+		for (int trial = 0; trial < 2_000; trial++)
+		{
+			boolean increasing = random.nextBoolean();
+			Ranking.Builder builder = new Ranking.Builder(increasing);
+			TreeSet<Poll.Entry> expected = new TreeSet<>(increasing ? Poll.Entry.INCREASING : Poll.Entry.DECREASING);
+			int candidates = random.nextInt(30);
+			for (int id = 0; id < candidates; id++)
+			{
+				User candidate = User.of((random.nextBoolean() ? "c" : "C") + id);
+				int score = random.nextInt(6);
+				builder.add(id, candidate, score);
+				expected.add(new Poll.Entry(candidate, score));
+			}
+			Ranking ranking = builder.build();
+			SortedSet<Poll.Entry> actual = ranking.toSortedSet();
+
+			assertEquals(new ArrayList<>(expected), new ArrayList<>(actual));
+			assertEquals(expected, actual);
+			assertEquals(expected.toString(), actual.toString());
+			if (candidates == 0) continue;
+
+			// Tie groups are the runs of equal scores.
+			int groups = 0;
+			for (int group = 0; group < ranking.groupCount(); group++)
+			{
+				for (int position = ranking.groupStart(group); position < ranking.groupEnd(group); position++)
+					assertEquals(ranking.getNumerator(ranking.groupStart(group)), ranking.getNumerator(position));
+				if (group > 0) assertTrue(ranking.getNumerator(ranking.groupStart(group)) != ranking.getNumerator(ranking.groupStart(group) - 1));
+				groups++;
+			}
+			assertEquals(new TreeSet<>(expected.stream().map(Poll.Entry::getValue).collect(java.util.stream.Collectors.toSet())).size(), groups);
+
+			// The SortedSet view agrees with a TreeSet.
+			Poll.Entry probe = new Poll.Entry(User.of("C" + random.nextInt(candidates)), random.nextInt(6));
+			assertEquals(expected.contains(probe), actual.contains(probe));
+			assertEquals(new ArrayList<>(expected.headSet(probe)), new ArrayList<>(actual.headSet(probe)));
+			assertEquals(new ArrayList<>(expected.tailSet(probe)), new ArrayList<>(actual.tailSet(probe)));
+			assertEquals(expected.first(), actual.first());
+			assertEquals(expected.last(), actual.last());
+			Poll.Entry other = actual.comparator().compare(probe, expected.last()) <= 0 ? expected.last() : probe;
+			assertEquals(new ArrayList<>(expected.subSet(probe, other)), new ArrayList<>(actual.subSet(probe, other)));
+		}
+	}
+
+	@Test
+	public void testRationalScores()
+	{
+		Ranking ranking = new Ranking.Builder(false)
+			.add(0, User.of("Syclant"), 1)
+			.add(1, User.of("Revenankh"), 2)
+			.add(2, User.of("Pyroak"), 1)
+			.build(3);
+		assertEquals("Revenankh", ranking.getCandidate(0).getName());
+		assertEquals(1, ranking.getId(0));
+		assertEquals(2.0 / 3, ranking.getScore(0), 0);
+		assertEquals(2, ranking.groupCount());
+		assertEquals("Pyroak", ranking.getCandidate(ranking.groupStart(1)).getName()); // ties by name
+		assertEquals(3, ranking.groupEnd(1));
+	}
+
+	@Test(expected = UnsupportedOperationException.class)
+	public void testImmutable()
+	{
+		SortedSet<Poll.Entry> entries = new Ranking.Builder(false).add(0, User.of("Syclant"), 1).build().toSortedSet();
+		assertFalse(entries.isEmpty());
+		entries.add(new Poll.Entry(User.of("Pyroak"), 2));
+	}
+}
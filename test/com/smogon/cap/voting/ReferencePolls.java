@@ -0,0 +1,287 @@
+package com.smogon.cap.voting;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.SortedSet;
+import java.util.TreeSet;
+import java.util.function.Supplier;
+import java.util.stream.Collector;
+import java.util.stream.Collectors;
+
+/**
+ * The original, allocation-heavy implementations of the {@link Polls},
+ * kept as an oracle for checking the optimized engines against.
+ */
+enum ReferencePolls implements Poll
+{
+	/**
+	 * First-past-the-post voting = single bold voting
+	 */
+	FPTPV
+	{
+		@Override
+		public SortedSet<Entry> tally(Collection<Ballot> ballots)
+		{
+			Map<User, Integer> frequencies = new HashMap<>();
+			// For each ballot, add the top vote.
+			for (Ballot ballot : ballots)
+				if (!ballot.getVotes().isEmpty())
+					frequencies.merge(ballot.getVotes().get(0), 1, Integer::sum);
+
+			return frequencies.entrySet().stream()
+				.map(mse -> new Entry(mse.getKey(), mse.getValue()))
+				.sorted(Entry.DECREASING)
+				.collect(ReferencePolls.DECREASING_COLLECTOR);
+		}
+	}
+	/**
+	 * Approval voting = multiple bold voting
+	 */
+	, AV
+	{
+		@Override
+		public SortedSet<Entry> tally(Collection<Ballot> ballots)
+		{
+			Map<User, Integer> frequencies = new HashMap<>();
+			// For each ballot, add all votes on the ballot.
+			for (Ballot ballot: ballots)
+				for (User vote: ballot.getVotes())
+					frequencies.merge(vote, 1, Integer::sum);
+
+			return frequencies.entrySet().stream()
+				.map(mse -> new Entry(mse.getKey(), mse.getValue()))
+				.sorted(Entry.DECREASING)
+				.collect(ReferencePolls.DECREASING_COLLECTOR);
+		}
+	}
+	/**
+	 * Instant runoff voting
+	 */
+	, IRV 
+	{
+		private boolean canIterate(SortedSet<Entry> rankings, int majority)
+		{
+			// Can't iterate on an empty set.
+			if (rankings.isEmpty()) return false;
+			
+			// Can't iterate if everyone is tied, or there is a single winner.
+			long distinctValues = rankings.stream().map(Entry::getValue).distinct().count();
+			if (distinctValues == 1) return false;
+			
+			// Can't iterate if we've reached the majority needed.
+			if (rankings.first().getValue() >= majority) return false;
+			
+			return true;
+		}
+		
+		@Override
+		public SortedSet<Entry> tally(Collection<Ballot> ballots)
+		{
+			final int population = ballots.size();
+			final int majority = (int) Math.floor(0.5 * population) + 1;
+
+			List<Ballot> roundBallots = new ArrayList<>(ballots); // make copy
+			SortedSet<Entry> roundRankings = ReferencePolls.FPTPV.tally(roundBallots);
+			while (this.canIterate(roundRankings, majority))
+			{
+				final double lastValue = roundRankings.last().getValue();
+
+				Set<User> lastPlaces = roundRankings.stream()
+					.filter(e -> e.getValue() == lastValue)
+					.map(Entry::getUser)
+					.collect(Collectors.toSet());
+
+				roundBallots = ReferencePolls.filterOut(roundBallots, lastPlaces); // round ballots, not original ballots
+				roundRankings = ReferencePolls.FPTPV.tally(roundBallots);
+			}
+			
+			// TODO: Find a better place for the empty check?
+			if (roundRankings.isEmpty()) return roundRankings;
+
+			final double firstValue = roundRankings.first().getValue();
+
+			return roundRankings.stream()
+				.filter(e -> e.getValue() == firstValue)
+				.collect(ReferencePolls.DECREASING_COLLECTOR);
+		}
+	}
+	/**
+	 * Preferential block voting
+	 */
+	, PBV
+	{
+		@Override
+		public SortedSet<Entry> tally(Collection<Ballot> ballots)
+		{
+			SortedSet<Entry> rankings = ReferencePolls.INCREASING_SUPPLIER.get();
+			
+			int round = 1; // Make the round number 1-based for user-friendliness.
+			List<Ballot> roundBallots = new ArrayList<>(ballots); // make copy
+			while (!roundBallots.isEmpty())
+			{
+				SortedSet<Entry> roundResults = ReferencePolls.IRV.tally(roundBallots);
+				
+				Set<User> roundSeenUsers = roundResults.stream()
+					.map(Entry::getUser)
+					.collect(Collectors.toSet());
+				
+				final int currentRound = round; // final modifier needed for stream
+				Set<Entry> roundRankings = roundSeenUsers.stream()
+					.map(u -> new Entry(u, currentRound))
+					.collect(Collectors.toSet());
+				
+				rankings.addAll(roundRankings);
+				roundBallots = ReferencePolls.filterOut(roundBallots, roundSeenUsers); // not ballots
+				round += roundSeenUsers.size();
+			}
+			return rankings;
+		}
+	}
+	/**
+	 * Schulze method, straight from the textbook Floyd-Warshall
+	 */
+	, SCHULZE
+	{
+		@Override
+		public SortedSet<Entry> tally(Collection<Ballot> ballots)
+		{
+			List<User> candidates = ReferencePolls.candidates(ballots);
+			Map<User, Map<User, Integer>> beats = ReferencePolls.beats(ballots, candidates);
+			Map<User, Map<User, Integer>> paths = new HashMap<>();
+			for (User a: candidates)
+			{
+				paths.put(a, new HashMap<>());
+				for (User b: candidates)
+					if (!a.equals(b))
+						paths.get(a).put(b, beats.get(a).get(b) > beats.get(b).get(a) ? beats.get(a).get(b) : 0);
+			}
+			for (User k: candidates)
+				for (User i: candidates)
+					for (User j: candidates)
+						if (!i.equals(j) && !i.equals(k) && !j.equals(k))
+							paths.get(i).put(j, Math.max(paths.get(i).get(j), Math.min(paths.get(i).get(k), paths.get(k).get(j))));
+
+			return candidates.stream()
+				.map(a -> new Entry(a, (int) candidates.stream().filter(b -> !a.equals(b) && paths.get(a).get(b) > paths.get(b).get(a)).count()))
+				.collect(ReferencePolls.DECREASING_COLLECTOR);
+		}
+	}
+	/**
+	 * Ranked pairs, checking for cycles with a search every time
+	 */
+	, RP
+	{
+		@Override
+		public SortedSet<Entry> tally(Collection<Ballot> ballots)
+		{
+			List<User> candidates = ReferencePolls.candidates(ballots);
+			Map<User, Map<User, Integer>> beats = ReferencePolls.beats(ballots, candidates);
+			List<List<User>> pairs = new ArrayList<>();
+			for (User a: candidates)
+				for (User b: candidates)
+					if (!a.equals(b) && beats.get(a).get(b) > beats.get(b).get(a)) pairs.add(Arrays.asList(a, b));
+			Comparator<List<User>> byMargin = Comparator.comparingInt(pair -> beats.get(pair.get(0)).get(pair.get(1)) - beats.get(pair.get(1)).get(pair.get(0)));
+			Comparator<List<User>> byVotes = Comparator.comparingInt(pair -> beats.get(pair.get(0)).get(pair.get(1)));
+			Comparator<List<User>> byWinner = Comparator.comparing(pair -> pair.get(0).getName(), String.CASE_INSENSITIVE_ORDER);
+			Comparator<List<User>> byLoser = Comparator.comparing(pair -> pair.get(1).getName(), String.CASE_INSENSITIVE_ORDER);
+			pairs.sort(byMargin.reversed().thenComparing(byVotes.reversed()).thenComparing(byWinner).thenComparing(byLoser));
+
+			Map<User, Set<User>> locked = new HashMap<>();
+			for (User candidate: candidates) locked.put(candidate, new HashSet<>());
+			for (List<User> pair: pairs)
+				if (!ReferencePolls.reachable(locked, pair.get(1)).contains(pair.get(0)))
+					locked.get(pair.get(0)).add(pair.get(1));
+
+			return candidates.stream()
+				.map(a -> new Entry(a, ReferencePolls.reachable(locked, a).size()))
+				.collect(ReferencePolls.DECREASING_COLLECTOR);
+		}
+	}
+	;
+
+	// Suppliers/Collectors (for custom ranking):
+	// Below are convenience constants to generate instances for and collectors for SortedSets,
+	// Using TreeSets with customizable comparators.
+
+	// Suppliers: Generate an instance of a particular class (in this case, a TreeSet).
+	// Collectors: Collect a Stream of entries into a final Collection (in this case, a TreeSet).
+	private static Supplier<TreeSet<Poll.Entry>> INCREASING_SUPPLIER = () -> new TreeSet<>(Entry.INCREASING);
+	private static Supplier<TreeSet<Entry>> DECREASING_SUPPLIER = () -> new TreeSet<>(Entry.DECREASING);
+
+	private static Collector<Entry, ?, TreeSet<Entry>> DECREASING_COLLECTOR
+		= Collectors.toCollection(ReferencePolls.DECREASING_SUPPLIER);
+	private static Collector<Entry, ?, TreeSet<Entry>> INCREASING_COLLECTOR
+		= Collectors.toCollection(ReferencePolls.INCREASING_SUPPLIER);
+	
+	
+	// Helper function.
+	// Returns a new ballot sans the options provided.
+	// http://stackoverflow.com/a/31873836
+	private static Ballot filterOut(Ballot ballot, Collection<User> options)
+	{
+		List<User> newVotes = new ArrayList<>();
+		for (User vote: ballot.getVotes())
+			if (!options.contains(vote)) newVotes.add(vote);
+		return new Ballot(ballot.getVoter(), newVotes);
+	}
+	// Every candidate, in the order they first appear.
+	private static List<User> candidates(Collection<Ballot> ballots)
+	{
+		return ballots.stream().flatMap(ballot -> ballot.getVotes().stream()).distinct().collect(Collectors.toList());
+	}
+
+	// beats.get(a).get(b) = ballots ranking a above b, where unranked candidates come last,
+	// and only the first appearance of a repeated vote counts.
+	private static Map<User, Map<User, Integer>> beats(Collection<Ballot> ballots, List<User> candidates)
+	{
+		Map<User, Map<User, Integer>> beats = new HashMap<>();
+		for (User a: candidates)
+		{
+			beats.put(a, new HashMap<>());
+			for (User b: candidates) beats.get(a).put(b, 0);
+		}
+		for (Ballot ballot: ballots)
+		{
+			List<User> ranked = ballot.getVotes().stream().distinct().collect(Collectors.toList());
+			for (User a: candidates)
+				for (User b: candidates)
+				{
+					int aRank = ranked.indexOf(a), bRank = ranked.indexOf(b);
+					if (aRank >= 0 && (bRank < 0 || aRank < bRank)) beats.get(a).merge(b, 1, Integer::sum);
+				}
+		}
+		return beats;
+	}
+
+	// Every candidate reachable from a candidate through locked pairs, excluding itself.
+	private static Set<User> reachable(Map<User, Set<User>> locked, User from)
+	{
+		Set<User> seen = new HashSet<>();
+		List<User> stack = new ArrayList<>(locked.get(from));
+		while (!stack.isEmpty())
+		{
+			User next = stack.remove(stack.size() - 1);
+			if (seen.add(next)) stack.addAll(locked.get(next));
+		}
+		return seen;
+	}
+
+	private static List<Ballot> filterOut(List<Ballot> ballots, Collection<User> options)
+	{
+		List<Ballot> newBallots = new ArrayList<>();
+		for (Ballot ballot: ballots)
+		{
+			Ballot newBallot = ReferencePolls.filterOut(ballot, options);
+			if (!newBallot.getVotes().isEmpty())
+				newBallots.add(newBallot);
+		}
+		return newBallots;
+	}
+}
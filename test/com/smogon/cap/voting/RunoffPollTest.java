@@ -0,0 +1,87 @@
+package com.smogon.cap.voting;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+import java.util.Set;
+import java.util.TreeSet;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class RunoffPollTest
+{
+	// The names of the entries, which are all a bulk IRV tally has to agree on.
+	private static Set<String> names(Iterable<Poll.Entry> entries)
+	{
+		Set<String> names = new TreeSet<>();
+		for (Poll.Entry entry: entries) names.add(entry.getUser().getName());
+		return names;
+	}
+
+	@Test
+	public void testSameWinners()
+	{
+		Random random = new Random(19);
+		for (int trial = 0; trial < 3_000; trial++)
+		{
+			List<Ballot> ballots = PollsTest.randomBallots(random, random.nextInt(60), 1 + random.nextInt(12));
+			List<String> log = new ArrayList<>();
+			assertEquals("IRV on trial " + trial,
+				RunoffPollTest.names(Polls.IRV.tally(ballots)),
+				RunoffPollTest.names(RunoffPoll.of(Polls.IRV).excludeInBulk(log::add).tally(ballots)));
+			// Block voting only reports seat numbers, so those should match exactly.
+			assertEquals("PBV on trial " + trial,
+				new ArrayList<>(Polls.PBV.tally(ballots)),
+				new ArrayList<>(RunoffPoll.of(Polls.PBV).excludeInBulk(log::add).tally(ballots)));
+			assertEquals("top 2 on trial " + trial,
+				new ArrayList<>(new RunoffPoll(2).tally(ballots)),
+				new ArrayList<>(new RunoffPoll(2).excludeInBulk(log::add).tally(ballots)));
+		}
+	}
+
+	@Test
+	public void testWriteIns()
+	{
+		// Two front-runners, and a tail of write-ins with one to six votes each, which IRV would eliminate one at a time.
+		List<Ballot> ballots = new ArrayList<>();
+		for (int i = 0; i < 40; i++)
+			ballots.add(new Ballot(User.of("A" + i), Arrays.asList(User.of("A"), User.of("B"))));
+		for (int i = 0; i < 30; i++)
+			ballots.add(new Ballot(User.of("B" + i), Arrays.asList(User.of("B"), User.of("A"))));
+		for (int w = 1; w <= 6; w++)
+			for (int i = 0; i < w; i++)
+				ballots.add(new Ballot(User.of("W" + w + "-" + i), Arrays.asList(User.of("W" + w))));
+
+		List<String> log = new ArrayList<>();
+		RunoffPoll poll = RunoffPoll.of(Polls.IRV).excludeInBulk(log::add);
+		assertEquals(RunoffPollTest.names(Polls.IRV.tally(ballots)), RunoffPollTest.names(poll.tally(ballots)));
+		// The write-ins go out together, and then A's 40 votes are more than B's 30.
+		assertEquals(2, log.size());
+		assertTrue(log.get(0), log.get(0).contains("excluded 6 candidates at once"));
+		assertTrue(log.get(1), log.get(1).contains("stopped early"));
+	}
+
+	@Test
+	public void testOptions()
+	{
+		RunoffPoll bulk = new RunoffPoll(3).excludeInBulk(line -> {});
+		assertEquals(Polls.PBV + " (top 3) (bulk exclusion)", bulk.toString());
+		assertEquals(Polls.IRV.toString(), RunoffPoll.of(Polls.IRV).toString());
+
+		// A copy counts the same way, without the options.
+		RunoffPoll copy = RunoffPoll.of(bulk);
+		assertEquals(Polls.PBV, copy.getPoll());
+		assertEquals(3, copy.getSeats());
+		assertEquals(Polls.PBV + " (top 3)", copy.toString());
+	}
+
+	@Test(expected = IllegalArgumentException.class)
+	public void testOnlyRunoffs()
+	{
+		RunoffPoll.of(Polls.FPTPV);
+	}
+}
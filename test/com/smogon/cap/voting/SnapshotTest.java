@@ -0,0 +1,145 @@
+package com.smogon.cap.voting;
+
+import org.junit.Test;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class SnapshotTest
+{
+	// Ballots compare voters case-insensitively, so compare exact spellings too.
+	private static void assertSameBallots(List<Ballot> expected, List<Ballot> actual)
+	{
+		assertEquals(expected, actual);
+		for (int i = 0; i < expected.size(); i++)
+		{
+			assertEquals(expected.get(i).getVoter().getName(), actual.get(i).getVoter().getName());
+			assertEquals(expected.get(i).getVotes().toString(), actual.get(i).getVotes().toString());
+		}
+	}
+
+	@Test
+	public void testRoundTrip() throws IOException
+	{
+		Random random = new Random(12);
+		Path file = Files.createTempFile("ballots", ".snapshot");
+		for (int trial = 0; trial < 200; trial++)
+		{
+			List<Ballot> ballots = PollsTest.randomBallots(random, random.nextInt(300), 1 + random.nextInt(200));
+			Snapshot.write(file, ballots);
+			assertTrue(Snapshot.isSnapshot(file));
+
+			BallotMatrix matrix = Snapshot.read(file);
+			SnapshotTest.assertSameBallots(ballots, matrix.ballots());
+			for (Polls poll: Polls.values())
+				assertEquals(poll + " on trial " + trial, new ArrayList<>(poll.tally(ballots)), new ArrayList<>(poll.tally(matrix)));
+		}
+	}
+
+	@Test
+	public void testNames() throws IOException
+	{
+		// Names longer than the writer's buffer, outside ASCII, and spelled differently by different voters.
+		char[] longName = new char[100_000];
+		Arrays.fill(longName, '\u00e9');
+		List<Ballot> ballots = Arrays.asList(
+			new Ballot(User.of("Voter1"), Arrays.asList(User.of(new String(longName)), User.of("Pok\u00e9mon"), User.of("Syclant"))),
+			new Ballot(User.of("Voter2"), Arrays.asList(User.of("SYCLANT"), User.of(""))),
+			new Ballot(User.of("Voter1"), Collections.<User>emptyList()));
+
+		Path file = Files.createTempFile("ballots", ".snapshot");
+		try (Snapshot.Writer writer = new Snapshot.Writer(file)) {ballots.forEach(writer);}
+		BallotMatrix matrix = Snapshot.read(file);
+		assertEquals(4, matrix.candidateCount());
+		assertEquals("Syclant", matrix.ballots().get(1).getVotes().get(0).getName()); // the first spelling, as in BallotMatrix
+		assertEquals(ballots, matrix.ballots());
+	}
+
+	@Test
+	public void testEmpty() throws IOException
+	{
+		Path file = Files.createTempFile("ballots", ".snapshot");
+		Snapshot.write(file, Collections.<Ballot>emptyList());
+		assertEquals(0, Snapshot.read(file).size());
+	}
+
+	@Test
+	public void testNotASnapshot() throws IOException
+	{
+		Path file = Files.createTempFile("ballots", ".html");
+		Files.write(file, "<html></html>".getBytes(StandardCharsets.UTF_8));
+		assertFalse(Snapshot.isSnapshot(file));
+		try
+		{
+			Snapshot.read(file);
+			fail();
+		}
+		catch (IOException e){} // expected
+
+		// A snapshot cut short is corrupt, rather than silently missing ballots.
+		Snapshot.write(file, PollsTest.randomBallots(new Random(1), 50, 5));
+		byte[] bytes = Files.readAllBytes(file);
+		Files.write(file, Arrays.copyOf(bytes, bytes.length - 10));
+		try
+		{
+			Snapshot.read(file);
+			fail();
+		}
+		catch (IOException e){} // expected
+	}
+
+	// Reads a snapshot that should be refused as corrupt.
+	private static void assertCorrupt(byte[] snapshot)
+	{
+		try
+		{
+			Snapshot.read(snapshot);
+			fail("Read a corrupt snapshot");
+		}
+		catch (IOException e){assertTrue(e.getMessage(), e.getMessage().contains("corrupt"));}
+	}
+
+	@Test
+	public void testHostileCounts() throws IOException
+	{
+		Path file = Files.createTempFile("ballots", ".snapshot");
+		Snapshot.write(file, Collections.<Ballot>emptyList());
+		byte[] empty = Files.readAllBytes(file); // a header, then four zeroes: no rows, choices, candidates or voters
+		byte[] huge = {(byte) 0xFF, (byte) 0xFF, (byte) 0xFF, (byte) 0xFF, 0x07}; // Integer.MAX_VALUE
+		byte[] negative = {(byte) 0xFF, (byte) 0xFF, (byte) 0xFF, (byte) 0xFF, 0x0F}; // -1
+
+		// Each count in turn asks for far more than the snapshot could hold, which mustn't be allocated.
+		for (int count = 0; count < 4; count++)
+			for (byte[] value: new byte[][]{huge, negative})
+			{
+				ByteBuffer snapshot = ByteBuffer.allocate(empty.length + value.length - 1);
+				snapshot.put(empty, 0, empty.length - 4 + count).put(value).put(new byte[3 - count]);
+				SnapshotTest.assertCorrupt(snapshot.array());
+			}
+
+		// So does a name's length.
+		SnapshotTest.assertCorrupt(ByteBuffer.allocate(empty.length + 6).put(empty, 0, empty.length - 2)
+			.put((byte) 1).put(huge).put((byte) 0).array());
+
+		// The dictionaries must be within the snapshot, after the header.
+		for (long offset: new long[]{-1, 4, empty.length + 1, 1L << 40})
+		{
+			byte[] moved = empty.clone();
+			ByteBuffer.wrap(moved).putLong(8, offset);
+			SnapshotTest.assertCorrupt(moved);
+		}
+	}
+}
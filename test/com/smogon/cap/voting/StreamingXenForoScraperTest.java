@@ -0,0 +1,195 @@
+package com.smogon.cap.voting;
+
+import org.jsoup.Jsoup;
+import org.jsoup.nodes.Document;
+import org.jsoup.nodes.Element;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.net.URL;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class StreamingXenForoScraperTest
+{
+	// A page with posts among the kind of markup the streaming scraper should skip.
+	private static String page(Random random, int posts)
+	{
+		StringBuilder html = new StringBuilder("<!DOCTYPE html><html><head><title>Poll</title>")
+			.append("<script>if (a < b && '<div class=\"message\">') {}</script>")
+			.append("<style>.message > .x {}</style></head><body>")
+			.append("<div class=\"message\">Not a post, as it's outside the block body</div>")
+			.append("<!-- <div class=\"block-body\"> -->")
+			.append("<div class=\"block\"><div class=\"block-body js-replyNewMessageContainer\">");
+		for (int post = 0; post < posts; post++)
+		{
+			html.append("<article class=\"message message--post\" data-author=\"Voter").append(post)
+				.append("\" data-content=\"post-").append(1000 + post).append("\">")
+				.append("<div class=\"message-inner\"><div class=\"message-cell\">")
+				.append("<article class=\"message-body\"><div class=\"bbWrapper\">");
+			XenForoScraperTest.markup(random, html, 0);
+			html.append("</div></article>")
+				.append("<aside class=\"message-signature\"><div class=\"bbWrapper\">");
+			XenForoScraperTest.markup(random, html, 0);
+			html.append("<img src=\"sig.png\" alt='a > b'></div></aside></div></div></article>");
+		}
+		return html.append("</div></div><p>Unclosed footer <p>a 1 < 2 footnote</body></html>").toString();
+	}
+
+	@Test
+	public void testSameBallots() throws IOException
+	{
+		Random random = new Random(23);
+		URL link = new URL("http://localhost/threads/poll.1/");
+		XenForoScraper full = new XenForoScraper();
+		StreamingXenForoScraper streaming = new StreamingXenForoScraper();
+		for (int trial = 0; trial < 500; trial++)
+		{
+			byte[] body = StreamingXenForoScraperTest.page(random, random.nextInt(6)).getBytes(StandardCharsets.UTF_8);
+			Document expected = full.parsePage(body, "UTF-8", link);
+			Document actual = streaming.parsePage(body, "UTF-8", link);
+
+			List<Ballot> expectedBallots = new ArrayList<>();
+			for (Element post: full.getPosts(expected)) expectedBallots.add(full.parse(post));
+			List<Ballot> actualBallots = new ArrayList<>();
+			for (Element post: streaming.getPosts(actual)) actualBallots.add(streaming.parse(post));
+			assertEquals("trial " + trial, expectedBallots, actualBallots);
+			for (int i = 0; i < expectedBallots.size(); i++)
+			{
+				assertEquals(expectedBallots.get(i).getVotes(), actualBallots.get(i).getVotes());
+				assertEquals(full.getPostId(full.getPosts(expected).get(i)), streaming.getPostId(streaming.getPosts(actual).get(i)));
+			}
+		}
+	}
+
+	@Test
+	public void testStrayBrackets() throws IOException
+	{
+		// A '<' that doesn't start a tag is text, even right before one that does.
+		String[] bodies = {
+			"Option1 <<b>Option2</b><br />\nOption3",
+			"<<<br />\nOption1 << Option2<br />\n<3<br />\na < b <",
+			"Option1<<br />Option2<</b>",
+			"<<div>Option1</div>Option2",
+			"Option1<br />\n<<",
+		};
+		URL link = new URL("http://localhost/threads/poll.1/");
+		XenForoScraper full = new XenForoScraper();
+		StreamingXenForoScraper streaming = new StreamingXenForoScraper();
+		for (String body: bodies)
+		{
+			String html = "<html><body><div class=\"block-body\"><article class=\"message\" data-author=\"Voter\">"
+				+ "<div class=\"bbWrapper\">" + body + "</div></article>"
+				+ "<article class=\"message\" data-author=\"Next\"><div class=\"bbWrapper\">After</div></article>"
+				+ "</div></body></html>";
+			byte[] bytes = html.getBytes(StandardCharsets.UTF_8);
+			List<Ballot> expected = new ArrayList<>();
+			for (Element post: full.getPosts(full.parsePage(bytes, "UTF-8", link))) expected.add(full.parse(post));
+			List<Ballot> actual = new ArrayList<>();
+			for (Element post: streaming.getPosts(streaming.parsePage(bytes, "UTF-8", link))) actual.add(streaming.parse(post));
+			assertEquals(body, 2, expected.size());
+			assertEquals(body, expected, actual);
+			assertEquals(body, expected.get(0).getVotes(), actual.get(0).getVotes());
+		}
+	}
+
+	@Test
+	public void testOtherSkin() throws IOException
+	{
+		Path file = Files.createTempFile("forum", ".properties");
+		try
+		{
+			Files.write(file, Arrays.asList(
+				"posts = ol#thread > li.post",
+				"author = .poster",
+				"author.attribute =",
+				"body = blockquote.content",
+				"divider = hr",
+				"next = a[rel=next]",
+				"current = .pages b",
+				"pages = .pages a",
+				"pages.prefix = page/"), StandardCharsets.UTF_8);
+			ForumProfile profile = ForumProfile.load(file);
+			byte[] body = ("<html><body><div class=\"pages\"><b>1</b> <a href=\"/thread/page/2\">2</a></div>"
+				+ "<ul><li class=\"post\">Not in the thread</li></ul><ol id=\"thread\">"
+				+ "<li class=\"post\"><span class=\"poster\">Alice</span><blockquote class=\"content\">Option1<hr>Option2</blockquote>"
+				+ "<div class=\"signature\">Hello</div></li>"
+				+ "<li class=\"post\"><span class=\"poster\">Bob</span><blockquote class=\"content\">Option2</blockquote></li>"
+				+ "</ol><a rel=\"next\" href=\"/thread/page/2\">Next</a><a rel=\"next\" href=\"/elsewhere\">Next</a>"
+				+ "</body></html>").getBytes(StandardCharsets.UTF_8);
+			URL link = new URL("http://localhost/thread/");
+
+			XenForoScraper full = new XenForoScraper(profile);
+			StreamingXenForoScraper streaming = new StreamingXenForoScraper(profile);
+			Document expected = full.parsePage(body, "UTF-8", link);
+			Document actual = streaming.parsePage(body, "UTF-8", link);
+			List<Ballot> ballots = new ArrayList<>();
+			for (Element post: streaming.getPosts(actual)) ballots.add(streaming.parse(post));
+			assertEquals(Arrays.asList(
+				new Ballot(User.of("Alice"), Arrays.asList(User.of("Option1"), User.of("Option2"))),
+				new Ballot(User.of("Bob"), Arrays.asList(User.of("Option2")))), ballots);
+			assertEquals(full.findNextLink(expected), streaming.findNextLink(actual));
+			assertEquals(1, full.findLaterLinks(expected).size());
+			assertEquals(full.findLaterLinks(expected), streaming.findLaterLinks(actual));
+			assertTrue(actual.text(), !actual.text().contains("Not in the thread"));
+
+		}
+		finally
+		{
+			Files.delete(file);
+		}
+	}
+
+	@Test
+	public void testTooComplexToStream() throws IOException
+	{
+		// A tag scanner can't tell which child an element is.
+		Path file = Files.createTempFile("forum", ".properties");
+		try
+		{
+			Files.write(file, Arrays.asList("posts = li.post:first-child"), StandardCharsets.UTF_8);
+			new StreamingXenForoScraper(ForumProfile.load(file));
+			fail("Expected a pseudo-class not to stream");
+		}
+		catch (IllegalArgumentException e){assertTrue(e.getMessage(), e.getMessage().contains(":first-child"));}
+		finally
+		{
+			Files.delete(file);
+		}
+	}
+
+	@Test
+	public void testThread()
+	{
+		try (ForumStandIn forum = new ForumStandIn(9, 4))
+		{
+			List<Ballot> expected = new XenForoScraper().makeBallots(forum.link(1), 3);
+			assertEquals(9 * 4 - 1, expected.size());
+			assertEquals(expected, new StreamingXenForoScraper().makeBallots(forum.link(1), 3));
+
+			List<Ballot> iterated = new ArrayList<>();
+			new StreamingXenForoScraper().iterateBallots(forum.link(1)).forEachRemaining(iterated::add);
+			assertEquals(expected, iterated);
+		}
+	}
+
+	@Test
+	public void testLeavesOutTheRest() throws IOException
+	{
+		byte[] body = StreamingXenForoScraperTest.page(new Random(1), 3).getBytes(StandardCharsets.UTF_8);
+		Document page = new StreamingXenForoScraper().parsePage(body, null, new URL("http://localhost/"));
+		assertTrue(page.select("head script, head style, .block").isEmpty());
+		assertTrue(page.text(), !page.text().contains("outside the block body") && !page.text().contains("footnote"));
+		assertEquals(3, page.select(".message").size());
+		assertTrue(Jsoup.parse(new String(body, StandardCharsets.UTF_8)).getAllElements().size() > page.getAllElements().size());
+	}
+}
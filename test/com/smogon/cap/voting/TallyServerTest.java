@@ -0,0 +1,190 @@
+package com.smogon.cap.voting;
+
+import org.jsoup.nodes.Document;
+import org.jsoup.select.Elements;
+import org.junit.Test;
+
+import java.io.BufferedReader;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.net.HttpURLConnection;
+import java.net.InetAddress;
+import java.net.Socket;
+import java.net.URL;
+import java.net.URLEncoder;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class TallyServerTest
+{
+	// Sends a request, and returns the status and the body, as "<status> <body>".
+	private static String request(URL link, byte[] upload) throws IOException
+	{
+		HttpURLConnection connection = (HttpURLConnection) link.openConnection();
+		if (upload != null)
+		{
+			connection.setRequestMethod("POST");
+			connection.setDoOutput(true);
+			try (OutputStream out = connection.getOutputStream()) {out.write(upload);}
+		}
+		int status = connection.getResponseCode();
+		ByteArrayOutputStream body = new ByteArrayOutputStream();
+		try (InputStream in = status == 200 ? connection.getInputStream() : connection.getErrorStream())
+		{
+			byte[] buffer = new byte[8192];
+			for (int read; (read = in.read(buffer)) != -1;) body.write(buffer, 0, read);
+		}
+		return status + " " + new String(body.toByteArray(), StandardCharsets.UTF_8);
+	}
+
+	private static URL tally(TallyServer server, String query) throws IOException
+	{
+		return new URL("http", "localhost", server.getPort(), "/tally?" + query);
+	}
+
+	@Test
+	public void testThreadsAndUploads() throws IOException
+	{
+		try (ForumStandIn forum = new ForumStandIn(3, 4);
+			TallyServer server = new TallyServer(0, new XenForoScraper(), 2, 16))
+		{
+			URL query = TallyServerTest.tally(server, "poll=IRV&thread=" + URLEncoder.encode(forum.link(1).toString(), "UTF-8"));
+			String first = TallyServerTest.request(query, null);
+			assertTrue(first, first.startsWith("200 {\"poll\": \"IRV\""));
+			for (Poll.Entry entry: Polls.IRV.tally(new XenForoScraper().makeBallots(forum.link(1), 2)))
+				assertTrue(first, first.contains("\"candidate\": \"" + entry.getUser().getName() + "\""));
+			assertEquals(first, TallyServerTest.request(query, null));
+
+			// Uploading the same ballots finds the same tally.
+			Path snapshot = Files.createTempFile("server", ".snapshot");
+			List<Ballot> ballots = new XenForoScraper().makeBallots(forum.link(1), 2);
+			Snapshot.write(snapshot, ballots);
+			assertEquals(first, TallyServerTest.request(TallyServerTest.tally(server, "poll=IRV"), Files.readAllBytes(snapshot)));
+
+			// New votes change the hash, and the tally.
+			forum.addPosts(5);
+			String second = TallyServerTest.request(query, null);
+			assertTrue(second, second.startsWith("200 "));
+			assertTrue(second, !second.equals(first));
+		}
+	}
+
+	@Test
+	public void testBadRequests() throws IOException
+	{
+		try (TallyServer server = new TallyServer(0, new XenForoScraper(), 1, 16))
+		{
+			assertTrue(TallyServerTest.request(TallyServerTest.tally(server, "thread=x"), null).startsWith("400 {\"error\""));
+			assertTrue(TallyServerTest.request(TallyServerTest.tally(server, "poll=STV&thread=x"), null).startsWith("400 "));
+			assertTrue(TallyServerTest.request(TallyServerTest.tally(server, "poll=IRV"), new byte[]{1, 2, 3}).startsWith("400 "));
+		}
+	}
+
+	@Test
+	public void testOnlyScrapesTheWeb() throws IOException
+	{
+		Path secret = Files.createTempFile("server", ".txt");
+		try (TallyServer server = new TallyServer(0, new XenForoScraper(), 1, 16))
+		{
+			for (String thread: new String[]{secret.toUri().toString(), "jar:" + secret.toUri() + "!/x"})
+			{
+				String response = TallyServerTest.request(TallyServerTest.tally(server, "poll=IRV&thread=" + URLEncoder.encode(thread, "UTF-8")), null);
+				assertTrue(response, response.startsWith("400 ") && response.contains("http"));
+			}
+		}
+	}
+
+	@Test
+	public void testUploadLimit() throws IOException
+	{
+		try (TallyServer server = new TallyServer(0, new XenForoScraper(), 1, 16))
+		{
+			// Announce a huge upload, and see it refused before sending any of it.
+			try (Socket socket = new Socket(InetAddress.getLoopbackAddress(), server.getPort()))
+			{
+				socket.getOutputStream().write(("POST /tally?poll=IRV HTTP/1.1\r\nHost: localhost\r\n"
+					+ "Content-Length: " + (TallyServer.MAX_UPLOAD + 1L) + "\r\n\r\n").getBytes(StandardCharsets.US_ASCII));
+				String status = new BufferedReader(new InputStreamReader(socket.getInputStream(), StandardCharsets.US_ASCII)).readLine();
+				assertTrue(status, status.startsWith("HTTP/1.1 413"));
+			}
+		}
+	}
+
+	@Test
+	public void testAnswersErrors() throws IOException
+	{
+		// A scraper that runs out of memory on its first page.
+		XenForoScraper scraper = new XenForoScraper()
+		{
+			@Override
+			protected Elements getPosts(Document page){throw new OutOfMemoryError("Pretend");}
+		};
+		try (ForumStandIn forum = new ForumStandIn(1, 4);
+			TallyServer server = new TallyServer(0, scraper, 1, 16))
+		{
+			URL query = TallyServerTest.tally(server, "poll=IRV&thread=" + URLEncoder.encode(forum.link(1).toString(), "UTF-8"));
+			for (int i = 0; i < 2; i++) // and the server carries on
+			{
+				String response = TallyServerTest.request(query, null);
+				assertTrue(response, response.startsWith("500 ") && response.contains("Pretend"));
+			}
+		}
+	}
+
+	// Uploads a snapshot of ballots by voters and for options that nobody else uses.
+	private static String uploadNewNames(TallyServer server, int upload) throws IOException
+	{
+		List<Ballot> ballots = new ArrayList<>();
+		for (int i = 0; i < 50; i++)
+			ballots.add(new Ballot(User.of("Upload" + upload + "-Voter" + i), Arrays.asList(User.of("Upload" + upload + "-Option" + i % 3))));
+		Path snapshot = Files.createTempFile("server", ".snapshot");
+		Snapshot.write(snapshot, ballots);
+		return TallyServerTest.request(TallyServerTest.tally(server, "poll=IRV"), Files.readAllBytes(snapshot));
+	}
+
+	@Test
+	public void testForgetsNames() throws IOException, InterruptedException
+	{
+		User kept = User.of("Kept voter");
+		int before = User.internedCount();
+		try (TallyServer server = new TallyServer(0, new XenForoScraper(), 1, 16))
+		{
+			for (int upload = 0; upload < 40; upload++)
+			{
+				String response = TallyServerTest.uploadNewNames(server, upload);
+				assertTrue(response, response.startsWith("200 "));
+			}
+		}
+
+		// The server only keeps results as text, so the 2,120 names it has seen can all be collected.
+		for (int attempt = 0; attempt < 100 && User.internedCount() > before + 500; attempt++)
+		{
+			System.gc();
+			Thread.sleep(10);
+		}
+		assertTrue(User.internedCount() + " names", User.internedCount() <= before + 500);
+
+		// IDs are handed out again, but never while still in use.
+		Set<Integer> ids = new HashSet<>();
+		ids.add(kept.getId());
+		List<User> users = new ArrayList<>();
+		for (int i = 0; i < 1000; i++)
+		{
+			users.add(User.of("New user " + i));
+			assertTrue(ids.add(users.get(i).getId()));
+		}
+		assertEquals(kept, User.of("KEPT VOTER"));
+	}
+}
@@ -0,0 +1,105 @@
+package com.smogon.cap.voting;
+
+import org.jsoup.nodes.Document;
+import org.junit.Test;
+
+import java.net.URL;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+
+public class ThreadScraperTest
+{
+	// Every ballot of a stand-in thread, in post order, without the opening post.
+	private static List<Ballot> expected(ForumStandIn forum)
+	{
+		List<Ballot> ballots = new ArrayList<>();
+		for (int post = 1; post < forum.posts(); post++) ballots.add(ForumStandIn.ballot(post));
+		return ballots;
+	}
+
+	@Test
+	public void testConcurrentPages()
+	{
+		try (ForumStandIn forum = new ForumStandIn(12, 5))
+		{
+			List<Ballot> ballots = new XenForoScraper().makeBallots(forum.link(1), 4);
+			assertEquals(ThreadScraperTest.expected(forum), ballots);
+			assertEquals(12, forum.requests()); // each page exactly once
+		}
+	}
+
+	@Test
+	public void testConcurrentFromLaterPage()
+	{
+		try (ForumStandIn forum = new ForumStandIn(8, 3))
+		{
+			// Starting partway through only scrapes the rest of the thread.
+			List<Ballot> ballots = new XenForoScraper().makeBallots(forum.link(6), 4);
+			assertEquals(ThreadScraperTest.expected(forum).subList(3 * 5, 3 * 8 - 1), ballots);
+		}
+	}
+
+	@Test
+	public void testConcurrentSinglePage()
+	{
+		try (ForumStandIn forum = new ForumStandIn(1, 4))
+		{
+			List<Ballot> ballots = new XenForoScraper().makeBallots(forum.link(1), 4);
+			assertEquals(ThreadScraperTest.expected(forum), ballots);
+			assertEquals(1, forum.requests());
+		}
+	}
+
+	@Test
+	public void testConcurrentWithoutNavigation()
+	{
+		try (ForumStandIn forum = new ForumStandIn(5, 3))
+		{
+			// Without the page navigation, pages are followed one at a time from the first, which isn't fetched again.
+			XenForoScraper scraper = new XenForoScraper()
+			{
+				@Override
+				protected List<URL> findLaterLinks(Document page){return null;}
+			};
+			assertEquals(ThreadScraperTest.expected(forum), scraper.makeBallots(forum.link(1), 4));
+			assertEquals(5, forum.requests());
+		}
+	}
+
+	@Test
+	public void testIteratePages()
+	{
+		try (ForumStandIn forum = new ForumStandIn(7, 4))
+		{
+			List<Ballot> ballots = new ArrayList<>();
+			Iterator<Ballot> iterator = new XenForoScraper().iterateBallots(forum.link(1));
+			iterator.forEachRemaining(ballots::add);
+			assertEquals(ThreadScraperTest.expected(forum), ballots);
+			assertEquals(7, forum.requests());
+		}
+	}
+
+	@Test
+	public void testWatch()
+	{
+		try (ForumStandIn forum = new ForumStandIn(3, 4))
+		{
+			ThreadScraper.Watch watch = new XenForoScraper().watch(forum.link(1));
+			assertEquals(ThreadScraperTest.expected(forum), watch.poll());
+			assertEquals(3, forum.requests());
+
+			// Nothing new, so only the last page is checked.
+			assertEquals(new ArrayList<Ballot>(), watch.poll());
+			assertEquals(4, forum.requests());
+
+			// New posts spill over onto two new pages.
+			forum.addPosts(7);
+			List<Ballot> expected = ThreadScraperTest.expected(forum);
+			assertEquals(expected.subList(expected.size() - 7, expected.size()), watch.poll());
+			assertEquals(4 + 3, forum.requests());
+		}
+	}
+}
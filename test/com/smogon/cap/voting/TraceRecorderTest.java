@@ -0,0 +1,167 @@
+package com.smogon.cap.voting;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class TraceRecorderTest
+{
+	// A wins the first round, but B wins once D and C are eliminated. D's ballot has nobody else on it.
+	private static List<Ballot> ballots()
+	{
+		List<Ballot> ballots = new ArrayList<>();
+		String[][] rankings = {{"A", "B"}, {"B", "A"}, {"C", "B"}, {"D"}};
+		int[] counts = {4, 3, 2, 1};
+		for (int i = 0; i < rankings.length; i++)
+			for (int j = 0; j < counts[i]; j++)
+			{
+				List<User> votes = new ArrayList<>();
+				for (String name: rankings[i]) votes.add(User.of(name));
+				ballots.add(new Ballot(User.of(rankings[i][0] + j), votes));
+			}
+		return ballots;
+	}
+
+	// The names of candidates, by ID.
+	private static List<String> names(TraceRecorder trace, int[] ids)
+	{
+		List<String> names = new ArrayList<>();
+		for (int id: ids) names.add(trace.getCandidates().get(id).getName());
+		return names;
+	}
+
+	// A candidate's frequency in a round.
+	private static int frequency(TraceRecorder trace, int round, String name)
+	{
+		return trace.getFrequencies(round)[trace.getCandidates().indexOf(User.of(name))];
+	}
+
+	@Test
+	public void testRounds()
+	{
+		TraceRecorder trace = new TraceRecorder();
+		RunoffPoll.of(Polls.IRV).trace(trace).tally(TraceRecorderTest.ballots());
+
+		assertEquals(4, trace.roundCount());
+		assertEquals(Arrays.asList("D"), TraceRecorderTest.names(trace, trace.getEliminated(0)));
+		assertEquals(Arrays.asList("C"), TraceRecorderTest.names(trace, trace.getEliminated(1)));
+		assertEquals(Arrays.asList("A"), TraceRecorderTest.names(trace, trace.getEliminated(2)));
+		assertEquals(0, trace.getEliminated(3).length);
+		assertArrayEquals(new int[]{0, 1, 1, 1}, new int[]{trace.getExhausted(0), trace.getExhausted(1), trace.getExhausted(2), trace.getExhausted(3)});
+		assertEquals(4, TraceRecorderTest.frequency(trace, 0, "A"));
+		assertEquals(5, TraceRecorderTest.frequency(trace, 2, "B"));
+		assertEquals(9, TraceRecorderTest.frequency(trace, 3, "B"));
+		assertEquals(0, TraceRecorderTest.frequency(trace, 3, "A"));
+		for (int round = 0; round < 4; round++)
+		{
+			assertEquals(1, trace.getSeat(round));
+			assertEquals(round + 1, trace.getRound(round));
+		}
+		assertEquals(1, trace.seatCount());
+		assertEquals(Arrays.asList("B"), TraceRecorderTest.names(trace, trace.getWinners(0)));
+	}
+
+	@Test
+	public void testSeats()
+	{
+		TraceRecorder trace = new TraceRecorder();
+		RunoffPoll.of(Polls.PBV).trace(trace).tally(TraceRecorderTest.ballots());
+
+		List<String> winners = new ArrayList<>();
+		for (int seat = 0; seat < trace.seatCount(); seat++) winners.addAll(TraceRecorderTest.names(trace, trace.getWinners(seat)));
+		assertEquals(Arrays.asList("B", "A", "C", "D"), winners);
+		// The second seat starts over with B's ballots on A, and is decided at once.
+		assertEquals(2, trace.getSeat(4));
+		assertEquals(1, trace.getRound(4));
+		assertEquals(7, TraceRecorderTest.frequency(trace, 4, "A"));
+		// Only C's and D's ballots are left for the third seat.
+		assertEquals(3, trace.getSeat(5));
+		assertEquals(0, trace.getExhausted(5));
+
+		// A recorder only keeps the latest tally.
+		new RunoffPoll(1).trace(trace).tally(TraceRecorderTest.ballots());
+		assertEquals(1, trace.seatCount());
+		assertEquals(4, trace.roundCount());
+	}
+
+	@Test
+	public void testJson()
+	{
+		TraceRecorder trace = new TraceRecorder();
+		RunoffPoll.of(Polls.IRV).trace(trace).tally(Arrays.asList(
+			new Ballot(User.of("V1"), Arrays.asList(User.of("X \"1\""), User.of("Y"))),
+			new Ballot(User.of("V2"), Arrays.asList(User.of("Y"))),
+			new Ballot(User.of("V3"), Arrays.asList(User.of("Y"))),
+			new Ballot(User.of("V4"), Arrays.asList(User.of("Z")))));
+		assertEquals("{\n"
+			+ "  \"candidates\": [\"X \\\"1\\\"\", \"Y\", \"Z\"],\n"
+			+ "  \"rounds\": [\n"
+			+ "    {\"seat\": 1, \"round\": 1, \"frequencies\": [1, 2, 1], \"exhausted\": 0, \"eliminated\": [\"X \\\"1\\\"\", \"Z\"]},\n"
+			+ "    {\"seat\": 1, \"round\": 2, \"frequencies\": [0, 3, 0], \"exhausted\": 1, \"eliminated\": []}\n"
+			+ "  ],\n"
+			+ "  \"seats\": [\n"
+			+ "    {\"seat\": 1, \"winners\": [\"Y\"]}\n"
+			+ "  ]\n"
+			+ "}", trace.toJson());
+		assertEquals("{\n  \"candidates\": [],\n  \"rounds\": [],\n  \"seats\": []\n}", new TraceRecorder().toJson());
+	}
+
+	@Test
+	public void testSameResults()
+	{
+		// Tracing never changes a result, even alongside bulk exclusion.
+		Random random = new Random(25);
+		TraceRecorder trace = new TraceRecorder();
+		List<String> log = new ArrayList<>();
+		for (int trial = 0; trial < 2_000; trial++)
+		{
+			List<Ballot> ballots = PollsTest.randomBallots(random, random.nextInt(60), 1 + random.nextInt(12));
+			assertEquals("IRV on trial " + trial,
+				new ArrayList<>(Polls.IRV.tally(ballots)), new ArrayList<>(RunoffPoll.of(Polls.IRV).trace(trace).tally(ballots)));
+			assertEquals("PBV on trial " + trial,
+				new ArrayList<>(Polls.PBV.tally(ballots)), new ArrayList<>(RunoffPoll.of(Polls.PBV).trace(trace).tally(ballots)));
+			// Every seat's winners are the leaders of its last round.
+			for (int round = 0, seat = 0; round < trace.roundCount(); round++)
+			{
+				if (round + 1 < trace.roundCount() && trace.getSeat(round + 1) == trace.getSeat(round)) continue;
+				int[] frequencies = trace.getFrequencies(round);
+				int most = Arrays.stream(frequencies).max().getAsInt();
+				for (int id: trace.getWinners(seat++)) assertEquals(most, frequencies[id]);
+			}
+			assertEquals("bulk PBV on trial " + trial,
+				new ArrayList<>(RunoffPoll.of(Polls.PBV).excludeInBulk(log::add).tally(ballots)),
+				new ArrayList<>(RunoffPoll.of(Polls.PBV).excludeInBulk(log::add).trace(trace).tally(ballots)));
+		}
+	}
+
+	@Test
+	public void testBulk()
+	{
+		// Write-ins with one to six votes each go out in a single round.
+		List<Ballot> ballots = new ArrayList<>();
+		for (int i = 0; i < 40; i++) ballots.add(new Ballot(User.of("A" + i), Arrays.asList(User.of("A"), User.of("B"))));
+		for (int i = 0; i < 30; i++) ballots.add(new Ballot(User.of("B" + i), Arrays.asList(User.of("B"), User.of("A"))));
+		for (int w = 1; w <= 6; w++)
+			for (int i = 0; i < w; i++) ballots.add(new Ballot(User.of("W" + w + "-" + i), Arrays.asList(User.of("W" + w))));
+
+		TraceRecorder trace = new TraceRecorder();
+		RunoffPoll.of(Polls.IRV).excludeInBulk(line -> {}).trace(trace).tally(ballots);
+		assertEquals(2, trace.roundCount());
+		assertEquals(6, trace.getEliminated(0).length);
+		assertEquals(21, trace.getExhausted(1));
+		assertTrue(trace.toJson().contains("\"winners\": [\"A\"]"));
+	}
+
+	@Test(expected = IllegalArgumentException.class)
+	public void testOnlyRunoffs()
+	{
+		RunoffPoll.of(Polls.SCHULZE).trace(new TraceRecorder());
+	}
+}
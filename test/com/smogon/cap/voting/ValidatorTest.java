@@ -0,0 +1,113 @@
+package com.smogon.cap.voting;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Random;
+import java.util.Set;
+
+import static org.junit.Assert.assertEquals;
+
+public class ValidatorTest
+{
+	private static Ballot ballot(String voter, String... votes)
+	{
+		List<User> users = new ArrayList<>();
+		for (String vote: votes) users.add(User.of(vote));
+		return new Ballot(User.of(voter), users);
+	}
+
+	// The messages the original Ballot.validate() printed.
+	private static List<String> reference(List<Ballot> ballots)
+	{
+		List<String> messages = new ArrayList<>();
+		Set<User> seenVoters = new HashSet<>();
+		for (Ballot ballot: ballots)
+		{
+			User voter = ballot.getVoter();
+			if (seenVoters.contains(voter)) messages.add("Invalid vote detected: "  + voter + " repeated post.");
+			seenVoters.add(voter);
+			if (ballot.getVotes().isEmpty()) messages.add("Invalid vote detected: " + voter + " made no votes.");
+			Set<User> seenVotes = new HashSet<>();
+			for (User vote : ballot.getVotes())
+			{
+				if (seenVotes.contains(vote)) messages.add("Invalid vote detected: "  + voter + " repeated vote " + vote);
+				seenVotes.add(vote);
+			}
+		}
+		return messages;
+	}
+
+	private static List<String> messages(List<Validator.Violation> violations)
+	{
+		List<String> messages = new ArrayList<>();
+		for (Validator.Violation violation: violations) messages.add(violation.toString());
+		return messages;
+	}
+
+	@Test
+	public void testRules()
+	{
+		List<Validator.Violation> violations = new ArrayList<>();
+		Validator validator = new Validator(violations::add)
+			.withMaxVotes(2)
+			.withCandidates(Arrays.asList(User.of("Syclant"), User.of("Revenankh"), User.of("Pyroak")));
+		Arrays.asList(
+			ValidatorTest.ballot("Voter1", "Syclant", "Pyroak"),
+			ValidatorTest.ballot("Voter2"),
+			ValidatorTest.ballot("voter1", "Revenankh"),
+			ValidatorTest.ballot("Voter3", "Pyroak", "PYROAK"),
+			ValidatorTest.ballot("Voter4", "Syclant", "Revenankh", "Pyroak"),
+			ValidatorTest.ballot("Voter5", "Fidgit")
+		).forEach(validator);
+
+		List<Validator.Rule> rules = new ArrayList<>();
+		List<Integer> rows = new ArrayList<>();
+		for (Validator.Violation violation: violations)
+		{
+			rules.add(violation.getRule());
+			rows.add(violation.getRow());
+		}
+		assertEquals(Arrays.asList(Validator.Rule.EMPTY_BALLOT, Validator.Rule.REPEATED_VOTER, Validator.Rule.REPEATED_OPTION,
+			Validator.Rule.OVERLONG_BALLOT, Validator.Rule.UNKNOWN_CANDIDATE), rules);
+		assertEquals(Arrays.asList(1, 2, 3, 4, 5), rows);
+		assertEquals("PYROAK", violations.get(2).getOption().getName());
+		assertEquals("Fidgit", violations.get(4).getOption().getName());
+	}
+
+	@Test
+	public void testWithout()
+	{
+		List<Validator.Violation> violations = new ArrayList<>();
+		Validator validator = new Validator(violations::add).without(Validator.Rule.EMPTY_BALLOT);
+		validator.accept(new Ballot(User.of("Voter1"), Collections.<User>emptyList()));
+		assertEquals(0, violations.size());
+	}
+
+	@Test
+	public void testRandomizedAgainstReference()
+	{
+		Random random = new Random(13);
+		for (int trial = 0; trial < 1_000; trial++)
+		{
+			List<Ballot> ballots = PollsTest.randomBallots(random, random.nextInt(40), 1 + random.nextInt(8));
+			for (int i = 0; i < ballots.size(); i++) // repeat some voters
+			{
+				if (random.nextInt(5) == 0) ballots.set(i, new Ballot(User.of("V" + random.nextInt(i + 1)), ballots.get(i).getVotes()));
+			}
+			List<String> expected = ValidatorTest.reference(ballots);
+
+			List<Validator.Violation> violations = new ArrayList<>();
+			ballots.forEach(new Validator(violations::add));
+			assertEquals("Ballots on trial " + trial, expected, ValidatorTest.messages(violations));
+
+			violations.clear();
+			new Validator(violations::add).accept(BallotMatrix.of(ballots));
+			assertEquals("Matrix on trial " + trial, expected, ValidatorTest.messages(violations));
+		}
+	}
+}
@@ -0,0 +1,146 @@
+package com.smogon.cap.voting;
+
+import org.jsoup.Jsoup;
+import org.jsoup.nodes.Element;
+import org.jsoup.safety.Whitelist;
+import org.jsoup.select.Elements;
+import org.junit.Test;
+
+import java.net.URL;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+import java.util.stream.Collectors;
+
+import static org.junit.Assert.assertEquals;
+
+public class XenForoScraperTest
+{
+	// The original parser, which cleans the post's HTML and splits it with regexes.
+	private static Ballot reference(Element post)
+	{
+		User voter = User.of(post.attr("data-author"));
+		String html = post.select(".bbWrapper").outerHtml();
+		String text = Jsoup.clean(html, Whitelist.none().addTags("br")).trim();
+		String votesPart = text.split("<br>[ \\t\\n]*<br>", 2)[0];
+		List<User> votes = Arrays.stream(votesPart.split("<br>"))
+			.map(String::trim)
+			.map(User::of)
+			.collect(Collectors.toList());
+		return new Ballot(voter, votes);
+	}
+
+	private static final String[] TEXTS = {
+		"Option1", "Option 2", "  Pre", "Evo  ", "a &amp; b", "x &lt; y", "&nbsp;", " ", "\n", "\t \n", "\"quoted\"", "",
+	};
+	private static final String[] TAGS = {"b", "i", "span", "a", "div", "p", "blockquote", "ul", "li", "pre", "custom", "h3"};
+
+	// Writes random post markup, biased towards the lines, tags and whitespace voters actually write.
+	static void markup(Random random, StringBuilder html, int depth)
+	{
+		int nodes = random.nextInt(8);
+		for (int i = 0; i < nodes; i++)
+		{
+			int kind = random.nextInt(12);
+			if (kind < 4) html.append(TEXTS[random.nextInt(TEXTS.length)]);
+			else if (kind < 7) html.append(random.nextBoolean() ? "<br>" : "<br />\n");
+			else if (kind == 7) html.append("<!-- comment -->");
+			else if (kind == 8) html.append(random.nextBoolean() ? "<script>var x = 1;</script>" : "<img src=\"x.png\">");
+			else if (depth < 3)
+			{
+				String tag = TAGS[random.nextInt(TAGS.length)];
+				html.append('<').append(tag).append('>');
+				XenForoScraperTest.markup(random, html, depth + 1);
+				html.append("</").append(tag).append('>');
+			}
+		}
+	}
+
+	// Renders posts as XenForo 2 does, as in ForumStandIn.
+	private static Elements posts(List<String> messages)
+	{
+		StringBuilder html = new StringBuilder("<html><body><div class=\"block-body\">");
+		for (int i = 0; i < messages.size(); i++)
+		{
+			html.append("<article class=\"message\" data-author=\"Voter").append(i).append("\">")
+				.append("<article class=\"message-body\"><div class=\"bbWrapper\">")
+				.append(messages.get(i))
+				.append("</div></article></article>");
+		}
+		return new XenForoScraper().getPosts(Jsoup.parse(html.append("</div></body></html>").toString()));
+	}
+
+	private static void assertParsesAsBefore(List<String> messages)
+	{
+		XenForoScraper scraper = new XenForoScraper();
+		for (String message: messages)
+		{
+			// One post per page, so that stray tags can't swallow the next post.
+			Element post = XenForoScraperTest.posts(Arrays.asList(message)).first();
+			// Users are equal regardless of case, so compare the votes' exact spellings instead.
+			assertEquals(message, XenForoScraperTest.reference(post).getVotes().toString(), scraper.parse(post).getVotes().toString());
+		}
+	}
+
+	@Test
+	public void testParse()
+	{
+		XenForoScraperTest.assertParsesAsBefore(Arrays.asList(
+			"Option1<br />\nOption2<br />\n<br />\nA comment.",
+			"Option1<br>Option2",
+			"Option1<br>Option2<br>",
+			"<br>Option1<br><br>comment",
+			"<br>",
+			"",
+			"   ",
+			"Option1",
+			"<b>Option1</b><br><i>Option2</i> <br> <br>comment",
+			"Pre<b>Evo</b><br>Mega &amp; Co.<br>&nbsp;<br>",
+			"<div>Option1</div><div>Option2</div>",
+			"Option1<br><!-- hidden --><br>comment",
+			"<blockquote>Quoting someone<br>else</blockquote>My vote<br>Option2"));
+	}
+
+	@Test
+	public void testLaterLinks()
+	{
+		XenForoScraper scraper = new XenForoScraper();
+		String nav = "<ul class=\"pageNav-main\">"
+			+ "<li class=\"pageNav-page pageNav-page--current\"><a href=\"/threads/t.1/\">1</a></li>%s</ul>";
+		// A thread with one page has no navigation, which can't be told apart from an unknown skin.
+		assertEquals(null, scraper.findLaterLinks(Jsoup.parse("<div class=\"message\"></div>", "https://example.com/")));
+		assertEquals(new ArrayList<URL>(), scraper.findLaterLinks(Jsoup.parse(String.format(nav, ""), "https://example.com/")));
+		List<URL> links = scraper.findLaterLinks(Jsoup.parse(String.format(nav,
+			"<li class=\"pageNav-page\"><a href=\"/threads/t.1/page-3\">3</a></li>"), "https://example.com/"));
+		assertEquals(Arrays.asList("https://example.com/threads/t.1/page-2", "https://example.com/threads/t.1/page-3"),
+			links.stream().map(URL::toString).collect(Collectors.toList()));
+	}
+
+	@Test
+	public void testRandomizedAgainstReference()
+	{
+		Random random = new Random(9);
+		List<String> messages = new ArrayList<>();
+		for (int trial = 0; trial < 20000; trial++)
+		{
+			StringBuilder html = new StringBuilder();
+			XenForoScraperTest.markup(random, html, 0);
+			messages.add(html.toString());
+		}
+		XenForoScraperTest.assertParsesAsBefore(messages);
+	}
+
+	@Test
+	public void testTypicalPosts()
+	{
+		List<String> messages = new ArrayList<>();
+		for (int i = 0; i < 2000; i++)
+			messages.add("Option" + i % 7 + "<br />\n<b>Option" + (i + 1) % 7 + "</b><br />\nOption" + (i + 2) % 7
+				+ "<br />\n<br />\nSome thoughts on <i>why</i> I voted this way, <a href=\"#\">with a link</a>.");
+		XenForoScraperTest.assertParsesAsBefore(messages);
+
+		Ballot ballot = new XenForoScraper().parse(XenForoScraperTest.posts(messages).get(5));
+		assertEquals(Arrays.asList(User.of("Option5"), User.of("Option6"), User.of("Option0")), ballot.getVotes());
+	}
+}